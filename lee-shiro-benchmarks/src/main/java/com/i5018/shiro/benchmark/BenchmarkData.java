@@ -0,0 +1,65 @@
+package com.i5018.shiro.benchmark;
+
+import com.i5018.shiro.authc.UserPrincipal;
+import com.i5018.shiro.constant.ShiroConstant;
+import com.i5018.shiro.constant.ShiroUserStateEnum;
+import com.i5018.shiro.session.ShiroSession;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 基准测试数据，结构与登录后的真实数据一致
+ *
+ * @author limk
+ * @date 2020/9/15 14:40
+ */
+public final class BenchmarkData {
+
+    public static final String REALM_NAME = "usernamePasswordRealm";
+
+    private BenchmarkData() {
+    }
+
+    public static UserPrincipal userPrincipal(String username, int roles, int permissions) {
+        UserPrincipal user = new UserPrincipal(10001L, username,
+                "3c9f1b0e6a8d4f2b7e5c1a9d8b7f6e5d4c3b2a1f0e9d8c7b6a5f4e3d2c1b0a9f",
+                "8f1e2d3c4b5a69788796a5b4c3d2e1f0", ShiroUserStateEnum.NORMAL);
+        user.setRoles(names("role:", roles));
+        user.setPermissions(names("system:resource:", permissions));
+        return user;
+    }
+
+    public static SimpleAuthorizationInfo authorizationInfo(UserPrincipal user) {
+        SimpleAuthorizationInfo info = new SimpleAuthorizationInfo(user.getRoles());
+        info.setStringPermissions(user.getPermissions());
+        return info;
+    }
+
+    /**
+     * 已登录的会话：登录信息、认证标识、踢出控制用户名
+     */
+    public static ShiroSession session(UserPrincipal user) {
+        ShiroSession session = new ShiroSession("192.168.1.100");
+        session.setId(UUID.randomUUID().toString());
+        session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+                new SimplePrincipalCollection(user, REALM_NAME));
+        session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, Boolean.TRUE);
+        session.setAttribute(ShiroConstant.DEFAULT_KICK_OUT_SUBJECT, user.getUsername());
+        session.setChanged(false);
+        return session;
+    }
+
+    private static Set<String> names(String prefix, int count) {
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            names.add(prefix + i + (i % 2 == 0 ? ":view" : ":edit"));
+        }
+        return names;
+    }
+
+}
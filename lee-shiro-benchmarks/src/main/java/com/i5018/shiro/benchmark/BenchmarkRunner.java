@@ -0,0 +1,33 @@
+package com.i5018.shiro.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口，参数与 JMH 命令行一致，默认附加 GC 分析（gc.alloc.rate.norm 为每次操作分配的字节数）
+ * <pre>
+ * mvn -Pbenchmarks -pl lee-shiro-benchmarks -am package
+ * java -jar lee-shiro-benchmarks/target/benchmarks.jar SerializerBenchmark
+ * </pre>
+ *
+ * @author limk
+ * @date 2020/9/15 16:40
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLineOptions);
+        if (commandLineOptions.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.i5018.shiro.benchmark;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内 redis 替身，只实现缓存与会话读写用到的字符串命令（GET/SET/SETEX/EXPIRE/DEL 等），
+ * 不支持 Lua 脚本和管道结果，用于测量客户端一侧的开销
+ * <p>
+ * {@code roundTripNanos} 大于 0 时每个命令额外等待该时长，模拟网络往返。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/15 14:20
+ */
+public class InMemoryRedisConnectionFactory implements RedisConnectionFactory {
+
+    private final ConcurrentMap<ByteBuffer, Entry> data = new ConcurrentHashMap<>();
+
+    /**
+     * 模拟的往返时间
+     */
+    private final long roundTripNanos;
+
+    public InMemoryRedisConnectionFactory() {
+        this(0);
+    }
+
+    public InMemoryRedisConnectionFactory(long roundTripNanos) {
+        this.roundTripNanos = roundTripNanos;
+    }
+
+    @Override
+    public RedisConnection getConnection() {
+        boolean[] closed = new boolean[1];
+        return (RedisConnection) Proxy.newProxyInstance(RedisConnection.class.getClassLoader(),
+                new Class<?>[]{RedisConnection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            closed[0] = true;
+                            return null;
+                        case "isClosed":
+                            return closed[0];
+                        case "isPipelined":
+                        case "isQueueing":
+                            return false;
+                        case "openPipeline":
+                            return null;
+                        case "closePipeline":
+                            return Collections.emptyList();
+                        default:
+                            roundTrip();
+                            return execute(method.getName(), args);
+                    }
+                });
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        throw new UnsupportedOperationException("cluster is not supported");
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return false;
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        throw new UnsupportedOperationException("sentinel is not supported");
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return null;
+    }
+
+    public void flushAll() {
+        data.clear();
+    }
+
+    private Object execute(String command, Object[] args) {
+        long now = System.currentTimeMillis();
+        switch (command) {
+            case "get":
+                return value(key(args[0]), now);
+            case "mGet": {
+                List<byte[]> values = new ArrayList<>();
+                for (byte[] key : (byte[][]) args[0]) {
+                    values.add(value(key(key), now));
+                }
+                return values;
+            }
+            case "set":
+                data.put(key(args[0]), new Entry((byte[]) args[1], Long.MAX_VALUE));
+                return Boolean.TRUE;
+            case "setEx":
+                data.put(key(args[0]), new Entry((byte[]) args[2], now + TimeUnit.SECONDS.toMillis((Long) args[1])));
+                return Boolean.TRUE;
+            case "pSetEx":
+                data.put(key(args[0]), new Entry((byte[]) args[2], now + (Long) args[1]));
+                return Boolean.TRUE;
+            case "expire":
+                return expire(key(args[0]), now + TimeUnit.SECONDS.toMillis((Long) args[1]), now);
+            case "pExpire":
+                return expire(key(args[0]), now + (Long) args[1], now);
+            case "exists": {
+                if (args[0] instanceof byte[]) {
+                    return value(key(args[0]), now) != null;
+                }
+                long count = 0;
+                for (byte[] key : (byte[][]) args[0]) {
+                    if (value(key(key), now) != null) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            case "del":
+            case "unlink": {
+                long count = 0;
+                for (byte[] key : (byte[][]) args[0]) {
+                    if (data.remove(key(key)) != null) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            default:
+                throw new UnsupportedOperationException("command " + command + " is not supported");
+        }
+    }
+
+    private byte[] value(ByteBuffer key, long now) {
+        Entry entry = data.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (now >= entry.expireAt) {
+            data.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private Boolean expire(ByteBuffer key, long expireAt, long now) {
+        Entry entry = data.get(key);
+        if (entry == null || now >= entry.expireAt) {
+            return Boolean.FALSE;
+        }
+        return data.replace(key, entry, new Entry(entry.value, expireAt));
+    }
+
+    private void roundTrip() {
+        if (roundTripNanos > 0) {
+            LockSupport.parkNanos(roundTripNanos);
+        }
+    }
+
+    private static ByteBuffer key(Object key) {
+        return ByteBuffer.wrap((byte[]) key);
+    }
+
+    private static final class Entry {
+
+        private final byte[] value;
+
+        private final long expireAt;
+
+        private Entry(byte[] value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+}
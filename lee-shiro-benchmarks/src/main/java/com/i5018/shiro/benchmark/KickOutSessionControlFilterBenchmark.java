@@ -0,0 +1,127 @@
+package com.i5018.shiro.benchmark;
+
+import com.i5018.shiro.authc.UserPrincipal;
+import com.i5018.shiro.cache.ExpiredCacheManager;
+import com.i5018.shiro.cache.RedisCacheManager;
+import com.i5018.shiro.filter.KickOutSessionControlFilter;
+import com.i5018.shiro.session.RedisSessionDAO;
+import com.i5018.shiro.session.ShiroSessionFactory;
+import com.i5018.shiro.session.repository.SessionRepositoryImpl;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.session.mgt.DefaultSessionManager;
+import org.apache.shiro.session.mgt.SessionManager;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link KickOutSessionControlFilter#onAccessDenied} 多线程竞争：所有线程使用同一账号的不同会话，
+ * 最大会话数足够大，测量的是已登录请求的常规路径（队列读取与同步）
+ *
+ * @author limk
+ * @date 2020/9/15 16:10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class KickOutSessionControlFilterBenchmark {
+
+    /**
+     * 模拟的往返时间（纳秒）
+     */
+    @Param({"0"})
+    private long roundTripNanos;
+
+    private RedisCacheManager cacheManager;
+
+    private DefaultSecurityManager securityManager;
+
+    private BenchmarkKickOutFilter filter;
+
+    private UserPrincipal user;
+
+    @Setup
+    public void setUp() {
+        InMemoryRedisConnectionFactory redisConnectionFactory = new InMemoryRedisConnectionFactory(roundTripNanos);
+        cacheManager = new RedisCacheManager(redisConnectionFactory);
+
+        DefaultSessionManager sessionManager = new DefaultSessionManager();
+        sessionManager.setSessionValidationSchedulerEnabled(false);
+        sessionManager.setSessionFactory(new ShiroSessionFactory());
+        sessionManager.setSessionDAO(new RedisSessionDAO(new SessionRepositoryImpl(redisConnectionFactory)));
+
+        securityManager = new DefaultSecurityManager();
+        securityManager.setSessionManager(sessionManager);
+
+        filter = new BenchmarkKickOutFilter(cacheManager, sessionManager);
+        filter.setMaxSession(Integer.MAX_VALUE);
+        user = BenchmarkData.userPrincipal("benchmark", 3, 20);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        securityManager.destroy();
+        cacheManager.destroy();
+    }
+
+    /**
+     * 每个线程一个已登录的 Subject
+     */
+    @State(Scope.Thread)
+    public static class ThreadSubject {
+
+        @Setup
+        public void bind(KickOutSessionControlFilterBenchmark benchmark) {
+            Subject subject = new Subject.Builder(benchmark.securityManager)
+                    .principals(new SimplePrincipalCollection(benchmark.user, BenchmarkData.REALM_NAME))
+                    .authenticated(true)
+                    .buildSubject();
+            subject.getSession();
+            ThreadContext.bind(subject);
+        }
+
+        @TearDown
+        public void unbind() {
+            ThreadContext.remove();
+        }
+    }
+
+    @Benchmark
+    public boolean onAccessDenied(ThreadSubject subject) throws Exception {
+        return filter.onAccessDenied(null, null);
+    }
+
+    private static final class BenchmarkKickOutFilter extends KickOutSessionControlFilter {
+
+        private BenchmarkKickOutFilter(ExpiredCacheManager cacheManager, SessionManager sessionManager) {
+            super(cacheManager, sessionManager);
+        }
+
+        @Override
+        protected boolean onAccessDenied(ServletRequest request, ServletResponse response) throws Exception {
+            return super.onAccessDenied(request, response);
+        }
+    }
+
+}
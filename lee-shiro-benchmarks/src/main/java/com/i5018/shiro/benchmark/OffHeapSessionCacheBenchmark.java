@@ -0,0 +1,105 @@
+package com.i5018.shiro.benchmark;
+
+import com.i5018.shiro.session.OffHeapSessionCache;
+import com.i5018.shiro.session.RedisSessionDAO;
+import com.i5018.shiro.session.ShiroSession;
+import com.i5018.shiro.session.repository.SessionRepositoryImpl;
+import org.apache.shiro.session.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OffHeapSessionCache} 作为 {@link RedisSessionDAO} 活跃会话缓存时的请求路径
+ * <p>
+ * {@code touchUpdate} 为每次请求 touch 后的 update，只更新缓存索引中的最后访问时间；
+ * {@code reputUpdate} 为修改前的行为，每次 touch 都重新序列化整个会话放入缓存。
+ * {@code concurrentGet}/{@code concurrentPut} 在多线程下比较分段数为 1（全局锁）与默认分段数。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/17 15:20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OffHeapSessionCacheBenchmark {
+
+    private static final int SESSIONS = 1024;
+
+    @Param({"1", "16"})
+    private int segments;
+
+    private OffHeapSessionCache cache;
+
+    private RedisSessionDAO sessionDAO;
+
+    private ShiroSession[] sessions;
+
+    @Setup
+    public void setUp() {
+        cache = new OffHeapSessionCache(OffHeapSessionCache.DEFAULT_CAPACITY,
+                OffHeapSessionCache.DEFAULT_BLOCK_SIZE, segments);
+        sessionDAO = new RedisSessionDAO(new SessionRepositoryImpl(new InMemoryRedisConnectionFactory(0)));
+        sessionDAO.setActiveSessionsCache(cache);
+
+        sessions = new ShiroSession[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions[i] = BenchmarkData.session(BenchmarkData.userPrincipal("benchmark" + i, 3, 20));
+            cache.put(sessions[i].getId(), sessions[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        cache.destroy();
+    }
+
+    @Benchmark
+    public void touchUpdate() {
+        ShiroSession session = nextSession();
+        session.touch();
+        sessionDAO.update(session);
+    }
+
+    @Benchmark
+    public void reputUpdate() {
+        ShiroSession session = nextSession();
+        session.touch();
+        cache.put(session.getId(), session);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Session concurrentGet() {
+        return cache.get(nextSession().getId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void concurrentPut() {
+        ShiroSession session = nextSession();
+        cache.put(session.getId(), session);
+    }
+
+    private ShiroSession nextSession() {
+        return sessions[ThreadLocalRandom.current().nextInt(SESSIONS)];
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.i5018.shiro.benchmark;
+
+import com.i5018.shiro.cache.ExpiredCache;
+import com.i5018.shiro.cache.RedisCacheManager;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link com.i5018.shiro.cache.RedisCache} 读写，redis 为进程内替身
+ *
+ * @author limk
+ * @date 2020/9/15 15:20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisCacheBenchmark {
+
+    /**
+     * 模拟的往返时间（纳秒）
+     */
+    @Param({"0"})
+    private long roundTripNanos;
+
+    private RedisCacheManager cacheManager;
+
+    private ExpiredCache<String, SimpleAuthorizationInfo> cache;
+
+    private SimpleAuthorizationInfo value;
+
+    @Setup
+    public void setUp() {
+        cacheManager = new RedisCacheManager(new InMemoryRedisConnectionFactory(roundTripNanos));
+        cache = cacheManager.getCache("authorizationCache");
+        value = BenchmarkData.authorizationInfo(BenchmarkData.userPrincipal("benchmark", 3, 20));
+        cache.put("hit", value);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        cacheManager.destroy();
+    }
+
+    @Benchmark
+    public SimpleAuthorizationInfo getHit() {
+        return cache.get("hit");
+    }
+
+    @Benchmark
+    public SimpleAuthorizationInfo getMiss() {
+        return cache.get("miss");
+    }
+
+    @Benchmark
+    public SimpleAuthorizationInfo put() {
+        return cache.put("put", value);
+    }
+
+}
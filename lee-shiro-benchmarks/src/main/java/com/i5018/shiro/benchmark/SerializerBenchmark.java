@@ -0,0 +1,94 @@
+package com.i5018.shiro.benchmark;
+
+import com.i5018.shiro.authc.UserPrincipal;
+import com.i5018.shiro.session.ShiroSessionSerializer;
+import com.i5018.shiro.util.FstSerializer;
+import com.i5018.shiro.util.ObjectRedisSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序列化工具对比：JDK、FST、预注册的 FST、会话专用编码
+ *
+ * @author limk
+ * @date 2020/9/15 15:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"jdk", "fst", "fstRegistered", "sessionCodec"})
+    private String serializer;
+
+    @Param({"session", "userPrincipal", "authorizationInfo"})
+    private String payload;
+
+    /**
+     * 权限数量
+     */
+    @Param({"20"})
+    private int permissions;
+
+    private RedisSerializer<Object> redisSerializer;
+
+    private Object value;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        switch (serializer) {
+            case "fst":
+                redisSerializer = new FstSerializer();
+                break;
+            case "fstRegistered":
+                redisSerializer = FstSerializer.withShiroClasses();
+                break;
+            case "sessionCodec":
+                redisSerializer = new ShiroSessionSerializer();
+                break;
+            default:
+                redisSerializer = new ObjectRedisSerializer();
+        }
+
+        UserPrincipal user = BenchmarkData.userPrincipal("benchmark", 3, permissions);
+        switch (payload) {
+            case "userPrincipal":
+                value = user;
+                break;
+            case "authorizationInfo":
+                value = BenchmarkData.authorizationInfo(user);
+                break;
+            default:
+                value = BenchmarkData.session(user);
+        }
+        bytes = redisSerializer.serialize(value);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return redisSerializer.serialize(value);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return redisSerializer.deserialize(bytes);
+    }
+
+}
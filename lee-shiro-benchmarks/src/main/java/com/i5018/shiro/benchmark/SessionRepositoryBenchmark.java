@@ -0,0 +1,84 @@
+package com.i5018.shiro.benchmark;
+
+import com.i5018.shiro.session.ShiroSession;
+import com.i5018.shiro.session.ShiroSessionSerializer;
+import com.i5018.shiro.session.repository.SessionRepositoryImpl;
+import com.i5018.shiro.util.ObjectRedisSerializer;
+import org.apache.shiro.session.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SessionRepositoryImpl} 会话读写往返，redis 为进程内替身
+ *
+ * @author limk
+ * @date 2020/9/15 15:40
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionRepositoryBenchmark {
+
+    @Param({"jdk", "sessionCodec"})
+    private String serializer;
+
+    /**
+     * 模拟的往返时间（纳秒）
+     */
+    @Param({"0"})
+    private long roundTripNanos;
+
+    private SessionRepositoryImpl sessionRepository;
+
+    private ShiroSession session;
+
+    @Setup
+    public void setUp() {
+        sessionRepository = new SessionRepositoryImpl(new InMemoryRedisConnectionFactory(roundTripNanos));
+        sessionRepository.setSerializerValue("sessionCodec".equals(serializer)
+                ? new ShiroSessionSerializer() : new ObjectRedisSerializer());
+        session = BenchmarkData.session(BenchmarkData.userPrincipal("benchmark", 3, 20));
+        sessionRepository.saveSession(session);
+    }
+
+    @Benchmark
+    public Session getSession() {
+        return sessionRepository.getSession(session.getId());
+    }
+
+    @Benchmark
+    public void updateSession() {
+        sessionRepository.updateSession(session);
+    }
+
+    @Benchmark
+    public void refreshSession() {
+        sessionRepository.refreshSession(session.getId());
+    }
+
+    /**
+     * 一次请求中的典型操作：读取、续期、更新
+     */
+    @Benchmark
+    public Session readRefreshUpdate() {
+        Session read = sessionRepository.getSession(session.getId());
+        sessionRepository.refreshSession(session.getId());
+        sessionRepository.updateSession(read);
+        return read;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.i5018.shiro.cache;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步缓存，操作异常时与同步接口一致：记录日志并以 {@code null} 完成
+ *
+ * @author limk
+ * @date 2020/9/10 15:30
+ */
+public interface AsyncExpiredCache<K, V> extends ExpiredCache<K, V> {
+
+    /**
+     * Returns the Cached value stored under the specified {@code key} asynchronously.
+     *
+     * @param key the key that the value was previous added with
+     * @return a future of the cached object or {@code null} if there is no entry for the specified {@code key}
+     */
+    CompletableFuture<V> getAsync(K key);
+
+    /**
+     * Adds a Cache entry asynchronously, the previous value is not returned.
+     *
+     * @param key     the key used to identify the object being stored.
+     * @param value   the value to be stored in the cache.
+     * @param expired the expiration time of the entry, {@code null} for the default expiration.
+     * @return a future completed when the entry has been written
+     */
+    CompletableFuture<Void> putAsync(K key, V value, Duration expired);
+
+    /**
+     * Remove the cache entry corresponding to the specified key asynchronously.
+     *
+     * @param key the key of the entry to be removed.
+     * @return a future completed when the entry has been removed
+     */
+    CompletableFuture<Void> removeAsync(K key);
+
+}
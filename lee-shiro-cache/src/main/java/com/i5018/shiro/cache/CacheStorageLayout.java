@@ -0,0 +1,21 @@
+package com.i5018.shiro.cache;
+
+/**
+ * 缓存在 redis 中的存储结构
+ *
+ * @author limk
+ * @date 2020/9/13 15:10
+ */
+public enum CacheStorageLayout {
+
+    /**
+     * 每个条目一个 key：keyPrefix + name + ":" + key，见 {@link RedisCache}
+     */
+    KEY_PER_ENTRY,
+
+    /**
+     * 每个缓存固定数量的 hash 分桶，见 {@link HashBucketRedisCache}
+     */
+    HASH_BUCKETS
+
+}
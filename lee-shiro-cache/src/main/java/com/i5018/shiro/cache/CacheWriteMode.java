@@ -0,0 +1,26 @@
+package com.i5018.shiro.cache;
+
+/**
+ * 缓存写入/删除时获取旧值的方式
+ *
+ * @author limk
+ * @date 2020/9/9 10:20
+ */
+public enum CacheWriteMode {
+
+    /**
+     * 先 GET 旧值再写入/删除，两次往返
+     */
+    READ_BEFORE_WRITE,
+
+    /**
+     * 在同一个脚本中原子地取回旧值并写入/删除，一次往返
+     */
+    ATOMIC,
+
+    /**
+     * 只写入/删除，不取回旧值，put/remove 总是返回 {@code null}
+     */
+    WRITE_ONLY
+
+}
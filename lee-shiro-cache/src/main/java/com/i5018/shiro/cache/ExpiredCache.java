@@ -4,6 +4,10 @@ import org.apache.shiro.cache.Cache;
 import org.apache.shiro.cache.CacheException;
 
 import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * @author limk
@@ -22,6 +26,69 @@ public interface ExpiredCache<K, V> extends Cache<K, V> {
      */
     V put(K key, V value, Duration expired) throws CacheException;
 
+    /**
+     * Returns the Cached value stored under the specified {@code key}, loading and caching it with
+     * {@code loader} on a miss. Implementations may coalesce concurrent loads of the same key.
+     *
+     * @param key    the key used to identify the object being stored.
+     * @param loader computes the value on a miss, a {@code null} result is returned but not cached.
+     * @return the cached or loaded value
+     * @throws CacheException if there is a problem accessing the underlying cache system
+     */
+    default V get(K key, Function<? super K, ? extends V> loader) throws CacheException {
+        V value = get(key);
+        if (value == null && key != null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the Cached values stored under the specified {@code keys}.
+     *
+     * @param keys the keys used to identify the objects.
+     * @return the found key-value pairs, keys without a cached value are absent from the result
+     * @throws CacheException if there is a problem accessing the underlying cache system
+     */
+    default Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds all the entries to the cache.
+     *
+     * @param entries the key-value pairs to be stored in the cache.
+     * @param expired the expiration time of the entries, {@code null} for the default expiration.
+     * @throws CacheException if there is a problem accessing the underlying cache system
+     */
+    default void putAll(Map<K, V> entries, Duration expired) throws CacheException {
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue(), expired);
+        }
+    }
+
+    /**
+     * Removes the entries of the specified {@code keys}.
+     *
+     * @param keys the keys of the entries to be removed.
+     * @throws CacheException if there is a problem accessing the underlying cache system
+     */
+    default void removeAll(Collection<K> keys) throws CacheException {
+        for (K key : keys) {
+            remove(key);
+        }
+    }
+
     /**
      * Instance with name.
      */
@@ -0,0 +1,925 @@
+package com.i5018.shiro.cache;
+
+import com.i5018.shiro.cache.ExpiredCache.Named;
+import com.i5018.shiro.cache.metrics.CacheMetricsCollector;
+import com.i5018.shiro.cache.metrics.CacheOperation;
+import com.i5018.shiro.util.LuaScript;
+import com.i5018.shiro.util.RedisLock;
+import com.i5018.shiro.util.RedisRequestContext;
+import org.apache.shiro.cache.CacheException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.util.CollectionUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 以 hash 分桶存储的 redis 缓存
+ * <p>
+ * 每个命名缓存固定使用 {@code bucketCount} 个 hash（{@code keyPrefix + name + "@bucket:" + 序号}），
+ * key 按 {@link String#hashCode()} 分配到桶中，字段为 key，值为 8 字节大端过期时间戳（毫秒）+ 序列化后的 value。
+ * 过期条目在读取时忽略，并在写入时按 {@code sweepProbability} 的概率清理所在的桶；
+ * 桶本身的有效期不短于其中最长的条目，整桶不再使用后自动删除。
+ * {@code clear()} 只需 UNLINK 全部桶。
+ * </p>
+ * <p>
+ * 分桶只有在 redis 使用紧凑编码时才节省内存，需要同时满足：
+ * <ul>
+ * <li>每个桶的条目数不超过 hash-max-listpack-entries（7.0 以前为 hash-max-ziplist-entries，默认 128）。
+ * 桶数量应按预计条目数计算，见 {@link #bucketCountFor(long)}，默认每桶约 {@value #ENTRIES_PER_BUCKET} 条；</li>
+ * <li>字段和值都不超过 hash-max-listpack-value（7.0 以前为 hash-max-ziplist-value，默认 64 字节）。
+ * 值包含 8 字节过期时间戳，序列化后的 value 通常超过默认值，需要按实际大小调大该配置，
+ * 否则桶会转为普通 hash 编码，内存反而比每条一个 key 更多。</li>
+ * </ul>
+ * 桶数量创建后不能修改，否则已有数据无法读取。
+ * </p>
+ * <p>
+ * 支持 {@link #get(Object, Function)} 的合并加载（本节点合并，启用 loadLockEnabled 时通过 redis 锁在节点间合并）
+ * 与 ttlJitter；滑动过期、提前刷新与本地降级存储需要逐条 key 的有效期，分桶存储不支持。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/13 15:30
+ */
+public class HashBucketRedisCache<K, V> implements ExpiredCache<K, V>, Named {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashBucketRedisCache.class);
+
+    /**
+     * 桶key后缀
+     */
+    private static final String BUCKET_KEY_SUFFIX = "@bucket:";
+
+    /**
+     * 加载锁key后缀
+     */
+    private static final String LOCK_KEY_SUFFIX = "@lock:";
+
+    /**
+     * 过期时间戳字节数
+     */
+    private static final int EXPIRE_AT_LENGTH = 8;
+
+    /**
+     * 按预计条目数计算桶数量时每个桶的目标条目数，低于 hash-max-listpack-entries 默认的 128 并留有余量
+     */
+    public static final int ENTRIES_PER_BUCKET = 100;
+
+    /**
+     * 按预计条目数计算桶数量时的上限
+     */
+    private static final int MAX_BUCKET_COUNT = 1 << 20;
+
+    /**
+     * KEYS[1] 桶; ARGV[1] 字段 ARGV[2] 值 ARGV[3] 有效期(毫秒) ARGV[4] 当前时间(毫秒) ARGV[5] 是否清理 ARGV[6] 是否返回旧值
+     */
+    private static final LuaScript PUT = new LuaScript(
+            "local function expireAt(v) "
+                    + "if #v < " + EXPIRE_AT_LENGTH + " then return 0 end "
+                    + "local t = 0 "
+                    + "for i = 1, " + EXPIRE_AT_LENGTH + " do t = t * 256 + string.byte(v, i) end "
+                    + "return t end "
+                    + "local old = false "
+                    + "if ARGV[6] == '1' then old = redis.call('HGET', KEYS[1], ARGV[1]) end "
+                    + "redis.call('HSET', KEYS[1], ARGV[1], ARGV[2]) "
+                    + "if redis.call('PTTL', KEYS[1]) < tonumber(ARGV[3]) then "
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[3]) end "
+                    + "if ARGV[5] == '1' then "
+                    + "local now = tonumber(ARGV[4]) "
+                    + "local all = redis.call('HGETALL', KEYS[1]) "
+                    + "for i = 1, #all, 2 do "
+                    + "if expireAt(all[i + 1]) <= now then "
+                    + "redis.call('HDEL', KEYS[1], all[i]) end "
+                    + "end "
+                    + "end "
+                    + "return old");
+
+    /**
+     * KEYS[1] 桶; ARGV[1] 字段
+     */
+    private static final LuaScript GET_AND_DELETE = new LuaScript(
+            "local old = redis.call('HGET', KEYS[1], ARGV[1]) "
+                    + "redis.call('HDEL', KEYS[1], ARGV[1]) "
+                    + "return old");
+
+    /**
+     * 缓存名称
+     */
+    private final String name;
+
+    /**
+     * redis连接工厂
+     */
+    private final RedisConnectionFactory redisConnectionFactory;
+
+    /**
+     * 缓存前缀
+     */
+    private String keyPrefix;
+
+    /**
+     * 缓存有效期
+     */
+    private Duration expiration;
+
+    /**
+     * key序列化工具
+     */
+    private RedisSerializer<String> serializerKey;
+
+    /**
+     * value序列化工具
+     */
+    private RedisSerializer<Object> serializerValue;
+
+    /**
+     * 桶数量，创建后不能修改，否则已有数据无法读取
+     */
+    private int bucketCount = 1024;
+
+    /**
+     * 写入时清理所在桶中过期条目的概率
+     */
+    private double sweepProbability = 0.05D;
+
+    /**
+     * 每批管道处理的桶数量
+     */
+    private int scanCount = 1000;
+
+    /**
+     * put/remove 是否取回旧值，只有 WRITE_ONLY 不取回，其余都在同一脚本中原子取回
+     */
+    private CacheWriteMode writeMode = CacheWriteMode.READ_BEFORE_WRITE;
+
+    /**
+     * 指标采集
+     */
+    private CacheMetricsCollector metricsCollector = CacheMetricsCollector.NONE;
+
+    /**
+     * 默认有效期的随机缩短比例（0~1），避免同时写入的条目同时过期
+     */
+    private double ttlJitter = 0D;
+
+    /**
+     * 是否使用 redis 锁在多个节点间合并加载
+     */
+    private boolean loadLockEnabled = false;
+
+    /**
+     * 加载锁租约，同时也是等待其他节点加载的最长时间
+     */
+    private Duration loadLockLease = Duration.ofSeconds(10);
+
+    /**
+     * 等待其他节点加载时的轮询间隔（毫秒）
+     */
+    private long loadLockRetryInterval = 50;
+
+    /**
+     * 本节点正在加载的 key
+     */
+    private final ConcurrentMap<K, CompletableFuture<V>> loadings = new ConcurrentHashMap<>();
+
+    public HashBucketRedisCache(String name, RedisConnectionFactory redisConnectionFactory) {
+        this.name = name;
+        this.redisConnectionFactory = redisConnectionFactory;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    public Duration getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(Duration expiration) {
+        this.expiration = expiration;
+    }
+
+    public RedisSerializer<String> getSerializerKey() {
+        return serializerKey;
+    }
+
+    public void setSerializerKey(RedisSerializer<String> serializerKey) {
+        this.serializerKey = serializerKey;
+    }
+
+    public RedisSerializer<Object> getSerializerValue() {
+        return serializerValue;
+    }
+
+    public void setSerializerValue(RedisSerializer<Object> serializerValue) {
+        this.serializerValue = serializerValue;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public void setBucketCount(int bucketCount) {
+        if (bucketCount <= 0) {
+            throw new IllegalArgumentException("bucketCount must be greater than 0");
+        }
+        this.bucketCount = bucketCount;
+    }
+
+    public double getSweepProbability() {
+        return sweepProbability;
+    }
+
+    public void setSweepProbability(double sweepProbability) {
+        this.sweepProbability = sweepProbability;
+    }
+
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    public void setScanCount(int scanCount) {
+        this.scanCount = scanCount;
+    }
+
+    public CacheWriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    public void setWriteMode(CacheWriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public CacheMetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+
+    public void setMetricsCollector(CacheMetricsCollector metricsCollector) {
+        this.metricsCollector = metricsCollector != null ? metricsCollector : CacheMetricsCollector.NONE;
+    }
+
+    public double getTtlJitter() {
+        return ttlJitter;
+    }
+
+    public void setTtlJitter(double ttlJitter) {
+        this.ttlJitter = ttlJitter;
+    }
+
+    public boolean isLoadLockEnabled() {
+        return loadLockEnabled;
+    }
+
+    public void setLoadLockEnabled(boolean loadLockEnabled) {
+        this.loadLockEnabled = loadLockEnabled;
+    }
+
+    public Duration getLoadLockLease() {
+        return loadLockLease;
+    }
+
+    public void setLoadLockLease(Duration loadLockLease) {
+        this.loadLockLease = loadLockLease;
+    }
+
+    public long getLoadLockRetryInterval() {
+        return loadLockRetryInterval;
+    }
+
+    public void setLoadLockRetryInterval(long loadLockRetryInterval) {
+        this.loadLockRetryInterval = loadLockRetryInterval;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(K key) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Getting object from cache [" + getName() + "] for key [" + key + "]");
+        }
+
+        if (key == null) {
+            return null;
+        }
+
+        V result = null;
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            result = (V) decode(redisConnection.hGet(bucketKey(key), field(key)), System.currentTimeMillis());
+            recordLookup(result != null ? 1 : 0, result != null ? 0 : 1);
+        } catch (Exception e) {
+            logger.error("shiro redis cache get exception. ", e);
+            recordError(CacheOperation.GET, e);
+        } finally {
+            recordLatency(CacheOperation.GET, start);
+        }
+
+        return result;
+    }
+
+    /**
+     * 未命中时加载，同一 key 的并发加载在本节点内合并为一次，
+     * 启用 loadLockEnabled 时再通过 redis 锁在节点间合并，未获得锁的节点轮询等待加载结果，
+     * 等待超过租约或 redis 不可用时退回本地加载
+     */
+    @Override
+    public V get(K key, Function<? super K, ? extends V> loader) throws CacheException {
+        V value = get(key);
+        if (value != null || key == null) {
+            return value;
+        }
+
+        CompletableFuture<V> loading = new CompletableFuture<>();
+        CompletableFuture<V> existing = loadings.putIfAbsent(key, loading);
+        if (existing != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Waiting for concurrent load in cache [" + getName() + "] for key [" + key + "]");
+            }
+            return join(existing);
+        }
+
+        try {
+            value = loadLockEnabled ? loadWithLock(key, loader) : load(key, loader);
+            loading.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadings.remove(key, loading);
+        }
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        return put(key, value, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V put(K key, V value, Duration expired) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Putting object in cache [" + getName() + "] for key [" + key + "]");
+        }
+
+        if (key == null) {
+            return value;
+        }
+
+        V result = null;
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            long now = System.currentTimeMillis();
+            byte[] previous = executePut(redisConnection, key, value, expired, now, writeMode != CacheWriteMode.WRITE_ONLY);
+            result = (V) decode(previous, now);
+            metricsCollector.recordPuts(name, 1);
+        } catch (Exception e) {
+            logger.error("shiro redis cache put exception. ", e);
+            recordError(CacheOperation.PUT, e);
+        } finally {
+            recordLatency(CacheOperation.PUT, start);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(K key) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Removing object from cache [" + getName() + "] for key [" + key + "]");
+        }
+        if (key == null) {
+            return null;
+        }
+
+        V result = null;
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            if (writeMode == CacheWriteMode.WRITE_ONLY) {
+                redisConnection.hDel(bucketKey(key), field(key));
+            } else {
+                byte[] previous = GET_AND_DELETE.execute(redisConnection, ReturnType.VALUE, 1, bucketKey(key), field(key));
+                result = (V) decode(previous, System.currentTimeMillis());
+            }
+            metricsCollector.recordEvictions(name, 1);
+        } catch (Exception e) {
+            logger.error("shiro redis cache remove exception. ", e);
+            recordError(CacheOperation.REMOVE, e);
+        } finally {
+            recordLatency(CacheOperation.REMOVE, start);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Getting {} objects from cache [{}]", keys == null ? 0 : keys.size(), getName());
+        }
+
+        Map<K, V> result = new LinkedHashMap<>();
+        List<K> validKeys = nonNullKeys(keys);
+        if (validKeys.isEmpty()) {
+            return result;
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            redisConnection.openPipeline();
+            List<Object> values;
+            try {
+                for (K key : validKeys) {
+                    redisConnection.hGet(bucketKey(key), field(key));
+                }
+            } finally {
+                values = redisConnection.closePipeline();
+            }
+
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < validKeys.size() && i < values.size(); i++) {
+                Object raw = values.get(i);
+                V value = raw instanceof byte[] ? (V) decode((byte[]) raw, now) : null;
+                if (value != null) {
+                    result.put(validKeys.get(i), value);
+                }
+            }
+            recordLookup(result.size(), validKeys.size() - result.size());
+        } catch (Exception e) {
+            logger.error("shiro redis cache getAll exception. ", e);
+            recordError(CacheOperation.GET_ALL, e);
+        } finally {
+            recordLatency(CacheOperation.GET_ALL, start);
+        }
+
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<K, V> entries, Duration expired) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Putting {} objects in cache [{}]", entries == null ? 0 : entries.size(), getName());
+        }
+
+        if (CollectionUtils.isEmpty(entries)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            long now = System.currentTimeMillis();
+            long ttlMillis = ttlMillis(expired);
+            // 序列化可能访问 redis（如字典编号），需在打开管道前完成
+            List<K> keys = new ArrayList<>(entries.size());
+            List<byte[]> values = new ArrayList<>(entries.size());
+            for (Map.Entry<K, V> entry : entries.entrySet()) {
+                if (entry.getKey() != null) {
+                    keys.add(entry.getKey());
+                    values.add(encode(entry.getValue(), now + ttlMillis));
+                }
+            }
+
+            redisConnection.openPipeline();
+            try {
+                for (int i = 0; i < keys.size(); i++) {
+                    executePut(redisConnection, keys.get(i), values.get(i), ttlMillis, now, false);
+                }
+            } finally {
+                redisConnection.closePipeline();
+            }
+            metricsCollector.recordPuts(name, keys.size());
+        } catch (Exception e) {
+            logger.error("shiro redis cache putAll exception. ", e);
+            recordError(CacheOperation.PUT_ALL, e);
+        } finally {
+            recordLatency(CacheOperation.PUT_ALL, start);
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Removing {} objects from cache [{}]", keys == null ? 0 : keys.size(), getName());
+        }
+
+        List<K> validKeys = nonNullKeys(keys);
+        if (validKeys.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            redisConnection.openPipeline();
+            try {
+                for (K key : validKeys) {
+                    redisConnection.hDel(bucketKey(key), field(key));
+                }
+            } finally {
+                redisConnection.closePipeline();
+            }
+            metricsCollector.recordEvictions(name, validKeys.size());
+        } catch (Exception e) {
+            logger.error("shiro redis cache removeAll exception. ", e);
+            recordError(CacheOperation.REMOVE_ALL, e);
+        } finally {
+            recordLatency(CacheOperation.REMOVE_ALL, start);
+        }
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Clear all cached objects.");
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            for (int from = 0; from < bucketCount; from += scanCount) {
+                int to = Math.min(from + scanCount, bucketCount);
+                byte[][] buckets = new byte[to - from][];
+                for (int i = from; i < to; i++) {
+                    buckets[i - from] = bucketKey(i);
+                }
+                redisConnection.unlink(buckets);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unlinked {} buckets of cache [{}].", bucketCount, getName());
+            }
+        } catch (Exception e) {
+            logger.error("shiro redis cache clear exception.", e);
+            recordError(CacheOperation.CLEAR, e);
+        } finally {
+            recordLatency(CacheOperation.CLEAR, start);
+        }
+    }
+
+    /**
+     * 按桶 HLEN 统计，不传输 value；包含已过期但尚未被清理的条目，只是近似值
+     */
+    @Override
+    public int size() {
+        if (logger.isDebugEnabled()) {
+            logger.debug("shiro redis cache size.{}", name);
+        }
+
+        long length = 0;
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            for (int from = 0; from < bucketCount; from += scanCount) {
+                int to = Math.min(from + scanCount, bucketCount);
+                redisConnection.openPipeline();
+                List<Object> lengths;
+                try {
+                    for (int i = from; i < to; i++) {
+                        redisConnection.hLen(bucketKey(i));
+                    }
+                } finally {
+                    lengths = redisConnection.closePipeline();
+                }
+                for (Object bucketLength : lengths) {
+                    if (bucketLength instanceof Number) {
+                        length += ((Number) bucketLength).longValue();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("shiro redis cache size exception.", e);
+            recordError(CacheOperation.SIZE, e);
+        } finally {
+            recordLatency(CacheOperation.SIZE, start);
+        }
+
+        return (int) Math.min(Integer.MAX_VALUE, length);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<K> keys() {
+        if (logger.isDebugEnabled()) {
+            logger.debug("shiro redis cache keys.{}", name);
+        }
+
+        Set<K> resultSet = null;
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            Set<K> keys = new HashSet<>();
+            forEachEntry(redisConnection, (field, value) -> keys.add((K) serializerKey.deserialize(field)));
+            if (!keys.isEmpty()) {
+                resultSet = keys;
+            }
+        } catch (Exception e) {
+            logger.error("shiro redis cache keys exception.", e);
+            recordError(CacheOperation.KEYS, e);
+        } finally {
+            recordLatency(CacheOperation.KEYS, start);
+        }
+
+        return resultSet;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Collection<V> values() {
+        if (logger.isDebugEnabled()) {
+            logger.debug("shiro redis cache values.{}", name);
+        }
+
+        Collection<V> values = null;
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            List<V> result = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            forEachEntry(redisConnection, (field, value) -> {
+                V v = (V) decode(value, now);
+                if (v != null) {
+                    result.add(v);
+                }
+            });
+            if (!result.isEmpty()) {
+                values = Collections.unmodifiableList(result);
+            }
+        } catch (Exception e) {
+            logger.error("shiro redis cache values exception.", e);
+            recordError(CacheOperation.VALUES, e);
+        } finally {
+            recordLatency(CacheOperation.VALUES, start);
+        }
+
+        return values;
+    }
+
+    private byte[] executePut(RedisConnection redisConnection, K key, V value, Duration expired, long now,
+                              boolean returnPrevious) {
+        long ttlMillis = ttlMillis(expired);
+        return executePut(redisConnection, key, encode(value, now + ttlMillis), ttlMillis, now, returnPrevious);
+    }
+
+    private byte[] executePut(RedisConnection redisConnection, K key, byte[] encoded, long ttlMillis, long now,
+                              boolean returnPrevious) {
+        boolean sweep = sweepProbability > 0 && ThreadLocalRandom.current().nextDouble() < sweepProbability;
+        return PUT.execute(redisConnection, ReturnType.VALUE, 1, bucketKey(key),
+                field(key), encoded, ascii(ttlMillis), ascii(now),
+                ascii(sweep ? 1 : 0), ascii(returnPrevious ? 1 : 0));
+    }
+
+    /**
+     * 有效期（毫秒），未指定时使用默认有效期并按 ttlJitter 随机缩短
+     */
+    private long ttlMillis(Duration expired) {
+        if (expired != null) {
+            return expired.toMillis();
+        }
+        long millis = getExpiration().toMillis();
+        if (ttlJitter > 0) {
+            long jitter = (long) (millis * Math.min(ttlJitter, 1D) * ThreadLocalRandom.current().nextDouble());
+            millis = Math.max(1, millis - jitter);
+        }
+        return millis;
+    }
+
+    private V loadWithLock(K key, Function<? super K, ? extends V> loader) {
+        RedisLock lock = loadLock(key);
+        long deadline = System.nanoTime() + loadLockLease.toNanos();
+        do {
+            boolean locked;
+            try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+                locked = lock.tryLock(redisConnection);
+            } catch (Exception e) {
+                logger.error("shiro redis cache load lock exception. ", e);
+                return load(key, loader);
+            }
+
+            if (locked) {
+                try {
+                    V value = get(key);
+                    return value != null ? value : load(key, loader);
+                } finally {
+                    unlock(lock);
+                }
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(loadLockRetryInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            V value = get(key);
+            if (value != null) {
+                return value;
+            }
+        } while (System.nanoTime() < deadline);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Timed out waiting for load lock in cache [" + getName() + "] for key [" + key + "]");
+        }
+        return load(key, loader);
+    }
+
+    private V load(K key, Function<? super K, ? extends V> loader) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loading object for cache [" + getName() + "] for key [" + key + "]");
+        }
+
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = loader.apply(key);
+        } finally {
+            metricsCollector.recordLatency(name, CacheOperation.LOAD, System.nanoTime() - start);
+        }
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    private RedisLock loadLock(K key) {
+        return new RedisLock(serializerKey.serialize(keyPrefix + name + LOCK_KEY_SUFFIX + key), loadLockLease);
+    }
+
+    private void unlock(RedisLock lock) {
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            lock.unlock(redisConnection);
+        } catch (Exception e) {
+            logger.error("shiro redis cache load unlock exception. ", e);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CacheException(cause);
+        }
+    }
+
+    /**
+     * 按预计条目数计算桶数量，使每个桶约 {@value #ENTRIES_PER_BUCKET} 条，保持紧凑编码
+     *
+     * @param expectedEntries 预计的最大条目数
+     * @return 桶数量，至少为 1
+     */
+    public static int bucketCountFor(long expectedEntries) {
+        if (expectedEntries <= ENTRIES_PER_BUCKET) {
+            return 1;
+        }
+        return (int) Math.min(MAX_BUCKET_COUNT, (expectedEntries + ENTRIES_PER_BUCKET - 1) / ENTRIES_PER_BUCKET);
+    }
+
+    /**
+     * 分批管道读取全部桶，只回调未过期的条目
+     */
+    private void forEachEntry(RedisConnection redisConnection, BiConsumer<byte[], byte[]> consumer) {
+        for (int from = 0; from < bucketCount; from += scanCount) {
+            int to = Math.min(from + scanCount, bucketCount);
+            redisConnection.openPipeline();
+            List<Object> buckets;
+            try {
+                for (int i = from; i < to; i++) {
+                    redisConnection.hGetAll(bucketKey(i));
+                }
+            } finally {
+                buckets = redisConnection.closePipeline();
+            }
+
+            long now = System.currentTimeMillis();
+            for (Object bucket : buckets) {
+                if (!(bucket instanceof Map)) {
+                    continue;
+                }
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) bucket).entrySet()) {
+                    byte[] value = (byte[]) entry.getValue();
+                    if (expireAt(value) > now) {
+                        consumer.accept((byte[]) entry.getKey(), value);
+                    }
+                }
+            }
+        }
+    }
+
+    private byte[] bucketKey(K key) {
+        return bucketKey(Math.floorMod(spread(String.valueOf(key).hashCode()), bucketCount));
+    }
+
+    private byte[] bucketKey(int bucket) {
+        return serializerKey.serialize(keyPrefix + name + BUCKET_KEY_SUFFIX + bucket);
+    }
+
+    private byte[] field(K key) {
+        return serializerKey.serialize(String.valueOf(key));
+    }
+
+    private byte[] encode(V value, long expireAt) {
+        byte[] bytes = serializerValue.serialize(value);
+        int length = bytes == null ? 0 : bytes.length;
+        byte[] result = new byte[EXPIRE_AT_LENGTH + length];
+        for (int i = EXPIRE_AT_LENGTH - 1; i >= 0; i--) {
+            result[i] = (byte) expireAt;
+            expireAt >>>= 8;
+        }
+        if (length > 0) {
+            System.arraycopy(bytes, 0, result, EXPIRE_AT_LENGTH, length);
+            metricsCollector.recordBytes(name, false, length);
+        }
+        return result;
+    }
+
+    private Object decode(byte[] bytes, long now) {
+        if (bytes == null || bytes.length <= EXPIRE_AT_LENGTH || expireAt(bytes) <= now) {
+            return null;
+        }
+        byte[] value = new byte[bytes.length - EXPIRE_AT_LENGTH];
+        System.arraycopy(bytes, EXPIRE_AT_LENGTH, value, 0, value.length);
+        metricsCollector.recordBytes(name, true, value.length);
+        return serializerValue.deserialize(value);
+    }
+
+    private static long expireAt(byte[] bytes) {
+        if (bytes == null || bytes.length < EXPIRE_AT_LENGTH) {
+            return 0L;
+        }
+        long expireAt = 0;
+        for (int i = 0; i < EXPIRE_AT_LENGTH; i++) {
+            expireAt = (expireAt << 8) | (bytes[i] & 0xFF);
+        }
+        return expireAt;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static byte[] ascii(long value) {
+        return String.valueOf(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private List<K> nonNullKeys(Collection<K> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return Collections.emptyList();
+        }
+        List<K> result = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            if (key != null) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    private void recordLookup(long hits, long misses) {
+        if (hits > 0) {
+            metricsCollector.recordHits(name, hits);
+        }
+        if (misses > 0) {
+            metricsCollector.recordMisses(name, misses);
+        }
+    }
+
+    private void recordError(CacheOperation operation, Throwable e) {
+        metricsCollector.recordError(name, operation, e);
+    }
+
+    private void recordLatency(CacheOperation operation, long start) {
+        metricsCollector.recordLatency(name, operation, System.nanoTime() - start);
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.i5018.shiro.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * redis 不可用时的本地降级存储
+ * <p>
+ * redis 正常时同步最近读写的数据（{@link #mirror}），不可用时从本地读取，
+ * 写入/删除记录到本地并标记为待同步，redis 恢复后由 {@link #reconcile} 回写。
+ * 条目数受 {@code maxSize} 限制，待同步记录超过上限时丢弃新的记录。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/13 11:20
+ */
+public class LocalFallbackStore<K, V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalFallbackStore.class);
+
+    /**
+     * 本地数据
+     */
+    private final LocalLruCache<V> entries;
+
+    /**
+     * 待同步的 key，true 写入 false 删除
+     */
+    private final ConcurrentMap<K, Boolean> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 降级期间是否执行过清空
+     */
+    private volatile boolean clearPending;
+
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+
+    public LocalFallbackStore(int maxSize) {
+        this.entries = new LocalLruCache<>(maxSize);
+    }
+
+    /**
+     * 同步 redis 中的值
+     */
+    public void mirror(K key, V value, long ttlMillis) {
+        entries.put(localKey(key), value, ttlMillis);
+    }
+
+    /**
+     * 同步 redis 中的删除
+     */
+    public void evict(K key) {
+        entries.remove(localKey(key));
+    }
+
+    /**
+     * 同步 redis 中的清空
+     */
+    public void evictAll() {
+        entries.clear();
+    }
+
+    public V get(K key) {
+        return entries.get(localKey(key));
+    }
+
+    /**
+     * 降级写入
+     */
+    public void put(K key, V value, long ttlMillis) {
+        entries.put(localKey(key), value, ttlMillis);
+        markPending(key, Boolean.TRUE);
+    }
+
+    /**
+     * 降级删除
+     */
+    public void remove(K key) {
+        entries.remove(localKey(key));
+        markPending(key, Boolean.FALSE);
+    }
+
+    /**
+     * 降级清空
+     */
+    public void clear() {
+        entries.clear();
+        pending.clear();
+        clearPending = true;
+    }
+
+    public boolean hasPending() {
+        return clearPending || !pending.isEmpty();
+    }
+
+    /**
+     * 回写降级期间的修改，同一时间只执行一次
+     *
+     * @param clearer 清空 redis
+     * @param writer  写入 redis
+     * @param deleter 从 redis 删除
+     */
+    public void reconcile(Runnable clearer, BiConsumer<K, V> writer, Consumer<K> deleter) {
+        if (!reconciling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (clearPending) {
+                clearPending = false;
+                clearer.run();
+            }
+
+            int count = 0;
+            for (Map.Entry<K, Boolean> entry : pending.entrySet()) {
+                K key = entry.getKey();
+                if (!pending.remove(key, entry.getValue())) {
+                    continue;
+                }
+                V value = entry.getValue() ? entries.get(localKey(key)) : null;
+                if (value != null) {
+                    writer.accept(key, value);
+                } else {
+                    deleter.accept(key);
+                }
+                count++;
+            }
+            if (count > 0) {
+                logger.info("Reconciled {} entries written during redis outage", count);
+            }
+        } finally {
+            reconciling.set(false);
+        }
+    }
+
+    private void markPending(K key, Boolean write) {
+        if (pending.size() >= entries.getMaxSize() && !pending.containsKey(key)) {
+            logger.warn("Fallback store pending limit {} reached, change of key [{}] will not be reconciled",
+                    entries.getMaxSize(), key);
+            return;
+        }
+        pending.put(key, write);
+    }
+
+    private String localKey(K key) {
+        return String.valueOf(key);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.i5018.shiro.cache;
+
+import java.time.Duration;
+
+/**
+ * 本地有界 LRU 缓存，每个条目带有独立的过期时间
+ * <p>
+ * 基于 {@link MemoryExpiredCache} 按 key 的哈希分段加锁，并发读写不同分段互不阻塞；
+ * 每段各自维护 LRU 链表，容量按段平均分配，淘汰的是所在分段中最久未访问的条目。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/7 10:12
+ */
+public class LocalLruCache<V> {
+
+    /**
+     * 默认分段数
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * 最大条目数
+     */
+    private final int maxSize;
+
+    private final MemoryExpiredCache<String, V> entries;
+
+    public LocalLruCache(int maxSize) {
+        this(maxSize, DEFAULT_SEGMENTS);
+    }
+
+    public LocalLruCache(int maxSize, int segments) {
+        this.maxSize = maxSize;
+        this.entries = new MemoryExpiredCache<>(LocalLruCache.class.getSimpleName(), null, maxSize, segments);
+    }
+
+    public V get(String key) {
+        return entries.get(key);
+    }
+
+    public void put(String key, V value, long ttlMillis) {
+        if (value == null || ttlMillis <= 0) {
+            entries.remove(key);
+            return;
+        }
+        entries.put(key, value, Duration.ofMillis(ttlMillis));
+    }
+
+    public V remove(String key) {
+        return entries.remove(key);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+}
@@ -0,0 +1,510 @@
+package com.i5018.shiro.cache;
+
+import com.i5018.shiro.cache.ExpiredCache.Named;
+import org.apache.shiro.cache.CacheException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * JVM 内存缓存
+ * <p>
+ * 按 key 的哈希分段加锁，每段维护 LRU 链表和分层时间轮：写入时把条目挂到到期时间对应的时间轮槽位，
+ * 推进时间轮只处理到期槽位中的条目，过期清理的开销与条目总数无关。
+ * 读取时检查条目的过期时间，时间轮只负责回收内存，可以由 {@link #cleanUp()} 定时推进。
+ * 条目总数超过 {@code maxSize} 时淘汰最久未访问的条目。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/14 16:30
+ */
+public class MemoryExpiredCache<K, V> implements ExpiredCache<K, V>, Named {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryExpiredCache.class);
+
+    /**
+     * 永不过期
+     */
+    private static final long ETERNAL = Long.MAX_VALUE;
+
+    /**
+     * 缓存名称
+     */
+    private final String name;
+
+    /**
+     * 默认有效期，为空或不大于 0 时不过期
+     */
+    private final Duration expiration;
+
+    private final Segment<K, V>[] segments;
+
+    private final int segmentMask;
+
+    /**
+     * 当前时间（毫秒）
+     */
+    private final LongSupplier clock;
+
+    public MemoryExpiredCache(String name, Duration expiration, int maxSize, int segmentCount) {
+        this(name, expiration, maxSize, segmentCount, System::currentTimeMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    MemoryExpiredCache(String name, Duration expiration, int maxSize, int segmentCount, LongSupplier clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        int count = 1;
+        while (count < segmentCount && count < maxSize) {
+            count <<= 1;
+        }
+
+        this.name = name;
+        this.expiration = expiration;
+        this.segments = new Segment[count];
+        this.segmentMask = count - 1;
+        this.clock = clock;
+
+        int segmentMaxSize = (maxSize + count - 1) / count;
+        long now = clock.getAsLong();
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(segmentMaxSize, now);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public V get(K key) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+        return segmentFor(key).get(key, clock.getAsLong());
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        return put(key, value, expiration);
+    }
+
+    @Override
+    public V put(K key, V value, Duration expired) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+        if (value == null) {
+            return remove(key);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Putting object in memory cache [" + name + "] for key [" + key + "]");
+        }
+
+        long now = clock.getAsLong();
+        Duration ttl = expired != null ? expired : expiration;
+        long expireAt = ttl == null || ttl.isZero() || ttl.isNegative() ? ETERNAL : now + ttl.toMillis();
+        return segmentFor(key).put(key, value, expireAt, now);
+    }
+
+    @Override
+    public V remove(K key) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+        return segmentFor(key).remove(key, clock.getAsLong());
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Set<K> keys() {
+        long now = clock.getAsLong();
+        Set<K> keys = new HashSet<>();
+        for (Segment<K, V> segment : segments) {
+            segment.collect(now, keys, null);
+        }
+        return Collections.unmodifiableSet(keys);
+    }
+
+    @Override
+    public Collection<V> values() {
+        long now = clock.getAsLong();
+        List<V> values = new ArrayList<>();
+        for (Segment<K, V> segment : segments) {
+            segment.collect(now, null, values);
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * 推进所有分段的时间轮，回收已过期条目，正在被其他线程使用的分段跳过
+     */
+    public void cleanUp() {
+        long now = clock.getAsLong();
+        for (Segment<K, V> segment : segments) {
+            if (segment.tryLock()) {
+                try {
+                    segment.wheel.advance(now);
+                } finally {
+                    segment.unlock();
+                }
+            }
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * 缓存条目，同时位于 LRU 链表和时间轮槽位链表中
+     */
+    private static final class Node<K, V> {
+
+        private final K key;
+
+        private V value;
+
+        private long expireAt;
+
+        private Node<K, V> lruPrev;
+
+        private Node<K, V> lruNext;
+
+        private Node<K, V> wheelPrev;
+
+        private Node<K, V> wheelNext;
+
+        private Node(K key) {
+            this.key = key;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expireAt;
+        }
+    }
+
+    /**
+     * 分段，持有自己的锁、LRU 链表和时间轮
+     */
+    private static final class Segment<K, V> extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private final Map<K, Node<K, V>> map = new HashMap<>();
+
+        /**
+         * LRU 链表哨兵，next 为最久未访问
+         */
+        private final Node<K, V> lru = new Node<>(null);
+
+        private final TimingWheel<K, V> wheel;
+
+        private Segment(int maxSize, long now) {
+            this.maxSize = maxSize;
+            this.wheel = new TimingWheel<>(this, now);
+            lru.lruPrev = lru;
+            lru.lruNext = lru;
+        }
+
+        private V get(K key, long now) {
+            lock();
+            try {
+                Node<K, V> node = map.get(key);
+                if (node == null) {
+                    return null;
+                }
+                if (node.isExpired(now)) {
+                    evict(node);
+                    return null;
+                }
+                moveToTail(node);
+                return node.value;
+            } finally {
+                unlock();
+            }
+        }
+
+        private V put(K key, V value, long expireAt, long now) {
+            lock();
+            try {
+                wheel.advance(now);
+
+                Node<K, V> node = map.get(key);
+                V previous = null;
+                if (node == null) {
+                    node = new Node<>(key);
+                    map.put(key, node);
+                    linkLast(node);
+                } else {
+                    previous = node.isExpired(now) ? null : node.value;
+                    wheel.unschedule(node);
+                    moveToTail(node);
+                }
+                node.value = value;
+                node.expireAt = expireAt;
+                wheel.schedule(node);
+
+                while (map.size() > maxSize) {
+                    evict(lru.lruNext);
+                }
+                return previous;
+            } finally {
+                unlock();
+            }
+        }
+
+        private V remove(K key, long now) {
+            lock();
+            try {
+                Node<K, V> node = map.get(key);
+                if (node == null) {
+                    return null;
+                }
+                evict(node);
+                return node.isExpired(now) ? null : node.value;
+            } finally {
+                unlock();
+            }
+        }
+
+        private void clear() {
+            lock();
+            try {
+                map.clear();
+                lru.lruPrev = lru;
+                lru.lruNext = lru;
+                wheel.clear();
+            } finally {
+                unlock();
+            }
+        }
+
+        private int size() {
+            lock();
+            try {
+                return map.size();
+            } finally {
+                unlock();
+            }
+        }
+
+        private void collect(long now, Set<K> keys, List<V> values) {
+            lock();
+            try {
+                for (Node<K, V> node = lru.lruNext; node != lru; node = node.lruNext) {
+                    if (node.isExpired(now)) {
+                        continue;
+                    }
+                    if (keys != null) {
+                        keys.add(node.key);
+                    }
+                    if (values != null) {
+                        values.add(node.value);
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * 从所有结构中删除条目
+         */
+        private void evict(Node<K, V> node) {
+            map.remove(node.key);
+            unlink(node);
+            wheel.unschedule(node);
+        }
+
+        private void linkLast(Node<K, V> node) {
+            node.lruPrev = lru.lruPrev;
+            node.lruNext = lru;
+            lru.lruPrev.lruNext = node;
+            lru.lruPrev = node;
+        }
+
+        private void unlink(Node<K, V> node) {
+            if (node.lruPrev != null) {
+                node.lruPrev.lruNext = node.lruNext;
+                node.lruNext.lruPrev = node.lruPrev;
+                node.lruPrev = null;
+                node.lruNext = null;
+            }
+        }
+
+        private void moveToTail(Node<K, V> node) {
+            if (lru.lruPrev != node) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+    }
+
+    /**
+     * 分层时间轮
+     * <p>
+     * 每层 64 个槽位，第 0 层槽位跨度约 1 秒，逐层放大 64 倍，最高层覆盖数十年。
+     * 条目按剩余时间挂在能容纳它的最低层，推进时处理经过的槽位：已过期的删除，
+     * 未过期的（来自高层槽位）重新挂到更低的层，每个条目最多下沉层数次。
+     * </p>
+     */
+    private static final class TimingWheel<K, V> {
+
+        private static final int BUCKETS = 64;
+
+        private static final int MASK = BUCKETS - 1;
+
+        /**
+         * 各层槽位跨度（毫秒）的位移：1s、65s、70min、3day、199day
+         */
+        private static final int[] SHIFTS = {10, 16, 22, 28, 34};
+
+        private final Segment<K, V> segment;
+
+        /**
+         * 各层槽位链表哨兵
+         */
+        private final Node<K, V>[][] wheel;
+
+        /**
+         * 上次推进的时间
+         */
+        private long time;
+
+        @SuppressWarnings("unchecked")
+        private TimingWheel(Segment<K, V> segment, long now) {
+            this.segment = segment;
+            this.time = now;
+            this.wheel = new Node[SHIFTS.length][BUCKETS];
+            for (Node<K, V>[] level : wheel) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    Node<K, V> sentinel = new Node<>(null);
+                    sentinel.wheelPrev = sentinel;
+                    sentinel.wheelNext = sentinel;
+                    level[i] = sentinel;
+                }
+            }
+        }
+
+        private void schedule(Node<K, V> node) {
+            if (node.expireAt == ETERNAL) {
+                return;
+            }
+            Node<K, V> sentinel = bucketFor(node.expireAt);
+            node.wheelPrev = sentinel.wheelPrev;
+            node.wheelNext = sentinel;
+            sentinel.wheelPrev.wheelNext = node;
+            sentinel.wheelPrev = node;
+        }
+
+        private void unschedule(Node<K, V> node) {
+            if (node.wheelPrev != null) {
+                node.wheelPrev.wheelNext = node.wheelNext;
+                node.wheelNext.wheelPrev = node.wheelPrev;
+                node.wheelPrev = null;
+                node.wheelNext = null;
+            }
+        }
+
+        private Node<K, V> bucketFor(long expireAt) {
+            long delay = Math.max(0, expireAt - time);
+            for (int level = 0; level < SHIFTS.length - 1; level++) {
+                if (delay < (1L << SHIFTS[level + 1])) {
+                    return wheel[level][(int) ((expireAt >>> SHIFTS[level]) & MASK)];
+                }
+            }
+            int last = SHIFTS.length - 1;
+            return wheel[last][(int) ((expireAt >>> SHIFTS[last]) & MASK)];
+        }
+
+        /**
+         * 推进到 {@code now}。第 0 层处理经过的槽位；更高层在到达槽位起点时就处理该槽位，
+         * 把其中的条目降到低层，否则条目要等整个槽位跨度过去才被回收，过期条目在此期间仍占用容量
+         */
+        private void advance(long now) {
+            long previous = time;
+            if (now <= previous) {
+                return;
+            }
+            time = now;
+
+            for (int level = 0; level < SHIFTS.length; level++) {
+                long previousTicks = previous >>> SHIFTS[level];
+                long currentTicks = now >>> SHIFTS[level];
+                if (currentTicks == previousTicks) {
+                    break;
+                }
+                long firstTick = level == 0 ? previousTicks : previousTicks + 1;
+                expire(level, firstTick, currentTicks - previousTicks, now);
+            }
+        }
+
+        private void expire(int level, long firstTick, long delta, long now) {
+            int steps = (int) Math.min(delta, BUCKETS);
+            int start = (int) (firstTick & MASK);
+            for (int i = 0; i < steps; i++) {
+                Node<K, V> sentinel = wheel[level][(start + i) & MASK];
+                Node<K, V> node = sentinel.wheelNext;
+                sentinel.wheelPrev = sentinel;
+                sentinel.wheelNext = sentinel;
+
+                while (node != sentinel) {
+                    Node<K, V> next = node.wheelNext;
+                    node.wheelPrev = null;
+                    node.wheelNext = null;
+                    if (node.isExpired(now)) {
+                        segment.map.remove(node.key);
+                        segment.unlink(node);
+                    } else {
+                        schedule(node);
+                    }
+                    node = next;
+                }
+            }
+        }
+
+        private void clear() {
+            for (Node<K, V>[] level : wheel) {
+                for (Node<K, V> sentinel : level) {
+                    sentinel.wheelPrev = sentinel;
+                    sentinel.wheelNext = sentinel;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.i5018.shiro.cache;
+
+import org.apache.shiro.cache.CacheException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.security.auth.Destroyable;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM 内存缓存管理器，适用于单节点部署、测试以及多级缓存的本地层
+ * <p>
+ * 创建的缓存为 {@link MemoryExpiredCache}，后台线程按 {@code cleanUpInterval} 推进各缓存的时间轮，
+ * {@code cleanUpInterval} 为空时只在写入时推进。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/14 17:20
+ */
+public class MemoryExpiredCacheManager implements ExpiredCacheManager, Destroyable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryExpiredCacheManager.class);
+
+    /**
+     * 缓存有效期，为空或不大于 0 时不过期
+     */
+    private Duration expiration = Duration.ofMinutes(30);
+
+    /**
+     * 每个缓存的最大条目数
+     */
+    private int maxSize = 100000;
+
+    /**
+     * 每个缓存的分段数，向上取整为 2 的幂
+     */
+    private int segmentCount = 16;
+
+    /**
+     * 后台推进时间轮的间隔
+     */
+    private Duration cleanUpInterval = Duration.ofSeconds(1);
+
+    private final ConcurrentMap<String, MemoryExpiredCache<?, ?>> caches = new ConcurrentHashMap<>();
+
+    private volatile ScheduledExecutorService cleaner;
+
+    private volatile boolean destroyed;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <K, V> ExpiredCache<K, V> getCache(String name) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("shiro memory cache manager get cache. name={} ", name);
+        }
+
+        MemoryExpiredCache<?, ?> cache = caches.computeIfAbsent(name,
+                cacheName -> new MemoryExpiredCache<>(cacheName, expiration, maxSize, segmentCount));
+        startCleaner();
+        return (ExpiredCache<K, V>) cache;
+    }
+
+    /**
+     * 释放已创建的缓存实例并停止后台清理
+     */
+    @Override
+    public void destroy() {
+        if (logger.isDebugEnabled()) {
+            logger.debug("shiro memory cache manager destroy. caches={} ", caches.keySet());
+        }
+
+        synchronized (this) {
+            destroyed = true;
+            if (cleaner != null) {
+                cleaner.shutdownNow();
+                cleaner = null;
+            }
+        }
+        for (MemoryExpiredCache<?, ?> cache : caches.values()) {
+            cache.clear();
+        }
+        caches.clear();
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    private void startCleaner() {
+        if (cleaner != null || cleanUpInterval == null || cleanUpInterval.isZero() || cleanUpInterval.isNegative()) {
+            return;
+        }
+        synchronized (this) {
+            if (cleaner != null || destroyed) {
+                return;
+            }
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shiro-memory-cache-cleaner");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = cleanUpInterval.toMillis();
+            executor.scheduleWithFixedDelay(this::cleanUp, interval, interval, TimeUnit.MILLISECONDS);
+            cleaner = executor;
+        }
+    }
+
+    private void cleanUp() {
+        try {
+            for (MemoryExpiredCache<?, ?> cache : caches.values()) {
+                cache.cleanUp();
+            }
+        } catch (Exception e) {
+            logger.error("shiro memory cache clean up exception. ", e);
+        }
+    }
+
+    public void setExpiration(Duration expiration) {
+        this.expiration = expiration;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    public void setCleanUpInterval(Duration cleanUpInterval) {
+        this.cleanUpInterval = cleanUpInterval;
+    }
+
+}
@@ -0,0 +1,438 @@
+package com.i5018.shiro.cache;
+
+import com.i5018.shiro.cache.ExpiredCache.Named;
+import com.i5018.shiro.cache.metrics.CacheMetricsCollector;
+import org.apache.shiro.cache.CacheException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * 二级缓存：本地 LRU 缓存 + Redis 缓存
+ * <p>
+ * 读取优先命中本地缓存，写入/删除/清空同时作用于本地与 Redis，
+ * 并通过 {@link NearCacheInvalidator} 通知其他节点删除本地副本。
+ * 本地条目的有效期不超过 {@code localExpiration}，作为丢失失效消息时的兜底。
+ * </p>
+ * <p>
+ * 本地缓存保存序列化后的副本，每次命中返回新的对象，与从 Redis 读取一致，
+ * 调用方修改取到的对象（如踢人过滤器中的会话队列）不会影响其他请求。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/7 11:05
+ */
+public class NearCache<K, V> implements AsyncExpiredCache<K, V>, Named {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearCache.class);
+
+    /**
+     * 失效计数分段数，2 的幂
+     */
+    private static final int VERSION_STRIPES = 4096;
+
+    /**
+     * 远程缓存
+     */
+    private final ExpiredCache<K, V> delegate;
+
+    /**
+     * 缓存名称
+     */
+    private final String name;
+
+    /**
+     * 本地缓存
+     */
+    private final LocalLruCache<byte[]> localCache;
+
+    /**
+     * 本地副本序列化工具
+     */
+    private final RedisSerializer<Object> serializer;
+
+    /**
+     * 本地缓存有效期
+     */
+    private final Duration localExpiration;
+
+    /**
+     * 失效通知
+     */
+    private final NearCacheInvalidator invalidator;
+
+    /**
+     * 按 key 分段的本地失效计数，防止读取远程期间收到的失效被旧值覆盖，
+     * 只影响同一分段内的 key
+     */
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    /**
+     * 指标采集，本地命中时记录，远程读取由 delegate 记录
+     */
+    private CacheMetricsCollector metricsCollector = CacheMetricsCollector.NONE;
+
+    public NearCache(String name, ExpiredCache<K, V> delegate, LocalLruCache<byte[]> localCache,
+                     RedisSerializer<Object> serializer, Duration localExpiration, NearCacheInvalidator invalidator) {
+        this.name = name;
+        this.delegate = delegate;
+        this.localCache = localCache;
+        this.serializer = serializer;
+        this.localExpiration = localExpiration;
+        this.invalidator = invalidator;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    public ExpiredCache<K, V> getDelegate() {
+        return delegate;
+    }
+
+    public CacheMetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+
+    public void setMetricsCollector(CacheMetricsCollector metricsCollector) {
+        this.metricsCollector = metricsCollector != null ? metricsCollector : CacheMetricsCollector.NONE;
+    }
+
+    @Override
+    public V get(K key) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+
+        String localKey = localKey(key);
+        V value = readLocal(localKey);
+        if (value != null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Near cache [" + name + "] hit for key [" + key + "]");
+            }
+            recordLocalHits(1);
+            return value;
+        }
+
+        long stamp = version(localKey);
+        value = delegate.get(key);
+        fillLocal(localKey, value, stamp);
+        return value;
+    }
+
+    @Override
+    public V get(K key, Function<? super K, ? extends V> loader) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+
+        String localKey = localKey(key);
+        V value = readLocal(localKey);
+        if (value != null) {
+            recordLocalHits(1);
+            return value;
+        }
+
+        long stamp = version(localKey);
+        value = delegate.get(key, loader);
+        fillLocal(localKey, value, stamp);
+        return value;
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        return put(key, value, null);
+    }
+
+    @Override
+    public V put(K key, V value, Duration expired) throws CacheException {
+        if (key == null) {
+            return value;
+        }
+
+        String localKey = localKey(key);
+        invalidate(localKey);
+        V previous = delegate.put(key, value, expired);
+        writeLocal(localKey, value, localTtl(expired));
+        invalidator.publishEvict(name, localKey);
+        return previous;
+    }
+
+    @Override
+    public V remove(K key) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+
+        String localKey = localKey(key);
+        invalidate(localKey);
+        localCache.remove(localKey);
+        V previous = delegate.remove(key);
+        invalidator.publishEvict(name, localKey);
+        return previous;
+    }
+
+    @Override
+    public CompletableFuture<V> getAsync(K key) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String localKey = localKey(key);
+        V value = readLocal(localKey);
+        if (value != null) {
+            recordLocalHits(1);
+            return CompletableFuture.completedFuture(value);
+        }
+        if (!(delegate instanceof AsyncExpiredCache)) {
+            return CompletableFuture.completedFuture(get(key));
+        }
+
+        long stamp = version(localKey);
+        return ((AsyncExpiredCache<K, V>) delegate).getAsync(key).thenApply(loaded -> {
+            fillLocal(localKey, loaded, stamp);
+            return loaded;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(K key, V value, Duration expired) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!(delegate instanceof AsyncExpiredCache)) {
+            put(key, value, expired);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String localKey = localKey(key);
+        invalidate(localKey);
+        writeLocal(localKey, value, localTtl(expired));
+        return ((AsyncExpiredCache<K, V>) delegate).putAsync(key, value, expired)
+                .thenRun(() -> invalidator.publishEvict(name, localKey));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAsync(K key) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!(delegate instanceof AsyncExpiredCache)) {
+            remove(key);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String localKey = localKey(key);
+        invalidate(localKey);
+        localCache.remove(localKey);
+        return ((AsyncExpiredCache<K, V>) delegate).removeAsync(key)
+                .thenRun(() -> invalidator.publishEvict(name, localKey));
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        Map<K, V> result = new LinkedHashMap<>();
+        List<K> misses = new ArrayList<>();
+        for (K key : keys) {
+            if (key == null) {
+                continue;
+            }
+            V value = readLocal(localKey(key));
+            if (value != null) {
+                result.put(key, value);
+            } else {
+                misses.add(key);
+            }
+        }
+        recordLocalHits(result.size());
+
+        if (!misses.isEmpty()) {
+            Map<String, Long> stamps = new LinkedHashMap<>();
+            for (K key : misses) {
+                String localKey = localKey(key);
+                stamps.put(localKey, version(localKey));
+            }
+            Map<K, V> loaded = delegate.getAll(misses);
+            loaded.forEach((key, value) -> {
+                String localKey = localKey(key);
+                Long stamp = stamps.get(localKey);
+                if (stamp != null) {
+                    fillLocal(localKey, value, stamp);
+                }
+            });
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<K, V> entries, Duration expired) throws CacheException {
+        for (K key : entries.keySet()) {
+            if (key != null) {
+                invalidate(localKey(key));
+            }
+        }
+        delegate.putAll(entries, expired);
+
+        long ttl = localTtl(expired);
+        List<String> localKeys = new ArrayList<>(entries.size());
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            if (entry.getKey() != null) {
+                String localKey = localKey(entry.getKey());
+                writeLocal(localKey, entry.getValue(), ttl);
+                localKeys.add(localKey);
+            }
+        }
+        invalidator.publishEvict(name, localKeys);
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        List<String> localKeys = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            if (key != null) {
+                String localKey = localKey(key);
+                invalidate(localKey);
+                localCache.remove(localKey);
+                localKeys.add(localKey);
+            }
+        }
+        delegate.removeAll(keys);
+        invalidator.publishEvict(name, localKeys);
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        invalidateAll();
+        localCache.clear();
+        delegate.clear();
+        invalidator.publishClear(name);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public Set<K> keys() {
+        return delegate.keys();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return delegate.values();
+    }
+
+    /**
+     * 删除本地副本，由失效通知调用
+     */
+    void invalidateLocal(String localKey) {
+        invalidate(localKey);
+        localCache.remove(localKey);
+    }
+
+    /**
+     * 清空本地副本，由失效通知调用
+     */
+    void invalidateLocal() {
+        invalidateAll();
+        localCache.clear();
+    }
+
+    /**
+     * 读取本地副本，每次返回新的对象
+     */
+    @SuppressWarnings("unchecked")
+    private V readLocal(String localKey) {
+        byte[] bytes = localCache.get(localKey);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return (V) serializer.deserialize(bytes);
+        } catch (Exception e) {
+            logger.error("deserialize near cache value error. ", e);
+            localCache.remove(localKey);
+            return null;
+        }
+    }
+
+    private void writeLocal(String localKey, V value, long ttlMillis) {
+        if (value == null) {
+            localCache.remove(localKey);
+            return;
+        }
+        try {
+            byte[] bytes = serializer.serialize(value);
+            if (bytes != null && bytes.length > 0) {
+                localCache.put(localKey, bytes, ttlMillis);
+            } else {
+                localCache.remove(localKey);
+            }
+        } catch (Exception e) {
+            logger.error("serialize near cache value error. ", e);
+            localCache.remove(localKey);
+        }
+    }
+
+    /**
+     * 读取远程期间该 key 没有失效时写入本地副本
+     */
+    private void fillLocal(String localKey, V value, long stamp) {
+        if (value != null && stamp == version(localKey)) {
+            writeLocal(localKey, value, localExpiration.toMillis());
+        }
+    }
+
+    private long localTtl(Duration expired) {
+        long ttl = localExpiration.toMillis();
+        if (expired != null) {
+            ttl = Math.min(ttl, expired.toMillis());
+        }
+        return ttl;
+    }
+
+    private long version(String localKey) {
+        return versions.get(stripe(localKey));
+    }
+
+    private void invalidate(String localKey) {
+        versions.incrementAndGet(stripe(localKey));
+    }
+
+    private void invalidateAll() {
+        for (int i = 0; i < VERSION_STRIPES; i++) {
+            versions.incrementAndGet(i);
+        }
+    }
+
+    private static int stripe(String localKey) {
+        int h = localKey.hashCode();
+        return (h ^ (h >>> 16)) & (VERSION_STRIPES - 1);
+    }
+
+    private void recordLocalHits(long count) {
+        if (count > 0) {
+            metricsCollector.recordLocalHits(name, count);
+            metricsCollector.recordHits(name, count);
+        }
+    }
+
+    private String localKey(K key) {
+        return String.valueOf(key);
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.i5018.shiro.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于 Redis pub/sub 的本地缓存失效通知
+ * <p>
+ * 消息格式：nodeId \n cacheName [\n key]，不带 key 时表示清空整个缓存。
+ * 本节点发出的消息会被忽略。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/7 10:40
+ */
+public class NearCacheInvalidator implements MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearCacheInvalidator.class);
+
+    private static final String SEPARATOR = "\n";
+
+    /**
+     * redis连接工厂
+     */
+    private final RedisConnectionFactory redisConnectionFactory;
+
+    /**
+     * 失效通知频道
+     */
+    private final byte[] channel;
+
+    /**
+     * 当前节点标识
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * 已注册的本地缓存
+     */
+    private final Map<String, NearCache<?, ?>> nearCaches = new ConcurrentHashMap<>();
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public NearCacheInvalidator(RedisConnectionFactory redisConnectionFactory, String channel) {
+        this.redisConnectionFactory = redisConnectionFactory;
+        this.channel = channel.getBytes(StandardCharsets.UTF_8);
+
+        this.listenerContainer = new RedisMessageListenerContainer();
+        this.listenerContainer.setConnectionFactory(redisConnectionFactory);
+        this.listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+        this.listenerContainer.afterPropertiesSet();
+        this.listenerContainer.start();
+    }
+
+    public void register(NearCache<?, ?> nearCache) {
+        nearCaches.put(nearCache.getName(), nearCache);
+    }
+
+    /**
+     * 通知其他节点删除指定 key
+     */
+    public void publishEvict(String name, String key) {
+        publish(nodeId + SEPARATOR + name + SEPARATOR + key);
+    }
+
+    /**
+     * 通知其他节点删除多个 key，使用同一连接管道发送
+     */
+    public void publishEvict(String name, Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
+            redisConnection.openPipeline();
+            try {
+                for (String key : keys) {
+                    String message = nodeId + SEPARATOR + name + SEPARATOR + key;
+                    redisConnection.publish(channel, message.getBytes(StandardCharsets.UTF_8));
+                }
+            } finally {
+                redisConnection.closePipeline();
+            }
+        } catch (Exception e) {
+            logger.error("shiro near cache publish invalidation exception. ", e);
+        }
+    }
+
+    /**
+     * 通知其他节点清空指定缓存
+     */
+    public void publishClear(String name) {
+        publish(nodeId + SEPARATOR + name);
+    }
+
+    private void publish(String message) {
+        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
+            redisConnection.publish(channel, message.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            logger.error("shiro near cache publish invalidation exception. ", e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(SEPARATOR, 3);
+        if (parts.length < 2 || nodeId.equals(parts[0])) {
+            return;
+        }
+
+        NearCache<?, ?> nearCache = nearCaches.get(parts[1]);
+        if (nearCache == null) {
+            return;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received near cache invalidation [{}] for key [{}]", parts[1], parts.length > 2 ? parts[2] : "*");
+        }
+
+        if (parts.length > 2) {
+            nearCache.invalidateLocal(parts[2]);
+        } else {
+            nearCache.invalidateLocal();
+        }
+    }
+
+    public void destroy() {
+        nearCaches.clear();
+        try {
+            listenerContainer.destroy();
+        } catch (Exception e) {
+            logger.error("shiro near cache invalidator destroy exception. ", e);
+        }
+    }
+
+}
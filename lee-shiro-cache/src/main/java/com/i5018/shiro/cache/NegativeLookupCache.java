@@ -0,0 +1,86 @@
+package com.i5018.shiro.cache;
+
+import com.i5018.shiro.util.BloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+/**
+ * 不存在数据的短期缓存，避免对不存在的 key（如未注册账号）反复查询数据库
+ * <p>
+ * 可选的本地布隆过滤器作为前置过滤：过滤器判断一定不存在时直接跳过 redis 查询，
+ * 正常数据的查询因此不会多一次 redis 往返。过滤器只在本地记录，
+ * 数据创建后调用 {@link #evict(String)} 删除 redis 中的记录即可。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/12 14:40
+ */
+public class NegativeLookupCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(NegativeLookupCache.class);
+
+    /**
+     * 不存在的 key
+     */
+    private final ExpiredCache<String, Boolean> cache;
+
+    /**
+     * 记录有效期
+     */
+    private final Duration expiration;
+
+    /**
+     * 本地前置过滤，为空时每次都查询缓存
+     */
+    private final BloomFilter bloomFilter;
+
+    public NegativeLookupCache(ExpiredCache<String, Boolean> cache, Duration expiration) {
+        this(cache, expiration, null);
+    }
+
+    public NegativeLookupCache(ExpiredCache<String, Boolean> cache, Duration expiration, BloomFilter bloomFilter) {
+        this.cache = cache;
+        this.expiration = expiration;
+        this.bloomFilter = bloomFilter;
+    }
+
+    /**
+     * 是否已知不存在
+     */
+    public boolean isMissing(String key) {
+        if (key == null || (bloomFilter != null && !bloomFilter.mightContain(key))) {
+            return false;
+        }
+
+        boolean missing = Boolean.TRUE.equals(cache.get(key));
+        if (missing && logger.isDebugEnabled()) {
+            logger.debug("Negative lookup cache hit for key [{}]", key);
+        }
+        return missing;
+    }
+
+    /**
+     * 记录不存在
+     */
+    public void markMissing(String key) {
+        if (key == null) {
+            return;
+        }
+        if (bloomFilter != null) {
+            bloomFilter.put(key);
+        }
+        cache.put(key, Boolean.TRUE, expiration);
+    }
+
+    /**
+     * 数据已创建，删除不存在的记录
+     */
+    public void evict(String key) {
+        if (key != null) {
+            cache.remove(key);
+        }
+    }
+
+}
@@ -1,30 +1,91 @@
 package com.i5018.shiro.cache;
 
 import com.i5018.shiro.cache.ExpiredCache.Named;
+import com.i5018.shiro.cache.metrics.CacheMetricsCollector;
+import com.i5018.shiro.cache.metrics.CacheOperation;
+import com.i5018.shiro.util.LettuceAsyncCommands;
+import com.i5018.shiro.util.LuaScript;
+import com.i5018.shiro.util.MultiplexingRedisSerializer;
+import com.i5018.shiro.util.RedisCircuitBreaker;
+import com.i5018.shiro.util.RedisKeyCodec;
+import com.i5018.shiro.util.RedisKeyIndex;
+import com.i5018.shiro.util.RedisLock;
+import com.i5018.shiro.util.RedisRequestContext;
+import com.i5018.shiro.util.RedisUtil;
 import org.apache.shiro.cache.CacheException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author limk
  * @date 2020/9/1 10:04
  */
-public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
+public class RedisCache<K, V> implements AsyncExpiredCache<K, V>, Named {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisCache.class);
 
+    /**
+     * 成员索引key后缀
+     */
+    private static final String INDEX_KEY_SUFFIX = "@index";
+
+    /**
+     * 加载锁key后缀
+     */
+    private static final String LOCK_KEY_SUFFIX = "@lock:";
+
+    /**
+     * KEYS[1] key; ARGV[1] 有效期(秒) ARGV[2] 值
+     */
+    private static final LuaScript GET_AND_SETEX = new LuaScript(
+            "local old = redis.call('GET', KEYS[1]) "
+                    + "redis.call('SETEX', KEYS[1], ARGV[1], ARGV[2]) "
+                    + "return old");
+
+    /**
+     * KEYS[1] key; ARGV[1] 有效期(秒) ARGV[2] 剩余有效期阈值(毫秒)
+     */
+    private static final LuaScript GET_AND_TOUCH = new LuaScript(
+            "local v = redis.call('GET', KEYS[1]) "
+                    + "if v and redis.call('PTTL', KEYS[1]) < tonumber(ARGV[2]) then "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) end "
+                    + "return v");
+
+    /**
+     * KEYS[1] key
+     */
+    private static final LuaScript GET_AND_DEL = new LuaScript(
+            "local old = redis.call('GET', KEYS[1]) "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "return old");
+
     /**
      * 缓存名称
      */
@@ -55,9 +116,109 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
      */
     private RedisSerializer<Object> serializerValue;
 
+    /**
+     * SCAN 每批数量
+     */
+    private int scanCount = 1000;
+
+    /**
+     * 是否维护成员索引
+     */
+    private boolean indexEnabled = false;
+
+    /**
+     * 成员索引
+     */
+    private RedisKeyIndex keyIndex;
+
+    /**
+     * 热点 key 编码缓存大小
+     */
+    private int hotKeyCacheSize = 1024;
+
+    /**
+     * key 编码，key 序列化工具不是 UTF-8 字符串序列化时为空
+     */
+    private volatile RedisKeyCodec keyCodec;
+
+    /**
+     * put/remove 获取旧值的方式
+     */
+    private CacheWriteMode writeMode = CacheWriteMode.READ_BEFORE_WRITE;
+
+    /**
+     * 执行异步操作的线程池：非 Lettuce 连接时的异步读写、提前刷新、降级回写以及旧格式回写，
+     * 任务中会执行阻塞的 redis 调用，不要使用 {@code ForkJoinPool.commonPool()} 等共享线程池；
+     * 为空时在调用线程上直接执行
+     */
+    private Executor asyncExecutor;
+
+    /**
+     * 指标采集
+     */
+    private CacheMetricsCollector metricsCollector = CacheMetricsCollector.NONE;
+
+    /**
+     * 是否滑动过期，读取时续期
+     */
+    private boolean slidingExpiration = false;
+
+    /**
+     * 剩余有效期低于该值时读取才续期，为空时取有效期的一半
+     */
+    private Duration slidingThreshold;
+
+    /**
+     * 默认有效期的随机缩短比例（0~1），避免同一批写入的缓存同时过期
+     */
+    private double ttlJitter = 0D;
+
+    /**
+     * 提前刷新系数（XFetch 的 beta），大于 0 时 get(key, loader) 会以一定概率在过期前后台刷新，
+     * 越大越早刷新，通常取 1
+     */
+    private double earlyRefreshBeta = 0D;
+
+    /**
+     * 加载耗时的滑动平均（毫秒）
+     */
+    private volatile double loadMillis;
+
+    /**
+     * 是否使用 redis 锁在多个节点间合并加载
+     */
+    private boolean loadLockEnabled = false;
+
+    /**
+     * 加载锁租约，同时也是等待其他节点加载的最长时间
+     */
+    private Duration loadLockLease = Duration.ofSeconds(10);
+
+    /**
+     * 等待其他节点加载时的轮询间隔（毫秒）
+     */
+    private long loadLockRetryInterval = 50;
+
+    /**
+     * redis 不可用时的本地降级存储，为空时不降级
+     */
+    private LocalFallbackStore<K, V> fallbackStore;
+
+    /**
+     * 本节点正在加载的 key
+     */
+    private final ConcurrentMap<K, CompletableFuture<V>> loadings = new ConcurrentHashMap<>();
+
+    /**
+     * Lettuce 原生异步命令，非 Lettuce 连接时为空
+     */
+    private final LettuceAsyncCommands asyncCommands;
+
     public RedisCache(String name, RedisConnectionFactory redisConnectionFactory) {
         this.name = name;
         this.redisConnectionFactory = redisConnectionFactory;
+        this.asyncCommands = LettuceAsyncCommands.supports(redisConnectionFactory)
+                ? new LettuceAsyncCommands(redisConnectionFactory) : null;
     }
 
     public String getKeyPrefix() {
@@ -66,6 +227,7 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
 
     public void setKeyPrefix(String keyPrefix) {
         this.keyPrefix = keyPrefix;
+        this.keyCodec = null;
     }
 
     public Duration getExpiration() {
@@ -82,6 +244,7 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
 
     public void setSerializerKey(RedisSerializer<String> serializerKey) {
         this.serializerKey = serializerKey;
+        this.keyCodec = null;
     }
 
     public RedisSerializer<Object> getSerializerValue() {
@@ -92,6 +255,119 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
         this.serializerValue = serializerValue;
     }
 
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    public void setScanCount(int scanCount) {
+        this.scanCount = scanCount;
+    }
+
+    public boolean isIndexEnabled() {
+        return indexEnabled;
+    }
+
+    public void setIndexEnabled(boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+    }
+
+    public int getHotKeyCacheSize() {
+        return hotKeyCacheSize;
+    }
+
+    public void setHotKeyCacheSize(int hotKeyCacheSize) {
+        this.hotKeyCacheSize = hotKeyCacheSize;
+        this.keyCodec = null;
+    }
+
+    public CacheWriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    public void setWriteMode(CacheWriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public CacheMetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+
+    public void setMetricsCollector(CacheMetricsCollector metricsCollector) {
+        this.metricsCollector = metricsCollector != null ? metricsCollector : CacheMetricsCollector.NONE;
+    }
+
+    public LocalFallbackStore<K, V> getFallbackStore() {
+        return fallbackStore;
+    }
+
+    public void setFallbackStore(LocalFallbackStore<K, V> fallbackStore) {
+        this.fallbackStore = fallbackStore;
+    }
+
+    public boolean isSlidingExpiration() {
+        return slidingExpiration;
+    }
+
+    public void setSlidingExpiration(boolean slidingExpiration) {
+        this.slidingExpiration = slidingExpiration;
+    }
+
+    public Duration getSlidingThreshold() {
+        return slidingThreshold;
+    }
+
+    public void setSlidingThreshold(Duration slidingThreshold) {
+        this.slidingThreshold = slidingThreshold;
+    }
+
+    public double getTtlJitter() {
+        return ttlJitter;
+    }
+
+    public void setTtlJitter(double ttlJitter) {
+        this.ttlJitter = ttlJitter;
+    }
+
+    public double getEarlyRefreshBeta() {
+        return earlyRefreshBeta;
+    }
+
+    public void setEarlyRefreshBeta(double earlyRefreshBeta) {
+        this.earlyRefreshBeta = earlyRefreshBeta;
+    }
+
+    public boolean isLoadLockEnabled() {
+        return loadLockEnabled;
+    }
+
+    public void setLoadLockEnabled(boolean loadLockEnabled) {
+        this.loadLockEnabled = loadLockEnabled;
+    }
+
+    public Duration getLoadLockLease() {
+        return loadLockLease;
+    }
+
+    public void setLoadLockLease(Duration loadLockLease) {
+        this.loadLockLease = loadLockLease;
+    }
+
+    public long getLoadLockRetryInterval() {
+        return loadLockRetryInterval;
+    }
+
+    public void setLoadLockRetryInterval(long loadLockRetryInterval) {
+        this.loadLockRetryInterval = loadLockRetryInterval;
+    }
+
     @Override
     public String getName() {
         return this.name;
@@ -109,15 +385,74 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
         }
 
         V result = null;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            result = (V) deserializeValue(redisConnection.get(serializeKey(key)));
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            byte[] rawKey = serializeKey(key);
+            byte[] bytes;
+            if (!slidingExpiration) {
+                bytes = redisConnection.get(rawKey);
+            } else if (isIndexEnabled()) {
+                bytes = keyIndex().getAndTouch(redisConnection, rawKey, getExpiration().getSeconds(), slidingThresholdMillis());
+            } else {
+                bytes = GET_AND_TOUCH.execute(redisConnection, ReturnType.VALUE, 1, rawKey,
+                        String.valueOf(getExpiration().getSeconds()).getBytes(StandardCharsets.US_ASCII),
+                        String.valueOf(slidingThresholdMillis()).getBytes(StandardCharsets.US_ASCII));
+            }
+            result = (V) deserializeValue(bytes);
+            recordLookup(result != null ? 1 : 0, result != null ? 0 : 1);
+            rewriteIfLegacy(rawKey, bytes, result);
+            if (fallbackStore != null) {
+                if (result != null) {
+                    fallbackStore.mirror(key, result, getExpiration().toMillis());
+                }
+                reconcileIfPending();
+            }
         } catch (Exception e) {
             logger.error("shiro redis cache get exception. ", e);
+            recordError(CacheOperation.GET, e);
+            if (isFallback(e)) {
+                result = fallbackStore.get(key);
+            }
+        } finally {
+            recordLatency(CacheOperation.GET, start);
         }
 
         return result;
     }
 
+    /**
+     * 未命中时加载，同一 key 的并发加载在本节点内合并为一次，
+     * 启用 loadLockEnabled 时再通过 redis 锁在节点间合并，未获得锁的节点轮询等待加载结果，
+     * 等待超过租约或 redis 不可用时退回本地加载
+     */
+    @Override
+    public V get(K key, Function<? super K, ? extends V> loader) throws CacheException {
+        V value = earlyRefreshBeta > 0 && !slidingExpiration ? getAndRefreshEarly(key, loader) : get(key);
+        if (value != null || key == null) {
+            return value;
+        }
+
+        CompletableFuture<V> loading = new CompletableFuture<>();
+        CompletableFuture<V> existing = loadings.putIfAbsent(key, loading);
+        if (existing != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Waiting for concurrent load in cache [" + getName() + "] for key [" + key + "]");
+            }
+            return join(existing);
+        }
+
+        try {
+            value = loadLockEnabled ? loadWithLock(key, loader) : load(key, loader);
+            loading.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadings.remove(key, loading);
+        }
+    }
+
     @Override
     public V put(K key, V value) throws CacheException {
         return put(key, value, null);
@@ -135,13 +470,42 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
         }
 
         V result = null;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            result = (V) deserializeValue(redisConnection.get(serializeKey(key)));
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            byte[] rawKey = serializeKey(key);
+            byte[] rawValue = serializeValue(value);
+            long seconds = expireSeconds(expired);
 
-            Duration expiration = expired != null ? expired : getExpiration();
-            redisConnection.setEx(serializeKey(key), expiration.getSeconds(), serializeValue(value));
+            if (writeMode == CacheWriteMode.ATOMIC) {
+                byte[] previous = isIndexEnabled()
+                        ? keyIndex().getAndPut(redisConnection, rawKey, seconds, rawValue)
+                        : GET_AND_SETEX.execute(redisConnection, ReturnType.VALUE, 1, rawKey,
+                        String.valueOf(seconds).getBytes(StandardCharsets.US_ASCII), rawValue);
+                result = (V) deserializeValue(previous);
+            } else {
+                if (writeMode == CacheWriteMode.READ_BEFORE_WRITE) {
+                    result = (V) deserializeValue(redisConnection.get(rawKey));
+                }
+                if (isIndexEnabled()) {
+                    keyIndex().put(redisConnection, rawKey, seconds, rawValue);
+                } else {
+                    redisConnection.setEx(rawKey, seconds, rawValue);
+                }
+            }
+            metricsCollector.recordPuts(name, 1);
+            if (fallbackStore != null) {
+                fallbackStore.mirror(key, value, seconds * 1000);
+                reconcileIfPending();
+            }
         } catch (Exception e) {
             logger.error("shiro redis cache put exception. ", e);
+            recordError(CacheOperation.PUT, e);
+            if (isFallback(e)) {
+                result = fallbackStore.get(key);
+                fallbackStore.put(key, value, expireSeconds(expired) * 1000);
+            }
+        } finally {
+            recordLatency(CacheOperation.PUT, start);
         }
 
         return result;
@@ -158,33 +522,311 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
         }
 
         V result = null;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            result = (V) deserializeValue(redisConnection.get(serializeKey(key)));
-            redisConnection.del(serializeKey(key));
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            byte[] rawKey = serializeKey(key);
+
+            if (writeMode == CacheWriteMode.ATOMIC) {
+                byte[] previous = isIndexEnabled()
+                        ? keyIndex().getAndDelete(redisConnection, rawKey)
+                        : GET_AND_DEL.execute(redisConnection, ReturnType.VALUE, 1, rawKey);
+                result = (V) deserializeValue(previous);
+            } else {
+                if (writeMode == CacheWriteMode.READ_BEFORE_WRITE) {
+                    result = (V) deserializeValue(redisConnection.get(rawKey));
+                }
+                if (isIndexEnabled()) {
+                    keyIndex().delete(redisConnection, rawKey);
+                } else {
+                    redisConnection.del(rawKey);
+                }
+            }
+            metricsCollector.recordEvictions(name, 1);
+            if (fallbackStore != null) {
+                fallbackStore.evict(key);
+                reconcileIfPending();
+            }
         } catch (Exception e) {
             logger.error("shiro redis cache remove exception. ", e);
+            recordError(CacheOperation.REMOVE, e);
+            if (isFallback(e)) {
+                result = fallbackStore.get(key);
+                fallbackStore.remove(key);
+            }
+        } finally {
+            recordLatency(CacheOperation.REMOVE, start);
         }
 
         return result;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
-    public void clear() throws CacheException {
+    public CompletableFuture<V> getAsync(K key) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (asyncCommands == null) {
+            return CompletableFuture.supplyAsync(() -> get(key), asyncExecutor());
+        }
+
         if (logger.isDebugEnabled()) {
-            logger.debug("Clear all cached objects.");
+            logger.debug("Getting object asynchronously from cache [" + getName() + "] for key [" + key + "]");
         }
 
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            Set<byte[]> allKeys = allKeys(redisConnection, name);
-            if (!CollectionUtils.isEmpty(allKeys)) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Currently scanning to {} keys, ready to clear.", allKeys.size());
+        long start = System.nanoTime();
+        byte[] rawKey = serializeKey(key);
+        CompletableFuture<byte[]> future;
+        if (!slidingExpiration) {
+            future = asyncCommands.get(rawKey);
+        } else if (isIndexEnabled()) {
+            future = keyIndex().getAndTouchAsync(asyncCommands, rawKey, getExpiration().getSeconds(), slidingThresholdMillis());
+        } else {
+            future = asyncCommands.eval(GET_AND_TOUCH, ReturnType.VALUE, new byte[][]{rawKey},
+                    String.valueOf(getExpiration().getSeconds()).getBytes(StandardCharsets.US_ASCII),
+                    String.valueOf(slidingThresholdMillis()).getBytes(StandardCharsets.US_ASCII));
+        }
+        return future
+                .thenApply(bytes -> {
+                    V value = (V) deserializeValue(bytes);
+                    recordLookup(value != null ? 1 : 0, value != null ? 0 : 1);
+                    return value;
+                })
+                .exceptionally(e -> {
+                    logger.error("shiro redis cache get async exception. ", e);
+                    recordError(CacheOperation.GET, e);
+                    return null;
+                })
+                .whenComplete((value, e) -> recordLatency(CacheOperation.GET, start));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(K key, V value, Duration expired) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (asyncCommands == null) {
+            return CompletableFuture.runAsync(() -> put(key, value, expired), asyncExecutor());
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Putting object asynchronously in cache [" + getName() + "] for key [" + key + "]");
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> future;
+        try {
+            byte[] rawKey = serializeKey(key);
+            byte[] rawValue = serializeValue(value);
+            long seconds = expireSeconds(expired);
+            future = isIndexEnabled()
+                    ? keyIndex().putAsync(asyncCommands, rawKey, seconds, rawValue)
+                    : asyncCommands.setEx(rawKey, seconds, rawValue).thenApply(result -> null);
+        } catch (Exception e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.thenRun(() -> metricsCollector.recordPuts(name, 1)).exceptionally(e -> {
+            logger.error("shiro redis cache put async exception. ", e);
+            recordError(CacheOperation.PUT, e);
+            return null;
+        }).whenComplete((result, e) -> recordLatency(CacheOperation.PUT, start));
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAsync(K key) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (asyncCommands == null) {
+            return CompletableFuture.runAsync(() -> remove(key), asyncExecutor());
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Removing object asynchronously from cache [" + getName() + "] for key [" + key + "]");
+        }
+
+        long start = System.nanoTime();
+        byte[] rawKey = serializeKey(key);
+        CompletableFuture<Void> future = isIndexEnabled()
+                ? keyIndex().deleteAsync(asyncCommands, rawKey)
+                : asyncCommands.del(rawKey).thenApply(result -> null);
+        return future.thenRun(() -> metricsCollector.recordEvictions(name, 1)).exceptionally(e -> {
+            logger.error("shiro redis cache remove async exception. ", e);
+            recordError(CacheOperation.REMOVE, e);
+            return null;
+        }).whenComplete((result, e) -> recordLatency(CacheOperation.REMOVE, start));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Getting {} objects from cache [{}]", keys == null ? 0 : keys.size(), getName());
+        }
+
+        Map<K, V> result = new LinkedHashMap<>();
+        List<K> validKeys = nonNullKeys(keys);
+        if (validKeys.isEmpty()) {
+            return result;
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            for (int from = 0; from < validKeys.size(); from += scanCount) {
+                List<K> chunk = validKeys.subList(from, Math.min(from + scanCount, validKeys.size()));
+                List<byte[]> values = redisConnection.mGet(serializeKeys(chunk));
+                if (values == null) {
+                    continue;
+                }
+                for (int i = 0; i < chunk.size() && i < values.size(); i++) {
+                    V value = (V) deserializeValue(values.get(i));
+                    if (value != null) {
+                        result.put(chunk.get(i), value);
+                    }
+                }
+            }
+            recordLookup(result.size(), validKeys.size() - result.size());
+        } catch (Exception e) {
+            logger.error("shiro redis cache getAll exception. ", e);
+            recordError(CacheOperation.GET_ALL, e);
+            if (isFallback(e)) {
+                for (K key : validKeys) {
+                    V value = fallbackStore.get(key);
+                    if (value != null) {
+                        result.put(key, value);
+                    }
                 }
+            }
+        } finally {
+            recordLatency(CacheOperation.GET_ALL, start);
+        }
+
+        return result;
+    }
 
-                redisConnection.del(allKeys.toArray(new byte[allKeys.size()][]));
+    @Override
+    public void putAll(Map<K, V> entries, Duration expired) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Putting {} objects in cache [{}]", entries == null ? 0 : entries.size(), getName());
+        }
+
+        if (CollectionUtils.isEmpty(entries)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            // 序列化可能访问 redis（如字典编号），需在打开管道前完成
+            List<byte[]> keys = new ArrayList<>(entries.size());
+            List<byte[]> values = new ArrayList<>(entries.size());
+            for (Map.Entry<K, V> entry : entries.entrySet()) {
+                if (entry.getKey() != null) {
+                    keys.add(serializeKey(entry.getKey()));
+                    values.add(serializeValue(entry.getValue()));
+                }
+            }
+
+            redisConnection.openPipeline();
+            try {
+                for (int i = 0; i < keys.size(); i++) {
+                    long seconds = expireSeconds(expired);
+                    if (isIndexEnabled()) {
+                        keyIndex().put(redisConnection, keys.get(i), seconds, values.get(i));
+                    } else {
+                        redisConnection.setEx(keys.get(i), seconds, values.get(i));
+                    }
+                }
+            } finally {
+                redisConnection.closePipeline();
+            }
+            metricsCollector.recordPuts(name, keys.size());
+        } catch (Exception e) {
+            logger.error("shiro redis cache putAll exception. ", e);
+            recordError(CacheOperation.PUT_ALL, e);
+            if (isFallback(e)) {
+                entries.forEach((key, value) -> {
+                    if (key != null) {
+                        fallbackStore.put(key, value, expireSeconds(expired) * 1000);
+                    }
+                });
+            }
+        } finally {
+            recordLatency(CacheOperation.PUT_ALL, start);
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Removing {} objects from cache [{}]", keys == null ? 0 : keys.size(), getName());
+        }
+
+        List<K> validKeys = nonNullKeys(keys);
+        if (validKeys.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            redisConnection.openPipeline();
+            try {
+                for (int from = 0; from < validKeys.size(); from += scanCount) {
+                    byte[][] chunk = serializeKeys(validKeys.subList(from, Math.min(from + scanCount, validKeys.size())));
+                    if (isIndexEnabled()) {
+                        keyIndex().deleteAll(redisConnection, chunk);
+                    } else {
+                        redisConnection.unlink(chunk);
+                    }
+                }
+            } finally {
+                redisConnection.closePipeline();
+            }
+            metricsCollector.recordEvictions(name, validKeys.size());
+            if (fallbackStore != null) {
+                validKeys.forEach(fallbackStore::evict);
+            }
+        } catch (Exception e) {
+            logger.error("shiro redis cache removeAll exception. ", e);
+            recordError(CacheOperation.REMOVE_ALL, e);
+            if (isFallback(e)) {
+                validKeys.forEach(fallbackStore::remove);
+            }
+        } finally {
+            recordLatency(CacheOperation.REMOVE_ALL, start);
+        }
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Clear all cached objects.");
+        }
+
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            long cleared;
+            if (isIndexEnabled()) {
+                cleared = keyIndex().clear(redisConnection, scanCount);
+            } else {
+                cleared = RedisUtil.scan(redisConnection, keyPattern(), scanCount,
+                        page -> redisConnection.unlink(RedisUtil.toArray(page)));
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Currently scanning to {} keys, cleared.", cleared);
+            }
+            metricsCollector.recordEvictions(name, cleared);
+            if (fallbackStore != null) {
+                fallbackStore.evictAll();
             }
         } catch (Exception e) {
             logger.error("shiro redis cache clear exception.", e);
+            recordError(CacheOperation.CLEAR, e);
+            if (isFallback(e)) {
+                fallbackStore.clear();
+            }
+        } finally {
+            recordLatency(CacheOperation.CLEAR, start);
         }
     }
 
@@ -195,13 +837,19 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
         }
 
         int length = 0;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            Set<byte[]> allKeys = allKeys(redisConnection, name);
-            if (!CollectionUtils.isEmpty(allKeys)) {
-                length = allKeys.size();
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            if (isIndexEnabled()) {
+                length = (int) keyIndex().count(redisConnection);
+            } else {
+                length = (int) RedisUtil.scan(redisConnection, keyPattern(), scanCount, page -> {
+                });
             }
         } catch (Exception e) {
             logger.error("shiro redis cache size exception.", e);
+            recordError(CacheOperation.SIZE, e);
+        } finally {
+            recordLatency(CacheOperation.SIZE, start);
         }
 
         return length;
@@ -215,15 +863,18 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
         }
 
         Set<K> resultSet = null;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            Set<byte[]> allKeys = allKeys(redisConnection, name);
-            if (!CollectionUtils.isEmpty(allKeys)) {
-                resultSet = allKeys.stream()
-                        .map(key -> (K) deserializeKey(key))
-                        .collect(Collectors.toSet());
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            Set<K> keys = new HashSet<>();
+            scanKeys(redisConnection, page -> page.forEach(key -> keys.add((K) deserializeKey(key))));
+            if (!keys.isEmpty()) {
+                resultSet = keys;
             }
         } catch (Exception e) {
             logger.error("shiro redis cache keys exception.", e);
+            recordError(CacheOperation.KEYS, e);
+        } finally {
+            recordLatency(CacheOperation.KEYS, start);
         }
 
         return resultSet;
@@ -237,32 +888,266 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
         }
 
         Collection<V> values = null;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            Set<byte[]> allKeys = allKeys(redisConnection, name);
-            if (!CollectionUtils.isEmpty(allKeys)) {
-                List<byte[]> allValues = redisConnection.mGet(allKeys.toArray(new byte[allKeys.size()][]));
-                if (!CollectionUtils.isEmpty(allValues)) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Currently scanning to {} key-values.", allValues.size());
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            List<V> result = new ArrayList<>();
+            scanKeys(redisConnection, page -> {
+                List<byte[]> pageValues = redisConnection.mGet(RedisUtil.toArray(page));
+                if (!CollectionUtils.isEmpty(pageValues)) {
+                    for (byte[] value : pageValues) {
+                        V v = (V) deserializeValue(value);
+                        if (v != null) {
+                            result.add(v);
+                        }
                     }
-                    List<V> result = allValues.stream().map(v -> ((V) deserializeValue(v)))
-                            .collect(Collectors.toList());
-                    values = Collections.unmodifiableList(result);
                 }
+            });
+            if (!result.isEmpty()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Currently scanning to {} key-values.", result.size());
+                }
+                values = Collections.unmodifiableList(result);
             }
         } catch (Exception e) {
-            logger.error("shiro redis cache keys exception.", e);
+            logger.error("shiro redis cache values exception.", e);
+            recordError(CacheOperation.VALUES, e);
+        } finally {
+            recordLatency(CacheOperation.VALUES, start);
         }
 
         return values;
     }
 
+    /**
+     * 读取值与剩余有效期，按 XFetch 判断是否需要提前刷新：
+     * {@code -loadMillis * beta * ln(random) >= pttl} 时后台重新加载，
+     * 剩余有效期越短、加载越慢，刷新概率越大
+     */
+    @SuppressWarnings("unchecked")
+    private V getAndRefreshEarly(K key, Function<? super K, ? extends V> loader) {
+        if (key == null) {
+            return null;
+        }
+
+        V value = null;
+        long pttl = -1;
+        long start = System.nanoTime();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            byte[] rawKey = serializeKey(key);
+            redisConnection.openPipeline();
+            redisConnection.get(rawKey);
+            redisConnection.pTtl(rawKey);
+            List<Object> results = redisConnection.closePipeline();
+            value = (V) deserializeValue((byte[]) results.get(0));
+            if (results.get(1) instanceof Long) {
+                pttl = (Long) results.get(1);
+            }
+            recordLookup(value != null ? 1 : 0, value != null ? 0 : 1);
+        } catch (Exception e) {
+            logger.error("shiro redis cache get exception. ", e);
+            recordError(CacheOperation.GET, e);
+        } finally {
+            recordLatency(CacheOperation.GET, start);
+        }
+
+        double delta = loadMillis;
+        if (value != null && pttl > 0 && delta > 0
+                && -delta * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble()) >= pttl) {
+            refreshAsync(key, loader);
+        }
+        return value;
+    }
+
+    /**
+     * 后台刷新，本节点已在加载或其他节点持有加载锁时跳过
+     */
+    private void refreshAsync(K key, Function<? super K, ? extends V> loader) {
+        CompletableFuture<V> loading = new CompletableFuture<>();
+        if (loadings.putIfAbsent(key, loading) != null) {
+            return;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Refreshing object early in cache [" + getName() + "] for key [" + key + "]");
+        }
+
+        try {
+            asyncExecutor().execute(() -> {
+                try {
+                    loading.complete(refresh(key, loader));
+                } catch (Throwable e) {
+                    logger.error("shiro redis cache refresh exception. ", e);
+                    loading.completeExceptionally(e);
+                } finally {
+                    loadings.remove(key, loading);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loadings.remove(key, loading);
+            loading.completeExceptionally(e);
+        }
+    }
+
+    private V refresh(K key, Function<? super K, ? extends V> loader) {
+        if (!loadLockEnabled) {
+            return load(key, loader);
+        }
+
+        RedisLock lock = loadLock(key);
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            if (!lock.tryLock(redisConnection)) {
+                return get(key);
+            }
+        }
+        try {
+            return load(key, loader);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    private RedisLock loadLock(K key) {
+        return new RedisLock(serializerKey.serialize(keyPrefix + name + LOCK_KEY_SUFFIX + key), loadLockLease);
+    }
+
+    private void unlock(RedisLock lock) {
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            lock.unlock(redisConnection);
+        } catch (Exception e) {
+            logger.error("shiro redis cache load unlock exception. ", e);
+        }
+    }
+
+    private V loadWithLock(K key, Function<? super K, ? extends V> loader) {
+        RedisLock lock = loadLock(key);
+        long deadline = System.nanoTime() + loadLockLease.toNanos();
+        do {
+            boolean locked;
+            try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+                locked = lock.tryLock(redisConnection);
+            } catch (Exception e) {
+                logger.error("shiro redis cache load lock exception. ", e);
+                return load(key, loader);
+            }
+
+            if (locked) {
+                try {
+                    V value = get(key);
+                    return value != null ? value : load(key, loader);
+                } finally {
+                    unlock(lock);
+                }
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(loadLockRetryInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            V value = get(key);
+            if (value != null) {
+                return value;
+            }
+        } while (System.nanoTime() < deadline);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Timed out waiting for load lock in cache [" + getName() + "] for key [" + key + "]");
+        }
+        return load(key, loader);
+    }
+
+    private V load(K key, Function<? super K, ? extends V> loader) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loading object for cache [" + getName() + "] for key [" + key + "]");
+        }
+
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = loader.apply(key);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            double millis = elapsed / 1_000_000D;
+            double previous = loadMillis;
+            loadMillis = previous > 0 ? previous * 0.8 + millis * 0.2 : millis;
+            metricsCollector.recordLatency(name, CacheOperation.LOAD, elapsed);
+        }
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CacheException(cause);
+        }
+    }
+
+    /**
+     * 有效期（秒），未指定时使用默认有效期并按 ttlJitter 随机缩短
+     */
+    private long expireSeconds(Duration expired) {
+        if (expired != null) {
+            return expired.getSeconds();
+        }
+        long seconds = getExpiration().getSeconds();
+        if (ttlJitter > 0) {
+            long jitter = (long) (seconds * Math.min(ttlJitter, 1D) * ThreadLocalRandom.current().nextDouble());
+            seconds = Math.max(1, seconds - jitter);
+        }
+        return seconds;
+    }
+
+    private long slidingThresholdMillis() {
+        return slidingThreshold != null ? slidingThreshold.toMillis() : getExpiration().toMillis() / 2;
+    }
+
     private String generateKey(K key) {
         return keyPrefix + name + ":" + key;
     }
 
     private byte[] serializeKey(K key) {
-        return serializerKey.serialize(generateKey(key));
+        RedisKeyCodec codec = keyCodec;
+        if (codec == null) {
+            if (!RedisKeyCodec.supports(serializerKey)) {
+                return serializerKey.serialize(generateKey(key));
+            }
+            codec = new RedisKeyCodec(keyPrefix + name + ":", hotKeyCacheSize);
+            keyCodec = codec;
+        }
+        return codec.encode(key);
+    }
+
+    private byte[][] serializeKeys(List<K> keys) {
+        byte[][] result = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            result[i] = serializeKey(keys.get(i));
+        }
+        return result;
+    }
+
+    private List<K> nonNullKeys(Collection<K> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return Collections.emptyList();
+        }
+        List<K> result = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            if (key != null) {
+                result.add(key);
+            }
+        }
+        return result;
     }
 
     private String deserializeKey(byte[] bytes) {
@@ -273,26 +1158,105 @@ public class RedisCache<K, V> implements ExpiredCache<K, V>, Named {
     }
 
     private byte[] serializeValue(Object value) {
-        return serializerValue.serialize(value);
+        byte[] bytes = serializerValue.serialize(value);
+        if (bytes != null) {
+            metricsCollector.recordBytes(name, false, bytes.length);
+        }
+        return bytes;
     }
 
     private Object deserializeValue(byte[] bytes) {
         if (bytes == null || bytes.length == 0) {
             return null;
         }
+        metricsCollector.recordBytes(name, true, bytes.length);
         return serializerValue.deserialize(bytes);
     }
 
-    private Set<byte[]> allKeys(RedisConnection redisConnection, String name) {
-        Set<byte[]> allKeys = Collections.emptySet();
+    /**
+     * 是否因 redis 不可用而使用本地降级存储
+     */
+    private boolean isFallback(Exception e) {
+        return fallbackStore != null && RedisCircuitBreaker.isFailure(e);
+    }
+
+    /**
+     * redis 可用后回写降级期间的修改
+     */
+    private void reconcileIfPending() {
+        if (!fallbackStore.hasPending()) {
+            return;
+        }
+        try {
+            asyncExecutor().execute(() -> fallbackStore.reconcile(this::clear,
+                    (key, value) -> put(key, value), this::remove));
+        } catch (RejectedExecutionException e) {
+            logger.error("shiro redis cache reconcile rejected. ", e);
+        }
+    }
+
+    /**
+     * 读到旧格式的数据时按当前格式异步回写
+     */
+    private void rewriteIfLegacy(byte[] rawKey, byte[] bytes, Object value) {
+        if (value == null || !MultiplexingRedisSerializer.isRewriteRequired(serializerValue, bytes)) {
+            return;
+        }
+        byte[] rewritten = serializeValue(value);
+        try {
+            asyncExecutor().execute(() -> {
+                try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
+                    MultiplexingRedisSerializer.rewrite(redisConnection, rawKey, bytes, rewritten);
+                } catch (Exception e) {
+                    logger.error("shiro redis cache rewrite legacy value exception. ", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.error("shiro redis cache rewrite legacy value rejected. ", e);
+        }
+    }
+
+    private Executor asyncExecutor() {
+        return asyncExecutor != null ? asyncExecutor : RedisUtil.DIRECT_EXECUTOR;
+    }
 
-        String key = StringUtils.isEmpty(name) ? keyPrefix + "*" : keyPrefix + name + "*";
-        byte[] serializeKeys = serializerKey.serialize(key);
-        if (serializeKeys != null) {
-            allKeys = redisConnection.keys(serializeKeys);
+    private void recordLookup(long hits, long misses) {
+        if (hits > 0) {
+            metricsCollector.recordHits(name, hits);
         }
+        if (misses > 0) {
+            metricsCollector.recordMisses(name, misses);
+        }
+    }
+
+    private void recordError(CacheOperation operation, Throwable e) {
+        metricsCollector.recordError(name, operation, e);
+    }
+
+    private void recordLatency(CacheOperation operation, long start) {
+        metricsCollector.recordLatency(name, operation, System.nanoTime() - start);
+    }
+
+    /**
+     * 分页遍历当前缓存的 key，启用索引时遍历索引，否则 SCAN
+     */
+    private void scanKeys(RedisConnection redisConnection, Consumer<List<byte[]>> pageConsumer) {
+        if (isIndexEnabled()) {
+            keyIndex().scan(redisConnection, scanCount, pageConsumer);
+        } else {
+            RedisUtil.scan(redisConnection, keyPattern(), scanCount, pageConsumer);
+        }
+    }
+
+    private RedisKeyIndex keyIndex() {
+        if (keyIndex == null) {
+            keyIndex = new RedisKeyIndex(serializerKey.serialize(keyPrefix + name + INDEX_KEY_SUFFIX));
+        }
+        return keyIndex;
+    }
 
-        return allKeys;
+    private String keyPattern() {
+        return StringUtils.isEmpty(name) ? keyPrefix + "*" : keyPrefix + name + ":*";
     }
 
 }
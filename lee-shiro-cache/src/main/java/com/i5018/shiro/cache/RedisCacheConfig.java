@@ -0,0 +1,213 @@
+package com.i5018.shiro.cache;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+
+/**
+ * 单个缓存的配置，未设置（{@code null}）的项使用 {@link RedisCacheManager} 上的全局配置
+ * <p>
+ * 例如：passwordRetryCache、kickOutSessionCache、Realm 的授权/认证缓存可以按各自的访问特点单独配置。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/9 15:10
+ */
+public class RedisCacheConfig {
+
+    /**
+     * 缓存有效期
+     */
+    private Duration expiration;
+
+    /**
+     * 缓存前缀
+     */
+    private String keyPrefix;
+
+    /**
+     * value序列化工具
+     */
+    private RedisSerializer<Object> serializerValue;
+
+    /**
+     * 存储结构
+     */
+    private CacheStorageLayout storageLayout;
+
+    /**
+     * HASH_BUCKETS 结构下的桶数量
+     */
+    private Integer hashBucketCount;
+
+    /**
+     * 预计的最大条目数，HASH_BUCKETS 结构下未设置桶数量时据此计算
+     */
+    private Long expectedEntries;
+
+    /**
+     * 是否压缩 value
+     */
+    private Boolean compressionEnabled;
+
+    /**
+     * put/remove 获取旧值的方式
+     */
+    private CacheWriteMode writeMode;
+
+    /**
+     * 是否维护成员索引
+     */
+    private Boolean indexEnabled;
+
+    /**
+     * 是否启用本地二级缓存
+     */
+    private Boolean nearCacheEnabled;
+
+    /**
+     * 是否使用 redis 锁在多个节点间合并加载
+     */
+    private Boolean loadLockEnabled;
+
+    /**
+     * 是否滑动过期，读取时续期
+     */
+    private Boolean slidingExpiration;
+
+    /**
+     * 默认有效期的随机缩短比例（0~1）
+     */
+    private Double ttlJitter;
+
+    /**
+     * 提前刷新系数，大于 0 时启用
+     */
+    private Double earlyRefreshBeta;
+
+    /**
+     * 剩余有效期低于该值时读取才续期
+     */
+    private Duration slidingThreshold;
+
+    public Duration getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(Duration expiration) {
+        this.expiration = expiration;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    public RedisSerializer<Object> getSerializerValue() {
+        return serializerValue;
+    }
+
+    public void setSerializerValue(RedisSerializer<Object> serializerValue) {
+        this.serializerValue = serializerValue;
+    }
+
+    public CacheStorageLayout getStorageLayout() {
+        return storageLayout;
+    }
+
+    public void setStorageLayout(CacheStorageLayout storageLayout) {
+        this.storageLayout = storageLayout;
+    }
+
+    public Integer getHashBucketCount() {
+        return hashBucketCount;
+    }
+
+    public void setHashBucketCount(Integer hashBucketCount) {
+        this.hashBucketCount = hashBucketCount;
+    }
+
+    public Long getExpectedEntries() {
+        return expectedEntries;
+    }
+
+    public void setExpectedEntries(Long expectedEntries) {
+        this.expectedEntries = expectedEntries;
+    }
+
+    public Boolean getCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(Boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public CacheWriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    public void setWriteMode(CacheWriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public Boolean getIndexEnabled() {
+        return indexEnabled;
+    }
+
+    public void setIndexEnabled(Boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+    }
+
+    public Boolean getNearCacheEnabled() {
+        return nearCacheEnabled;
+    }
+
+    public void setNearCacheEnabled(Boolean nearCacheEnabled) {
+        this.nearCacheEnabled = nearCacheEnabled;
+    }
+
+    public Boolean getLoadLockEnabled() {
+        return loadLockEnabled;
+    }
+
+    public void setLoadLockEnabled(Boolean loadLockEnabled) {
+        this.loadLockEnabled = loadLockEnabled;
+    }
+
+    public Boolean getSlidingExpiration() {
+        return slidingExpiration;
+    }
+
+    public void setSlidingExpiration(Boolean slidingExpiration) {
+        this.slidingExpiration = slidingExpiration;
+    }
+
+    public Double getTtlJitter() {
+        return ttlJitter;
+    }
+
+    public void setTtlJitter(Double ttlJitter) {
+        this.ttlJitter = ttlJitter;
+    }
+
+    public Double getEarlyRefreshBeta() {
+        return earlyRefreshBeta;
+    }
+
+    public void setEarlyRefreshBeta(Double earlyRefreshBeta) {
+        this.earlyRefreshBeta = earlyRefreshBeta;
+    }
+
+    public Duration getSlidingThreshold() {
+        return slidingThreshold;
+    }
+
+    public void setSlidingThreshold(Duration slidingThreshold) {
+        this.slidingThreshold = slidingThreshold;
+    }
+
+}
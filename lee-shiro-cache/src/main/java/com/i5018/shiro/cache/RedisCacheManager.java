@@ -1,5 +1,8 @@
 package com.i5018.shiro.cache;
 
+import com.i5018.shiro.cache.metrics.CacheMetricsCollector;
+import com.i5018.shiro.cache.metrics.DefaultCacheMetricsCollector;
+import com.i5018.shiro.util.CompressingRedisSerializer;
 import com.i5018.shiro.util.ObjectRedisSerializer;
 import org.apache.shiro.cache.CacheException;
 import org.slf4j.Logger;
@@ -11,6 +14,14 @@ import org.springframework.data.redis.serializer.StringRedisSerializer;
 import javax.security.auth.DestroyFailedException;
 import javax.security.auth.Destroyable;
 import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author limk
@@ -25,6 +36,11 @@ public class RedisCacheManager implements ExpiredCacheManager, Destroyable {
      */
     private static final String REDIS_SHIRO_CACHE_KEY_PREFIX = "shiro:cache:";
 
+    /**
+     * 本地缓存失效通知频道后缀
+     */
+    private static final String NEAR_CACHE_INVALIDATION_CHANNEL = "invalidation";
+
     /**
      * redis连接工厂
      */
@@ -50,27 +66,395 @@ public class RedisCacheManager implements ExpiredCacheManager, Destroyable {
      */
     private RedisSerializer<Object> serializerValue = new ObjectRedisSerializer();
 
+    /**
+     * 存储结构
+     */
+    private CacheStorageLayout storageLayout = CacheStorageLayout.KEY_PER_ENTRY;
+
+    /**
+     * HASH_BUCKETS 结构下每个缓存的默认桶数量，
+     * 缓存配置了 hashBucketCount 或 expectedEntries 时以缓存配置为准
+     */
+    private int hashBucketCount = 1024;
+
+    /**
+     * 是否使用 LZ4 压缩 value
+     */
+    private boolean compressionEnabled = false;
+
+    /**
+     * 序列化结果不小于该值（字节）时才压缩
+     */
+    private int compressionThreshold = CompressingRedisSerializer.DEFAULT_THRESHOLD;
+
+    /**
+     * SCAN 每批数量
+     */
+    private int scanCount = 1000;
+
+    /**
+     * 每个缓存的热点 key 编码缓存大小
+     */
+    private int hotKeyCacheSize = 1024;
+
+    /**
+     * 是否维护成员索引，启用后 size/keys/values/clear 不再扫描 keyspace
+     */
+    private boolean indexEnabled = false;
+
+    /**
+     * put/remove 获取旧值的方式，Shiro 很少使用返回值，可配置为 WRITE_ONLY 节省一次往返
+     */
+    private CacheWriteMode writeMode = CacheWriteMode.READ_BEFORE_WRITE;
+
+    /**
+     * 执行异步操作的线程池（非 Lettuce 连接时的异步读写、提前刷新、降级回写、旧格式回写），
+     * 任务中会执行阻塞的 redis 调用，自定义的线程池必须能容忍阻塞，不要使用 {@code ForkJoinPool.commonPool()}；
+     * 为空时使用管理器创建的有界守护线程池，在 {@link #destroy()} 时关闭
+     */
+    private Executor asyncExecutor;
+
+    /**
+     * 默认异步线程池的线程数
+     */
+    private int asyncThreads = 4;
+
+    /**
+     * 默认异步线程池的队列长度，队列已满时在调用线程上执行
+     */
+    private int asyncQueueSize = 1024;
+
+    /**
+     * 管理器创建的异步线程池
+     */
+    private volatile ThreadPoolExecutor ownedAsyncExecutor;
+
+    /**
+     * 默认有效期的随机缩短比例（0~1），避免同一批写入的缓存同时过期
+     */
+    private double ttlJitter = 0D;
+
+    /**
+     * 提前刷新系数，大于 0 时 get(key, loader) 会在过期前按概率后台刷新
+     */
+    private double earlyRefreshBeta = 0D;
+
+    /**
+     * 是否滑动过期，读取时续期
+     */
+    private boolean slidingExpiration = false;
+
+    /**
+     * 剩余有效期低于该值时读取才续期，为空时取有效期的一半
+     */
+    private Duration slidingThreshold;
+
+    /**
+     * 是否使用 redis 锁在多个节点间合并 get(key, loader) 的加载
+     */
+    private boolean loadLockEnabled = false;
+
+    /**
+     * 加载锁租约
+     */
+    private Duration loadLockLease = Duration.ofSeconds(10);
+
+    /**
+     * redis 不可用时每个缓存本地降级存储的最大条目数，0 表示不降级。
+     * 配合 {@link com.i5018.shiro.util.CircuitBreakerRedisConnectionFactory} 使用可在故障期间快速失败
+     */
+    private int fallbackMaxSize = 0;
+
+    /**
+     * 是否启用本地二级缓存
+     */
+    private boolean nearCacheEnabled = false;
+
+    /**
+     * 本地缓存最大条目数（每个缓存）
+     */
+    private int nearCacheMaxSize = 10000;
+
+    /**
+     * 本地缓存有效期
+     */
+    private Duration nearCacheExpiration = Duration.ofMinutes(1);
+
+    /**
+     * 是否采集缓存指标，未设置 metricsCollector 时使用 {@link DefaultCacheMetricsCollector}
+     */
+    private boolean metricsEnabled = false;
+
+    /**
+     * 默认指标采集是否注册 JMX MBean
+     */
+    private boolean jmxEnabled = true;
+
+    /**
+     * 指标采集
+     */
+    private volatile CacheMetricsCollector metricsCollector;
+
+    /**
+     * 单个缓存的配置
+     */
+    private final Map<String, RedisCacheConfig> cacheConfigs = new ConcurrentHashMap<>();
+
+    /**
+     * 已创建的缓存，同名缓存复用同一实例
+     */
+    private final ConcurrentMap<String, ExpiredCache<?, ?>> caches = new ConcurrentHashMap<>();
+
+    /**
+     * 本地缓存失效通知
+     */
+    private volatile NearCacheInvalidator nearCacheInvalidator;
+
     public RedisCacheManager(RedisConnectionFactory redisConnectionFactory) {
         this.redisConnectionFactory = redisConnectionFactory;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public <K, V> ExpiredCache<K, V> getCache(String name) throws CacheException {
         if (logger.isDebugEnabled()) {
             logger.debug("shiro redis cache manager get cache. name={} ", name);
         }
 
+        return (ExpiredCache<K, V>) caches.computeIfAbsent(name, this::createCache);
+    }
+
+    private <K, V> ExpiredCache<K, V> createCache(String name) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("shiro redis cache manager create cache. name={} ", name);
+        }
+
+        RedisCacheConfig config = cacheConfigs.get(name);
+        CacheStorageLayout layout = config != null && config.getStorageLayout() != null
+                ? config.getStorageLayout() : storageLayout;
+        CacheMetricsCollector collector = getMetricsCollector();
+        ExpiredCache<K, V> cache;
+        if (layout == CacheStorageLayout.HASH_BUCKETS) {
+            HashBucketRedisCache<K, V> bucketCache = createHashBucketCache(name, config);
+            bucketCache.setMetricsCollector(collector);
+            cache = bucketCache;
+        } else {
+            RedisCache<K, V> redisCache = createRedisCache(name, config);
+            redisCache.setMetricsCollector(collector);
+            cache = redisCache;
+        }
+
+        boolean near = config != null && config.getNearCacheEnabled() != null
+                ? config.getNearCacheEnabled() : nearCacheEnabled;
+        if (!near) {
+            return cache;
+        }
+
+        NearCacheInvalidator invalidator = getNearCacheInvalidator();
+        // 本地副本不压缩
+        RedisSerializer<Object> localSerializer = config != null && config.getSerializerValue() != null
+                ? config.getSerializerValue() : serializerValue;
+        NearCache<K, V> nearCache = new NearCache<>(name, cache,
+                new LocalLruCache<>(nearCacheMaxSize), localSerializer, nearCacheExpiration, invalidator);
+        nearCache.setMetricsCollector(collector);
+        invalidator.register(nearCache);
+        return nearCache;
+    }
+
+    private NearCacheInvalidator getNearCacheInvalidator() {
+        if (nearCacheInvalidator == null) {
+            synchronized (this) {
+                if (nearCacheInvalidator == null) {
+                    nearCacheInvalidator = new NearCacheInvalidator(redisConnectionFactory,
+                            keyPrefix + NEAR_CACHE_INVALIDATION_CHANNEL);
+                }
+            }
+        }
+        return nearCacheInvalidator;
+    }
+
+    /**
+     * 当前使用的指标采集，未启用时返回 {@link CacheMetricsCollector#NONE}
+     */
+    public CacheMetricsCollector getMetricsCollector() {
+        if (metricsCollector == null) {
+            synchronized (this) {
+                if (metricsCollector == null) {
+                    metricsCollector = metricsEnabled
+                            ? new DefaultCacheMetricsCollector(jmxEnabled) : CacheMetricsCollector.NONE;
+                }
+            }
+        }
+        return metricsCollector;
+    }
+
+    private <K, V> HashBucketRedisCache<K, V> createHashBucketCache(String name, RedisCacheConfig config) {
+        HashBucketRedisCache<K, V> cache = new HashBucketRedisCache<>(name, redisConnectionFactory);
+        cache.setKeyPrefix(config != null && config.getKeyPrefix() != null ? config.getKeyPrefix() : keyPrefix);
+        cache.setExpiration(config != null && config.getExpiration() != null ? config.getExpiration() : expiration);
+        cache.setSerializerKey(serializerKey);
+        cache.setSerializerValue(valueSerializer(config));
+        cache.setWriteMode(config != null && config.getWriteMode() != null ? config.getWriteMode() : writeMode);
+        cache.setBucketCount(bucketCount(config));
+        cache.setScanCount(scanCount);
+        cache.setTtlJitter(config != null && config.getTtlJitter() != null ? config.getTtlJitter() : ttlJitter);
+        cache.setLoadLockEnabled(config != null && config.getLoadLockEnabled() != null
+                ? config.getLoadLockEnabled() : loadLockEnabled);
+        cache.setLoadLockLease(loadLockLease);
+
+        // 分桶存储没有逐条 key 的有效期，以下配置不生效
+        boolean sliding = config != null && config.getSlidingExpiration() != null
+                ? config.getSlidingExpiration() : slidingExpiration;
+        double beta = config != null && config.getEarlyRefreshBeta() != null
+                ? config.getEarlyRefreshBeta() : earlyRefreshBeta;
+        if (sliding || beta > 0 || fallbackMaxSize > 0) {
+            logger.warn("Cache [{}] uses HASH_BUCKETS storage, which ignores slidingExpiration={}, "
+                    + "earlyRefreshBeta={}, fallbackMaxSize={}", name, sliding, beta, fallbackMaxSize);
+        }
+        return cache;
+    }
+
+    private int bucketCount(RedisCacheConfig config) {
+        if (config != null && config.getHashBucketCount() != null) {
+            return config.getHashBucketCount();
+        }
+        if (config != null && config.getExpectedEntries() != null) {
+            return HashBucketRedisCache.bucketCountFor(config.getExpectedEntries());
+        }
+        return hashBucketCount;
+    }
+
+    private RedisSerializer<Object> valueSerializer(RedisCacheConfig config) {
+        RedisSerializer<Object> serializer = config != null && config.getSerializerValue() != null
+                ? config.getSerializerValue() : serializerValue;
+        boolean compression = config != null && config.getCompressionEnabled() != null
+                ? config.getCompressionEnabled() : compressionEnabled;
+        if (compression && !(serializer instanceof CompressingRedisSerializer)) {
+            return new CompressingRedisSerializer(serializer, compressionThreshold);
+        }
+        return serializer;
+    }
+
+    private <K, V> RedisCache<K, V> createRedisCache(String name, RedisCacheConfig config) {
         RedisCache<K, V> cache = new RedisCache<>(name, redisConnectionFactory);
         cache.setKeyPrefix(keyPrefix);
         cache.setExpiration(expiration);
         cache.setSerializerKey(serializerKey);
-        cache.setSerializerValue(serializerValue);
+        cache.setSerializerValue(valueSerializer(config));
+        cache.setScanCount(scanCount);
+        cache.setHotKeyCacheSize(hotKeyCacheSize);
+        cache.setIndexEnabled(indexEnabled);
+        cache.setWriteMode(writeMode);
+        cache.setAsyncExecutor(asyncExecutor != null ? asyncExecutor : getOwnedAsyncExecutor());
+        cache.setTtlJitter(ttlJitter);
+        cache.setEarlyRefreshBeta(earlyRefreshBeta);
+        cache.setSlidingExpiration(slidingExpiration);
+        cache.setSlidingThreshold(slidingThreshold);
+        cache.setLoadLockEnabled(loadLockEnabled);
+        cache.setLoadLockLease(loadLockLease);
+        if (fallbackMaxSize > 0) {
+            cache.setFallbackStore(new LocalFallbackStore<>(fallbackMaxSize));
+        }
+
+        if (config != null) {
+            if (config.getKeyPrefix() != null) {
+                cache.setKeyPrefix(config.getKeyPrefix());
+            }
+            if (config.getExpiration() != null) {
+                cache.setExpiration(config.getExpiration());
+            }
+            if (config.getIndexEnabled() != null) {
+                cache.setIndexEnabled(config.getIndexEnabled());
+            }
+            if (config.getWriteMode() != null) {
+                cache.setWriteMode(config.getWriteMode());
+            }
+            if (config.getLoadLockEnabled() != null) {
+                cache.setLoadLockEnabled(config.getLoadLockEnabled());
+            }
+            if (config.getTtlJitter() != null) {
+                cache.setTtlJitter(config.getTtlJitter());
+            }
+            if (config.getEarlyRefreshBeta() != null) {
+                cache.setEarlyRefreshBeta(config.getEarlyRefreshBeta());
+            }
+            if (config.getSlidingExpiration() != null) {
+                cache.setSlidingExpiration(config.getSlidingExpiration());
+            }
+            if (config.getSlidingThreshold() != null) {
+                cache.setSlidingThreshold(config.getSlidingThreshold());
+            }
+        }
         return cache;
     }
 
+    private Executor getOwnedAsyncExecutor() {
+        if (ownedAsyncExecutor == null) {
+            synchronized (this) {
+                if (ownedAsyncExecutor == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads,
+                            60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(asyncQueueSize), runnable -> {
+                        Thread thread = new Thread(runnable, "shiro-redis-cache-async-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+                    executor.allowCoreThreadTimeOut(true);
+                    ownedAsyncExecutor = executor;
+                }
+            }
+        }
+        return ownedAsyncExecutor;
+    }
+
+    /**
+     * 释放已创建的缓存实例、失效通知的订阅连接以及默认异步线程池，Redis 中的数据不受影响
+     */
     @Override
     public void destroy() throws DestroyFailedException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("shiro redis cache manager destroy. caches={} ", caches.keySet());
+        }
+
+        caches.clear();
+        synchronized (this) {
+            if (nearCacheInvalidator != null) {
+                nearCacheInvalidator.destroy();
+                nearCacheInvalidator = null;
+            }
+            if (ownedAsyncExecutor != null) {
+                ownedAsyncExecutor.shutdown();
+                ownedAsyncExecutor = null;
+            }
+            if (metricsCollector instanceof DefaultCacheMetricsCollector) {
+                ((DefaultCacheMetricsCollector) metricsCollector).destroy();
+            }
+        }
+    }
 
+    /**
+     * 设置单个缓存的配置，需要在第一次获取该缓存之前设置
+     *
+     * @param name   缓存名称
+     * @param config 缓存配置
+     */
+    public void putCacheConfig(String name, RedisCacheConfig config) {
+        this.cacheConfigs.put(name, config);
+    }
+
+    /**
+     * 获取单个缓存的配置，不存在时创建，需要在第一次获取该缓存之前修改
+     *
+     * @param name 缓存名称
+     * @return 缓存配置
+     */
+    public RedisCacheConfig getCacheConfig(String name) {
+        return this.cacheConfigs.computeIfAbsent(name, key -> new RedisCacheConfig());
+    }
+
+    public void setCacheConfigs(Map<String, RedisCacheConfig> cacheConfigs) {
+        this.cacheConfigs.clear();
+        this.cacheConfigs.putAll(cacheConfigs);
     }
 
     public void setKeyPrefix(String keyPrefix) {
@@ -89,4 +473,106 @@ public class RedisCacheManager implements ExpiredCacheManager, Destroyable {
         this.serializerValue = serializerValue;
     }
 
+    public void setStorageLayout(CacheStorageLayout storageLayout) {
+        this.storageLayout = storageLayout;
+    }
+
+    public void setHashBucketCount(int hashBucketCount) {
+        this.hashBucketCount = hashBucketCount;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public void setScanCount(int scanCount) {
+        this.scanCount = scanCount;
+    }
+
+    public void setHotKeyCacheSize(int hotKeyCacheSize) {
+        this.hotKeyCacheSize = hotKeyCacheSize;
+    }
+
+    public void setIndexEnabled(boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+    }
+
+    public void setWriteMode(CacheWriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    /**
+     * 自定义异步线程池，必须能容忍阻塞的 redis 调用，由调用方负责关闭
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+    public void setTtlJitter(double ttlJitter) {
+        this.ttlJitter = ttlJitter;
+    }
+
+    public void setEarlyRefreshBeta(double earlyRefreshBeta) {
+        this.earlyRefreshBeta = earlyRefreshBeta;
+    }
+
+    public void setSlidingExpiration(boolean slidingExpiration) {
+        this.slidingExpiration = slidingExpiration;
+    }
+
+    public void setSlidingThreshold(Duration slidingThreshold) {
+        this.slidingThreshold = slidingThreshold;
+    }
+
+    public void setLoadLockEnabled(boolean loadLockEnabled) {
+        this.loadLockEnabled = loadLockEnabled;
+    }
+
+    public void setLoadLockLease(Duration loadLockLease) {
+        this.loadLockLease = loadLockLease;
+    }
+
+    public void setFallbackMaxSize(int fallbackMaxSize) {
+        this.fallbackMaxSize = fallbackMaxSize;
+    }
+
+    public void setNearCacheEnabled(boolean nearCacheEnabled) {
+        this.nearCacheEnabled = nearCacheEnabled;
+    }
+
+    public void setNearCacheMaxSize(int nearCacheMaxSize) {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+    }
+
+    public void setNearCacheExpiration(Duration nearCacheExpiration) {
+        this.nearCacheExpiration = nearCacheExpiration;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    /**
+     * 设置自定义指标采集（如对接 Micrometer），设置后忽略 metricsEnabled
+     */
+    public void setMetricsCollector(CacheMetricsCollector metricsCollector) {
+        this.metricsCollector = metricsCollector;
+    }
+
 }
@@ -0,0 +1,96 @@
+package com.i5018.shiro.cache.metrics;
+
+/**
+ * 缓存指标采集 SPI
+ * <p>
+ * 每个命名缓存在执行操作时回调，实现类可以对接 JMX、Micrometer 等监控系统，
+ * 实现必须线程安全且不能抛出异常。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/11 10:05
+ */
+public interface CacheMetricsCollector {
+
+    /**
+     * 不采集任何指标
+     */
+    CacheMetricsCollector NONE = new CacheMetricsCollector() {
+    };
+
+    /**
+     * 命中
+     *
+     * @param cacheName 缓存名称
+     * @param count     数量
+     */
+    default void recordHits(String cacheName, long count) {
+    }
+
+    /**
+     * 本地二级缓存命中，调用方需同时调用 {@link #recordHits(String, long)}
+     *
+     * @param cacheName 缓存名称
+     * @param count     数量
+     */
+    default void recordLocalHits(String cacheName, long count) {
+    }
+
+    /**
+     * 未命中
+     *
+     * @param cacheName 缓存名称
+     * @param count     数量
+     */
+    default void recordMisses(String cacheName, long count) {
+    }
+
+    /**
+     * 写入
+     *
+     * @param cacheName 缓存名称
+     * @param count     数量
+     */
+    default void recordPuts(String cacheName, long count) {
+    }
+
+    /**
+     * 删除/清空
+     *
+     * @param cacheName 缓存名称
+     * @param count     数量
+     */
+    default void recordEvictions(String cacheName, long count) {
+    }
+
+    /**
+     * 操作异常
+     *
+     * @param cacheName 缓存名称
+     * @param operation 操作
+     * @param e         异常
+     */
+    default void recordError(String cacheName, CacheOperation operation, Throwable e) {
+    }
+
+    /**
+     * 序列化后的字节数
+     *
+     * @param cacheName 缓存名称
+     * @param read      true 读取 false 写入
+     * @param bytes     字节数
+     */
+    default void recordBytes(String cacheName, boolean read, long bytes) {
+    }
+
+    /**
+     * 操作耗时
+     *
+     * @param cacheName 缓存名称
+     * @param operation 操作
+     * @param nanos     耗时（纳秒）
+     */
+    default void recordLatency(String cacheName, CacheOperation operation, long nanos) {
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.i5018.shiro.cache.metrics;
+
+/**
+ * 缓存操作
+ *
+ * @author limk
+ * @date 2020/9/11 10:10
+ */
+public enum CacheOperation {
+
+    GET,
+
+    PUT,
+
+    REMOVE,
+
+    GET_ALL,
+
+    PUT_ALL,
+
+    REMOVE_ALL,
+
+    CLEAR,
+
+    SIZE,
+
+    KEYS,
+
+    VALUES,
+
+    /**
+     * 未命中时执行加载函数
+     */
+    LOAD
+
+}
@@ -0,0 +1,185 @@
+package com.i5018.shiro.cache.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 单个缓存的统计信息
+ *
+ * @author limk
+ * @date 2020/9/11 11:10
+ */
+public class CacheStatistics implements CacheStatisticsMXBean {
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder localHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder puts = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder valuesRead = new LongAdder();
+
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private final LongAdder valuesWritten = new LongAdder();
+
+    private final Map<CacheOperation, LatencyHistogram> latencies = new EnumMap<>(CacheOperation.class);
+
+    public CacheStatistics() {
+        for (CacheOperation operation : CacheOperation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    void recordHits(long count) {
+        hits.add(count);
+    }
+
+    void recordLocalHits(long count) {
+        localHits.add(count);
+    }
+
+    void recordMisses(long count) {
+        misses.add(count);
+    }
+
+    void recordPuts(long count) {
+        puts.add(count);
+    }
+
+    void recordEvictions(long count) {
+        evictions.add(count);
+    }
+
+    void recordError() {
+        errors.increment();
+    }
+
+    void recordBytes(boolean read, long bytes) {
+        if (read) {
+            bytesRead.add(bytes);
+            valuesRead.increment();
+        } else {
+            bytesWritten.add(bytes);
+            valuesWritten.increment();
+        }
+    }
+
+    void recordLatency(CacheOperation operation, long nanos) {
+        latencies.get(operation).record(nanos);
+    }
+
+    public LatencyHistogram getLatency(CacheOperation operation) {
+        return latencies.get(operation);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0D : (double) h / total;
+    }
+
+    @Override
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getAverageValueBytes() {
+        long count = valuesRead.sum() + valuesWritten.sum();
+        return count == 0 ? 0D : (double) (bytesRead.sum() + bytesWritten.sum()) / count;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        return collect(LatencyHistogram::getCount);
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        return collect(LatencyHistogram::getMeanMicros);
+    }
+
+    @Override
+    public Map<String, Long> getP99LatencyMicros() {
+        return collect(histogram -> histogram.getPercentileMicros(0.99));
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyMicros() {
+        return collect(LatencyHistogram::getMaxMicros);
+    }
+
+    @Override
+    public void reset() {
+        hits.reset();
+        localHits.reset();
+        misses.reset();
+        puts.reset();
+        evictions.reset();
+        errors.reset();
+        bytesRead.reset();
+        valuesRead.reset();
+        bytesWritten.reset();
+        valuesWritten.reset();
+        latencies.values().forEach(LatencyHistogram::reset);
+    }
+
+    private <T> Map<String, T> collect(Function<LatencyHistogram, T> mapper) {
+        Map<String, T> result = new LinkedHashMap<>();
+        latencies.forEach((operation, histogram) -> {
+            if (histogram.getCount() > 0) {
+                result.put(operation.name(), mapper.apply(histogram));
+            }
+        });
+        return result;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.i5018.shiro.cache.metrics;
+
+import java.util.Map;
+
+/**
+ * 单个缓存的统计信息，注册名称为 {@code com.i5018.shiro:type=Cache,name=<缓存名称>}
+ *
+ * @author limk
+ * @date 2020/9/11 11:00
+ */
+public interface CacheStatisticsMXBean {
+
+    long getHits();
+
+    long getLocalHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getPuts();
+
+    long getEvictions();
+
+    long getErrors();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    double getAverageValueBytes();
+
+    /**
+     * 各操作次数
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * 各操作平均耗时（微秒）
+     */
+    Map<String, Double> getMeanLatencyMicros();
+
+    /**
+     * 各操作 p99 耗时（微秒）
+     */
+    Map<String, Long> getP99LatencyMicros();
+
+    /**
+     * 各操作最大耗时（微秒）
+     */
+    Map<String, Long> getMaxLatencyMicros();
+
+    /**
+     * 清零
+     */
+    void reset();
+
+}
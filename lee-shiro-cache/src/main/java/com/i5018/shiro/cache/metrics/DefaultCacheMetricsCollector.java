@@ -0,0 +1,132 @@
+package com.i5018.shiro.cache.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 默认指标采集，按缓存名称在内存中累计，并可将每个缓存注册为 JMX MBean
+ *
+ * @author limk
+ * @date 2020/9/11 11:40
+ */
+public class DefaultCacheMetricsCollector implements CacheMetricsCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(DefaultCacheMetricsCollector.class);
+
+    private static final String JMX_DOMAIN = "com.i5018.shiro";
+
+    /**
+     * 是否注册 JMX MBean
+     */
+    private final boolean jmxEnabled;
+
+    private final Map<String, CacheStatistics> statistics = new ConcurrentHashMap<>();
+
+    public DefaultCacheMetricsCollector() {
+        this(true);
+    }
+
+    public DefaultCacheMetricsCollector(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    /**
+     * 获取指定缓存的统计信息
+     */
+    public CacheStatistics getStatistics(String cacheName) {
+        return statistics.computeIfAbsent(cacheName, this::createStatistics);
+    }
+
+    public Map<String, CacheStatistics> getAllStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    @Override
+    public void recordHits(String cacheName, long count) {
+        getStatistics(cacheName).recordHits(count);
+    }
+
+    @Override
+    public void recordLocalHits(String cacheName, long count) {
+        getStatistics(cacheName).recordLocalHits(count);
+    }
+
+    @Override
+    public void recordMisses(String cacheName, long count) {
+        getStatistics(cacheName).recordMisses(count);
+    }
+
+    @Override
+    public void recordPuts(String cacheName, long count) {
+        getStatistics(cacheName).recordPuts(count);
+    }
+
+    @Override
+    public void recordEvictions(String cacheName, long count) {
+        getStatistics(cacheName).recordEvictions(count);
+    }
+
+    @Override
+    public void recordError(String cacheName, CacheOperation operation, Throwable e) {
+        getStatistics(cacheName).recordError();
+    }
+
+    @Override
+    public void recordBytes(String cacheName, boolean read, long bytes) {
+        getStatistics(cacheName).recordBytes(read, bytes);
+    }
+
+    @Override
+    public void recordLatency(String cacheName, CacheOperation operation, long nanos) {
+        getStatistics(cacheName).recordLatency(operation, nanos);
+    }
+
+    /**
+     * 注销所有 MBean
+     */
+    public void destroy() {
+        if (jmxEnabled) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (String cacheName : statistics.keySet()) {
+                try {
+                    ObjectName objectName = objectName(cacheName);
+                    if (server.isRegistered(objectName)) {
+                        server.unregisterMBean(objectName);
+                    }
+                } catch (Exception e) {
+                    logger.error("unregister cache statistics mbean error. name={}", cacheName, e);
+                }
+            }
+        }
+        statistics.clear();
+    }
+
+    private CacheStatistics createStatistics(String cacheName) {
+        CacheStatistics cacheStatistics = new CacheStatistics();
+        if (jmxEnabled) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = objectName(cacheName);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+                server.registerMBean(cacheStatistics, objectName);
+            } catch (Exception e) {
+                logger.error("register cache statistics mbean error. name={}", cacheName, e);
+            }
+        }
+        return cacheStatistics;
+    }
+
+    private static ObjectName objectName(String cacheName) throws Exception {
+        return new ObjectName(JMX_DOMAIN + ":type=Cache,name=" + ObjectName.quote(cacheName));
+    }
+
+}
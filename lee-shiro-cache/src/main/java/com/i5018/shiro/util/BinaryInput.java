@@ -0,0 +1,92 @@
+package com.i5018.shiro.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 字节数组读取，与 {@link BinaryOutput} 对应，数据不完整时抛出 {@link IllegalStateException}
+ *
+ * @author limk
+ * @date 2020/9/16 14:00
+ */
+public final class BinaryInput {
+
+    private final byte[] buffer;
+
+    private int position;
+
+    public BinaryInput(byte[] buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    public byte readByte() {
+        if (position >= buffer.length) {
+            throw new IllegalStateException("Truncated payload");
+        }
+        return buffer[position++];
+    }
+
+    public long readLong() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (readByte() & 0xFF);
+        }
+        return value;
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    public long readVarLong() {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IllegalStateException("Malformed varlong");
+    }
+
+    public byte[] readBytes() {
+        int length = readLength();
+        byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+        position += length;
+        return bytes;
+    }
+
+    public String readString() {
+        int length = readLength();
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * 读取集合元素数量，每个元素至少占一个字节，数量超过剩余字节数时视为数据不完整，
+     * 避免按损坏的数量预先分配数组
+     */
+    public int readCount() {
+        return readLength();
+    }
+
+    private int readLength() {
+        int length = readVarInt();
+        if (length < 0 || length > buffer.length - position) {
+            throw new IllegalStateException("Truncated payload");
+        }
+        return length;
+    }
+
+}
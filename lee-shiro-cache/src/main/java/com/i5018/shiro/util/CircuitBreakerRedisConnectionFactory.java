@@ -0,0 +1,141 @@
+package com.i5018.shiro.util;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 带熔断的 redis 连接工厂
+ * <p>
+ * 熔断打开时 {@link #getConnection()} 直接抛出 {@link RedisConnectionFailureException}，
+ * 不再等待连接超时；返回的连接会把每次命令的结果记录到熔断器。
+ * 只读取本地状态的方法（如 isPipelined、isClosed）不记录结果；管道/事务中的命令在
+ * closePipeline/exec 时才发送，只记录这两个方法的结果。
+ * 包装后不再是 Lettuce 连接工厂，异步操作会退回线程池执行。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/13 10:40
+ */
+public class CircuitBreakerRedisConnectionFactory implements RedisConnectionFactory {
+
+    /**
+     * 只读取或修改连接本地状态、不访问 redis 的方法
+     */
+    private static final Set<String> LOCAL_METHODS = new HashSet<>(Arrays.asList(
+            "isClosed", "isPipelined", "isQueueing", "isSubscribed", "getSubscription", "getNativeConnection",
+            "openPipeline", "getSentinelConnection", "toString", "hashCode", "equals"));
+
+    /**
+     * 发送管道/事务中已排队命令的方法
+     */
+    private static final Set<String> FLUSH_METHODS = new HashSet<>(Arrays.asList("closePipeline", "exec"));
+
+    /**
+     * 被包装的连接工厂
+     */
+    private final RedisConnectionFactory delegate;
+
+    /**
+     * 熔断器
+     */
+    private final RedisCircuitBreaker circuitBreaker;
+
+    public CircuitBreakerRedisConnectionFactory(RedisConnectionFactory delegate) {
+        this(delegate, new RedisCircuitBreaker());
+    }
+
+    public CircuitBreakerRedisConnectionFactory(RedisConnectionFactory delegate, RedisCircuitBreaker circuitBreaker) {
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public RedisConnectionFactory getDelegate() {
+        return delegate;
+    }
+
+    public RedisCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public RedisConnection getConnection() {
+        return proxy(RedisConnection.class, open(false));
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        return proxy(RedisClusterConnection.class, open(true));
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return delegate.getConvertPipelineAndTxResults();
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        return delegate.getSentinelConnection();
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return delegate.translateExceptionIfPossible(ex);
+    }
+
+    private RedisConnection open(boolean cluster) {
+        if (!circuitBreaker.allowRequest()) {
+            throw new RedisConnectionFailureException("Redis circuit breaker is open");
+        }
+        try {
+            return cluster ? delegate.getClusterConnection() : delegate.getConnection();
+        } catch (RuntimeException e) {
+            if (RedisCircuitBreaker.isFailure(e)) {
+                circuitBreaker.recordFailure();
+            }
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends RedisConnection> T proxy(Class<T> type, RedisConnection target) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                target.close();
+                return null;
+            }
+            // 本地状态方法与管道/事务中排队的命令不经过 redis，不影响熔断器
+            boolean record = !LOCAL_METHODS.contains(name)
+                    && (FLUSH_METHODS.contains(name) || !(target.isPipelined() || target.isQueueing()));
+            if (!record) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }
+            try {
+                Object result = method.invoke(target, args);
+                circuitBreaker.recordSuccess();
+                return result;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getTargetException();
+                if (RedisCircuitBreaker.isFailure(cause)) {
+                    circuitBreaker.recordFailure();
+                }
+                throw cause;
+            }
+        });
+    }
+
+}
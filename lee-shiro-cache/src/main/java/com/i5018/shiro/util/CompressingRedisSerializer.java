@@ -0,0 +1,161 @@
+package com.i5018.shiro.util;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * LZ4 压缩包装，可包装 {@link ObjectRedisSerializer}、{@link FstSerializer} 等任意 value 序列化工具
+ * <p>
+ * 序列化结果不小于 {@code threshold} 字节且压缩后更小时才压缩，
+ * 压缩格式：4 字节魔数 + 4 字节原始长度（大端）+ LZ4 块；未压缩的值原样存储，
+ * 因此读取时可以同时兼容压缩与未压缩（包括启用压缩之前写入）的数据。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/12 9:30
+ */
+public class CompressingRedisSerializer implements RedisSerializer<Object> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressingRedisSerializer.class);
+
+    private static final byte[] MAGIC = {(byte) 0xC5, 'L', 'Z', '4'};
+
+    private static final int HEADER_LENGTH = MAGIC.length + 4;
+
+    /**
+     * redis 单个值的上限 512MB
+     */
+    private static final int MAX_LENGTH = 512 * 1024 * 1024;
+
+    /**
+     * LZ4 块格式的最大压缩比，长度扩展字节每个最多表示 255 字节，
+     * 头部记录的原始长度超过压缩数据长度的 255 倍时数据必然已损坏
+     */
+    private static final int MAX_RATIO = 255;
+
+    /**
+     * 默认压缩阈值（字节）
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+    private final LZ4Compressor compressor = FACTORY.fastCompressor();
+
+    private final LZ4SafeDecompressor decompressor = FACTORY.safeDecompressor();
+
+    /**
+     * 被包装的序列化工具
+     */
+    private final RedisSerializer<Object> delegate;
+
+    /**
+     * 压缩阈值（字节）
+     */
+    private final int threshold;
+
+    public CompressingRedisSerializer(RedisSerializer<Object> delegate) {
+        this(delegate, DEFAULT_THRESHOLD);
+    }
+
+    public CompressingRedisSerializer(RedisSerializer<Object> delegate, int threshold) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+    }
+
+    public RedisSerializer<Object> getDelegate() {
+        return delegate;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public byte[] serialize(Object o) throws SerializationException {
+        byte[] raw = delegate.serialize(o);
+        if (raw == null || raw.length < threshold) {
+            return raw;
+        }
+
+        byte[] compressed = new byte[HEADER_LENGTH + compressor.maxCompressedLength(raw.length)];
+        int length = compressor.compress(raw, 0, raw.length, compressed, HEADER_LENGTH);
+        if (HEADER_LENGTH + length >= raw.length) {
+            return raw;
+        }
+
+        System.arraycopy(MAGIC, 0, compressed, 0, MAGIC.length);
+        writeInt(compressed, MAGIC.length, raw.length);
+
+        byte[] result = new byte[HEADER_LENGTH + length];
+        System.arraycopy(compressed, 0, result, 0, result.length);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Compressed {} bytes to {} bytes", raw.length, result.length);
+        }
+        return result;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        return delegate.deserialize(isCompressed(bytes) ? decompress(bytes) : bytes);
+    }
+
+    /**
+     * 是否为本类压缩后的数据
+     */
+    public static boolean isCompressed(byte[] bytes) {
+        if (bytes == null || bytes.length <= HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] decompress(byte[] bytes) {
+        int length = readInt(bytes, MAGIC.length);
+        long maxLength = Math.min(MAX_LENGTH, (long) MAX_RATIO * (bytes.length - HEADER_LENGTH));
+        if (length <= 0 || length > maxLength) {
+            throw new SerializationException("Corrupted compressed payload, invalid length " + length
+                    + " for " + (bytes.length - HEADER_LENGTH) + " compressed bytes");
+        }
+        try {
+            byte[] raw = new byte[length];
+            int decompressed = decompressor.decompress(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, raw, 0);
+            if (decompressed != length) {
+                throw new SerializationException("Corrupted compressed payload, expected " + length
+                        + " bytes but got " + decompressed);
+            }
+            return raw;
+        } catch (LZ4Exception e) {
+            throw new SerializationException("Failed to decompress payload", e);
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+}
@@ -7,13 +7,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.util.ClassUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
+ * FST 序列化
+ * <p>
+ * 使用 {@link FSTConfiguration} 按线程缓存的输入/输出流，序列化时复用线程内的输出缓冲区，
+ * 只在最后按实际长度复制一次；反序列化直接读取字节数组，不再包装输入流。
+ * </p>
+ * <p>
+ * {@link #withShiroClasses()} 预先注册会话、用户、授权信息等常用类，序列化结果用编号代替类名，
+ * 体积更小；注册后的格式与未注册时不兼容，读写双方必须使用相同的注册顺序。
+ * 编号按注册顺序分配，缺少任何一个类都会使后续类的编号错位，因此类不全时直接失败，
+ * 不同类路径的服务共享数据时应使用 {@link #FstSerializer(Class[])} 显式注册相同的类。
+ * </p>
+ *
  * @author limk
  * @date 2020/9/1 17:25
  */
@@ -21,6 +34,17 @@ public class FstSerializer implements RedisSerializer<Object> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FstSerializer.class);
 
+    /**
+     * 预注册的类，按顺序分配编号，只能在末尾追加
+     */
+    private static final String[] SHIRO_CLASS_NAMES = {
+            "com.i5018.shiro.session.ShiroSession",
+            "com.i5018.shiro.authc.UserPrincipal",
+            "org.apache.shiro.authz.SimpleAuthorizationInfo",
+            "org.apache.shiro.subject.SimplePrincipalCollection",
+            "com.i5018.shiro.util.BaseByteSource"
+    };
+
     private final FSTConfiguration conf;
 
     public FstSerializer() {
@@ -28,6 +52,39 @@ public class FstSerializer implements RedisSerializer<Object> {
         this.conf = FSTConfiguration.createDefaultConfiguration();
     }
 
+    /**
+     * @param registeredClasses 预注册的类，读写双方必须一致
+     */
+    public FstSerializer(Class<?>... registeredClasses) {
+        this();
+        if (registeredClasses.length > 0) {
+            conf.registerClass(registeredClasses);
+        }
+    }
+
+    /**
+     * 预注册会话、用户、授权信息等常用类，需要 lee-shiro-core 与 lee-shiro-session 都在类路径中
+     *
+     * @throws IllegalStateException 预注册的类不存在
+     */
+    public static FstSerializer withShiroClasses() {
+        ClassLoader classLoader = FstSerializer.class.getClassLoader();
+        List<Class<?>> classes = new ArrayList<>(SHIRO_CLASS_NAMES.length);
+        List<String> missing = new ArrayList<>();
+        for (String className : SHIRO_CLASS_NAMES) {
+            if (ClassUtils.isPresent(className, classLoader)) {
+                classes.add(ClassUtils.resolveClassName(className, classLoader));
+            } else {
+                missing.add(className);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Classes " + missing + " not present, fst registration ids would shift; "
+                    + "register the same classes explicitly with new FstSerializer(Class...)");
+        }
+        return new FstSerializer(classes.toArray(new Class<?>[0]));
+    }
+
     @Override
     public byte[] serialize(Object o) throws SerializationException {
         if (o == null) {
@@ -39,21 +96,13 @@ public class FstSerializer implements RedisSerializer<Object> {
                     + "but received an object of type [" + o.getClass().getName() + "]");
         }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
-        FSTObjectOutput objectOutput = conf.getObjectOutput(out);
+        // 线程内复用的输出流，缓冲区随最大对象增长后不再重新分配
+        FSTObjectOutput objectOutput = conf.getObjectOutput();
         try {
             objectOutput.writeObject(o);
             return objectOutput.getCopyOfWrittenBuffer();
         } catch (Exception e) {
             throw new SerializationException("Failed to serialize object of type: " + o.getClass().getName(), e);
-        } finally {
-            try {
-                objectOutput.flush();
-                out.close();
-            } catch (Exception ex) {
-                LOGGER.error("Failed to serialize", ex);
-                ex.printStackTrace();
-            }
         }
     }
 
@@ -62,21 +111,39 @@ public class FstSerializer implements RedisSerializer<Object> {
         if (isEmpty(bytes)) {
             return null;
         }
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
-        FSTObjectInput objectInput = conf.getObjectInput(inputStream);
+        return read(conf.getObjectInput(bytes));
+    }
+
+    /**
+     * 从 ByteBuffer 的 position 到 limit 反序列化，不改变 position；
+     * 从 0 开始的堆内缓冲区直接读取底层数组；其他堆内缓冲区复制到 FST 线程内复用的输入缓冲区，不分配新数组；
+     * 堆外缓冲区复制一次
+     */
+    public Object deserialize(ByteBuffer buffer) throws SerializationException {
+        if (buffer == null || !buffer.hasRemaining()) {
+            return null;
+        }
+
+        int length = buffer.remaining();
+        if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0) {
+            return read(conf.getObjectInput(buffer.array(), length));
+        }
+        if (buffer.hasArray()) {
+            return read(conf.getObjectInputCopyFrom(buffer.array(), buffer.arrayOffset() + buffer.position(), length));
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.duplicate().get(bytes);
+        return read(conf.getObjectInput(bytes));
+    }
+
+    private Object read(FSTObjectInput objectInput) {
         try {
             return objectInput.readObject();
         } catch (Exception e) {
             throw new SerializationException(
                     "Failed to deserialize payload. " + "Is the byte array a result of corresponding serialization for "
                             + this.getClass().getSimpleName() + "?", e);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                LOGGER.error("Failed to deserialize", e);
-                e.printStackTrace();
-            }
         }
     }
 
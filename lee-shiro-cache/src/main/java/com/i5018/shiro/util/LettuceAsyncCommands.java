@@ -0,0 +1,127 @@
+package com.i5018.shiro.util;
+
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.util.ClassUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 基于 Lettuce 原生异步连接执行 redis 命令
+ * <p>
+ * 每个命令从连接工厂获取连接，命令完成后再关闭（共享连接时关闭不会断开原生连接）。
+ * Lettuce 是可选依赖，只有 {@link #supports(RedisConnectionFactory)} 返回 true 时才能创建实例。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/10 16:05
+ */
+public class LettuceAsyncCommands {
+
+    private static final Logger logger = LoggerFactory.getLogger(LettuceAsyncCommands.class);
+
+    private static final boolean LETTUCE_PRESENT = ClassUtils.isPresent("io.lettuce.core.RedisClient",
+            LettuceAsyncCommands.class.getClassLoader());
+
+    /**
+     * redis连接工厂
+     */
+    private final RedisConnectionFactory redisConnectionFactory;
+
+    public LettuceAsyncCommands(RedisConnectionFactory redisConnectionFactory) {
+        this.redisConnectionFactory = redisConnectionFactory;
+    }
+
+    /**
+     * 连接工厂是否为 Lettuce 连接工厂
+     */
+    public static boolean supports(RedisConnectionFactory redisConnectionFactory) {
+        return LETTUCE_PRESENT && redisConnectionFactory instanceof LettuceConnectionFactory;
+    }
+
+    public CompletableFuture<byte[]> get(byte[] key) {
+        return execute(commands -> commands.get(key));
+    }
+
+    public CompletableFuture<String> setEx(byte[] key, long seconds, byte[] value) {
+        return execute(commands -> commands.setex(key, seconds, value));
+    }
+
+    public CompletableFuture<Boolean> expire(byte[] key, long seconds) {
+        return execute(commands -> commands.expire(key, seconds));
+    }
+
+    public CompletableFuture<Long> del(byte[] key) {
+        return execute(commands -> commands.del(key));
+    }
+
+    /**
+     * 执行 Lua 脚本，优先 EVALSHA，脚本未加载时退回 EVAL
+     */
+    public <T> CompletableFuture<T> eval(LuaScript script, ReturnType returnType, byte[][] keys, byte[]... args) {
+        ScriptOutputType outputType = toOutputType(returnType);
+        CompletableFuture<T> future = execute(commands -> commands.evalsha(script.getSha1(), outputType, keys, args));
+        return future.handle((result, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(result);
+            }
+            if (LuaScript.isNoScript(e)) {
+                return this.<T>execute(commands -> commands.eval(
+                        new String(script.getScript(), StandardCharsets.UTF_8), outputType, keys, args));
+            }
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }).thenCompose(Function.identity());
+    }
+
+    private <T> CompletableFuture<T> execute(Function<RedisClusterAsyncCommands<byte[], byte[]>, RedisFuture<T>> command) {
+        RedisConnection redisConnection = redisConnectionFactory.getConnection();
+        CompletableFuture<T> future;
+        try {
+            RedisClusterAsyncCommands<byte[], byte[]> commands =
+                    ((LettuceConnection) redisConnection).getNativeConnection();
+            future = command.apply(commands).toCompletableFuture();
+        } catch (RuntimeException e) {
+            close(redisConnection);
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return future.whenComplete((result, e) -> close(redisConnection));
+    }
+
+    private static void close(RedisConnection redisConnection) {
+        try {
+            redisConnection.close();
+        } catch (Exception e) {
+            logger.error("Failed to close redis connection", e);
+        }
+    }
+
+    private static ScriptOutputType toOutputType(ReturnType returnType) {
+        switch (returnType) {
+            case BOOLEAN:
+                return ScriptOutputType.BOOLEAN;
+            case INTEGER:
+                return ScriptOutputType.INTEGER;
+            case MULTI:
+                return ScriptOutputType.MULTI;
+            case STATUS:
+                return ScriptOutputType.STATUS;
+            default:
+                return ScriptOutputType.VALUE;
+        }
+    }
+
+}
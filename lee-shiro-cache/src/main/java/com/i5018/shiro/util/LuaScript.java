@@ -0,0 +1,73 @@
+package com.i5018.shiro.util;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Lua 脚本，优先使用 EVALSHA，脚本未加载时退回 EVAL。
+ * 管道/事务中无法得知 EVALSHA 的执行结果，直接使用 EVAL。
+ *
+ * @author limk
+ * @date 2020/9/8 14:20
+ */
+public class LuaScript {
+
+    private final byte[] script;
+
+    private final String sha1;
+
+    public LuaScript(String script) {
+        this.script = script.getBytes(StandardCharsets.UTF_8);
+        this.sha1 = sha1(this.script);
+    }
+
+    public <T> T execute(RedisConnection redisConnection, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        if (redisConnection.isPipelined() || redisConnection.isQueueing()) {
+            return redisConnection.eval(script, returnType, numKeys, keysAndArgs);
+        }
+        try {
+            return redisConnection.evalSha(sha1, returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            return redisConnection.eval(script, returnType, numKeys, keysAndArgs);
+        }
+    }
+
+    public byte[] getScript() {
+        return script;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    static boolean isNoScript(Throwable e) {
+        while (e != null) {
+            if (e.getMessage() != null && e.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+    private static String sha1(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.i5018.shiro.util;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 带格式头的序列化工具，用于不停机切换序列化格式
+ * <p>
+ * 写入时在数据前加 2 字节的头（魔数 + 格式编号），读取时按格式编号分发到对应的序列化工具；
+ * 没有格式头的数据视为旧格式，交给 {@code legacy}（默认 JDK 序列化）处理。
+ * 旧格式数据不能以魔数开头，JDK 序列化数据总是以 0xAC 开头。
+ * 读取时 {@link FstSerializer} 直接从原数组跳过格式头读取，其余序列化工具需要复制去掉格式头后的数据。
+ * </p>
+ * <p>
+ * 切换步骤：先在所有节点部署 {@code writeFormat} 为 {@link #FORMAT_LEGACY} 的配置（只读新格式，仍写旧格式），
+ * 全部节点都能读取新格式后再把 {@code writeFormat} 改为新格式。开启 {@code rewriteLegacy} 时，
+ * 缓存和会话读到旧格式数据后会按新格式回写（保留剩余有效期），压缩过的旧数据不回写。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/16 10:15
+ */
+public class MultiplexingRedisSerializer implements RedisSerializer<Object> {
+
+    private static final byte MAGIC = (byte) 0xE7;
+
+    private static final int HEADER_LENGTH = 2;
+
+    /**
+     * 旧格式，不写格式头
+     */
+    public static final int FORMAT_LEGACY = 0;
+
+    /**
+     * JDK 序列化
+     */
+    public static final int FORMAT_JDK = 1;
+
+    /**
+     * FST 序列化
+     */
+    public static final int FORMAT_FST = 2;
+
+    /**
+     * 会话专用编码，需要通过 {@link #setFormat(int, RedisSerializer)} 注册
+     */
+    public static final int FORMAT_SESSION = 3;
+
+    /**
+     * 旧值与读取时一致才回写，保留剩余有效期
+     */
+    private static final LuaScript REWRITE = new LuaScript(
+            "if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end "
+                    + "local ttl = redis.call('PTTL', KEYS[1]) "
+                    + "if ttl > 0 then redis.call('SET', KEYS[1], ARGV[2], 'PX', ttl) "
+                    + "else redis.call('SET', KEYS[1], ARGV[2]) end "
+                    + "return 1");
+
+    /**
+     * 没有格式头的数据的序列化工具
+     */
+    private final RedisSerializer<Object> legacy;
+
+    /**
+     * 格式编号到序列化工具
+     */
+    private final RedisSerializer<?>[] formats = new RedisSerializer<?>[256];
+
+    /**
+     * 写入使用的格式
+     */
+    private int writeFormat = FORMAT_LEGACY;
+
+    /**
+     * 读到旧格式数据时是否按新格式回写
+     */
+    private boolean rewriteLegacy = false;
+
+    /**
+     * 旧格式为 JDK 序列化，注册 JDK 与 FST 格式
+     */
+    public MultiplexingRedisSerializer() {
+        this(new ObjectRedisSerializer());
+        setFormat(FORMAT_JDK, legacy);
+        setFormat(FORMAT_FST, new FstSerializer());
+    }
+
+    public MultiplexingRedisSerializer(RedisSerializer<Object> legacy) {
+        this.legacy = legacy;
+    }
+
+    @Override
+    public byte[] serialize(Object o) throws SerializationException {
+        if (writeFormat == FORMAT_LEGACY) {
+            return legacy.serialize(o);
+        }
+        if (o == null) {
+            return new byte[0];
+        }
+
+        byte[] payload = serializer(writeFormat).serialize(o);
+        if (payload == null) {
+            return null;
+        }
+        byte[] bytes = new byte[payload.length + HEADER_LENGTH];
+        bytes[0] = MAGIC;
+        bytes[1] = (byte) writeFormat;
+        System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (!hasHeader(bytes)) {
+            return legacy.deserialize(bytes);
+        }
+        RedisSerializer<Object> serializer = serializer(bytes[1] & 0xFF);
+        if (serializer instanceof FstSerializer) {
+            return ((FstSerializer) serializer).deserialize(
+                    ByteBuffer.wrap(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH));
+        }
+        return serializer.deserialize(Arrays.copyOfRange(bytes, HEADER_LENGTH, bytes.length));
+    }
+
+    /**
+     * 是否需要按新格式回写：开启回写、写入格式不是旧格式，且数据没有格式头
+     */
+    public boolean isRewriteRequired(byte[] bytes) {
+        return rewriteLegacy && writeFormat != FORMAT_LEGACY && bytes != null && bytes.length > 0 && !hasHeader(bytes);
+    }
+
+    /**
+     * 按序列化工具判断读到的数据是否需要回写，外层为压缩时只检查未压缩的数据
+     */
+    public static boolean isRewriteRequired(RedisSerializer<?> serializer, byte[] bytes) {
+        if (serializer instanceof CompressingRedisSerializer) {
+            if (CompressingRedisSerializer.isCompressed(bytes)) {
+                return false;
+            }
+            serializer = ((CompressingRedisSerializer) serializer).getDelegate();
+        }
+        return serializer instanceof MultiplexingRedisSerializer
+                && ((MultiplexingRedisSerializer) serializer).isRewriteRequired(bytes);
+    }
+
+    /**
+     * 值仍为 {@code previous} 时替换为 {@code value}，保留剩余有效期
+     *
+     * @return 是否已替换
+     */
+    public static boolean rewrite(RedisConnection redisConnection, byte[] key, byte[] previous, byte[] value) {
+        Long result = REWRITE.execute(redisConnection, ReturnType.INTEGER, 1, key, previous, value);
+        return result != null && result == 1L;
+    }
+
+    public void setFormat(int format, RedisSerializer<Object> serializer) {
+        checkFormat(format);
+        formats[format] = serializer;
+    }
+
+    public int getWriteFormat() {
+        return writeFormat;
+    }
+
+    public void setWriteFormat(int writeFormat) {
+        if (writeFormat != FORMAT_LEGACY) {
+            serializer(writeFormat);
+        }
+        this.writeFormat = writeFormat;
+    }
+
+    public boolean isRewriteLegacy() {
+        return rewriteLegacy;
+    }
+
+    public void setRewriteLegacy(boolean rewriteLegacy) {
+        this.rewriteLegacy = rewriteLegacy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<Object> serializer(int format) {
+        checkFormat(format);
+        RedisSerializer<Object> serializer = (RedisSerializer<Object>) formats[format];
+        if (serializer == null) {
+            throw new SerializationException("Unknown serialization format " + format);
+        }
+        return serializer;
+    }
+
+    private static void checkFormat(int format) {
+        if (format <= FORMAT_LEGACY || format > 0xFF) {
+            throw new IllegalArgumentException("format must be between 1 and 255");
+        }
+    }
+
+    private static boolean hasHeader(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+}
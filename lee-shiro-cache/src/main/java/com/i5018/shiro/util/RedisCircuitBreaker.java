@@ -0,0 +1,148 @@
+package com.i5018.shiro.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * redis 熔断器
+ * <p>
+ * 连续失败达到 {@code failureThreshold} 次后打开，打开期间直接拒绝请求；
+ * 经过 {@code openDuration} 后放行一个探测请求（半开），探测成功则关闭，失败则重新打开。
+ * 只有连接失败、超时等 redis 不可用的异常才计为失败，命令错误（如 NOSCRIPT）不计入。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/13 10:05
+ */
+public class RedisCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    public enum State {
+
+        /**
+         * 正常
+         */
+        CLOSED,
+
+        /**
+         * 熔断，拒绝请求
+         */
+        OPEN,
+
+        /**
+         * 探测中
+         */
+        HALF_OPEN
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    /**
+     * 最近一次打开或开始探测的时间
+     */
+    private volatile long transitionAt;
+
+    /**
+     * 连续失败阈值
+     */
+    private int failureThreshold = 5;
+
+    /**
+     * 打开后到下次探测的间隔
+     */
+    private Duration openDuration = Duration.ofSeconds(5);
+
+    /**
+     * 是否放行请求，打开期间到达探测时间时当前请求作为探测请求放行
+     */
+    public boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - transitionAt < openDuration.toMillis()) {
+            return false;
+        }
+        // 打开时间已到，或上一个探测请求迟迟没有结果，放行一个新的探测请求
+        if (state.compareAndSet(current, State.HALF_OPEN)) {
+            transitionAt = now;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Redis circuit breaker half open, probing");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public void recordSuccess() {
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+        if (state.get() != State.CLOSED && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            logger.info("Redis circuit breaker closed, redis recovered");
+        }
+    }
+
+    public void recordFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        State current = state.get();
+        if (current == State.HALF_OPEN || (current == State.CLOSED && failures >= failureThreshold)) {
+            if (state.compareAndSet(current, State.OPEN)) {
+                transitionAt = System.currentTimeMillis();
+                logger.warn("Redis circuit breaker opened after {} consecutive failures", failures);
+            }
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean isOpen() {
+        return state.get() != State.CLOSED;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    public void setOpenDuration(Duration openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * 是否为 redis 不可用引起的异常
+     */
+    public static boolean isFailure(Throwable e) {
+        while (e != null) {
+            if (e instanceof DataAccessResourceFailureException || e instanceof QueryTimeoutException
+                    || e instanceof IOException || e instanceof TimeoutException) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+}
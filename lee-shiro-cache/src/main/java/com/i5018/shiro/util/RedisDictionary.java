@@ -0,0 +1,443 @@
+package com.i5018.shiro.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 字符串字典，把角色、权限等重复出现的字符串映射为整数编号
+ * <p>
+ * 字典保存在 redis 的两个 hash 中（字符串到编号、编号到字符串），新字符串的编号由 Lua 脚本
+ * 从独立的计数器 key 原子分配，编号从 1 开始递增，分配后不会变更或回收，所有节点共享同一套编号；
+ * 本地缓存已知的映射，只有首次出现的字符串或本地未知的编号才访问 redis。
+ * 三个 key 使用 {@code {name}} 哈希标签，在 Redis Cluster 中位于同一个槽，脚本不会报 CROSSSLOT。
+ * </p>
+ * <p>
+ * 字典 key 不设置有效期，不能早于引用它的会话和缓存被删除。redis 的 maxmemory-policy 为
+ * allkeys-lru/allkeys-lfu/allkeys-random 时字典 key 可能被淘汰，之后所有引用它的会话和授权缓存都无法解析，
+ * 用户会被全部登出；应使用 noeviction 或 volatile-* 策略（字典 key 没有有效期，不会被 volatile-* 淘汰），
+ * 或者把字典放在单独的、不淘汰的 redis 实例上。
+ * </p>
+ * <p>
+ * 字典在 redis 中带有代号（generation），首次分配编号时以 SET NX 写入随机值，计数器丢失且编号表为空
+ * （如 FLUSHDB 或淘汰后重新分配）时更换代号。编号集合随代号一起写入数据，读取时代号与 redis 中不一致则
+ * 抛出 {@link SerializationException}，避免重新分配后复用的编号被解析为其他字符串；本地缓存的代号与 redis
+ * 不一致时丢弃本地映射并重新加载，写入时也按 {@link #setGenerationCheckInterval(long)} 定期校验代号。
+ * </p>
+ * <p>
+ * 编号集合排序后按差值写为 varint，写入失败（如 redis 不可用）时由调用方退回字符串写法；
+ * 读取时编号无法解析则抛出 {@link SerializationException}。
+ * </p>
+ * <p>
+ * 字典总是使用独立连接，不使用 {@link RedisRequestContext} 的共享连接：序列化可能发生在调用方打开的管道中，
+ * 管道中的脚本与读取不会立即返回结果。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/16 14:20
+ */
+public class RedisDictionary {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisDictionary.class);
+
+    private static final String DEFAULT_KEY_PREFIX = "shiro:dictionary:";
+
+    /**
+     * KEYS[1] 字符串到编号 KEYS[2] 编号到字符串 KEYS[3] 编号计数器 KEYS[4] 代号;
+     * ARGV[1] 新代号（代号不存在时使用） ARGV[2..] 需要分配编号的字符串; 返回代号与各字符串的编号
+     * <p>
+     * 计数器不存在（首次使用或被误删）时从已有的最大编号开始，避免与已分配的编号重复；
+     * 已有编号也不存在时编号会从 1 重新分配，同时更换代号，使旧数据中的编号不再被解析
+     * </p>
+     */
+    private static final LuaScript ASSIGN = new LuaScript(
+            "if redis.call('EXISTS', KEYS[3]) == 0 then "
+                    + "local max = 0 "
+                    + "for _, existing in ipairs(redis.call('HKEYS', KEYS[2])) do "
+                    + "max = math.max(max, tonumber(existing)) end "
+                    + "redis.call('SET', KEYS[3], max) "
+                    + "if max == 0 then redis.call('SET', KEYS[4], ARGV[1]) end "
+                    + "end "
+                    + "redis.call('SET', KEYS[4], ARGV[1], 'NX') "
+                    + "local result = {redis.call('GET', KEYS[4])} "
+                    + "for i = 2, #ARGV do "
+                    + "local id = redis.call('HGET', KEYS[1], ARGV[i]) "
+                    + "if not id then "
+                    + "id = redis.call('INCR', KEYS[3]) "
+                    + "redis.call('HSET', KEYS[1], ARGV[i], id) "
+                    + "redis.call('HSET', KEYS[2], id, ARGV[i]) "
+                    + "end "
+                    + "result[i] = tonumber(id) "
+                    + "end "
+                    + "return result");
+
+    /**
+     * KEYS[1] 编号到字符串 KEYS[2] 代号; ARGV 需要读取的编号; 返回代号与各编号对应的字符串
+     */
+    private static final LuaScript FETCH = new LuaScript(
+            "return {redis.call('GET', KEYS[2]), unpack(redis.call('HMGET', KEYS[1], unpack(ARGV)))}");
+
+    private final RedisConnectionFactory redisConnectionFactory;
+
+    /**
+     * 字符串到编号的 hash key
+     */
+    private final byte[] idsKey;
+
+    /**
+     * 编号到字符串的 hash key
+     */
+    private final byte[] valuesKey;
+
+    /**
+     * 编号计数器 key
+     */
+    private final byte[] sequenceKey;
+
+    /**
+     * 代号 key
+     */
+    private final byte[] generationKey;
+
+    /**
+     * 写入时校验代号的间隔（毫秒），小于等于 0 时不校验，只在读取到其他代号的数据或分配编号时更新
+     */
+    private long generationCheckInterval = 60_000L;
+
+    /**
+     * 当前代号的本地映射，尚未访问 redis 时为空
+     */
+    private volatile State state;
+
+    public RedisDictionary(RedisConnectionFactory redisConnectionFactory, String name) {
+        this.redisConnectionFactory = redisConnectionFactory;
+        String prefix = DEFAULT_KEY_PREFIX + "{" + name + "}";
+        this.idsKey = (prefix + ":ids").getBytes(StandardCharsets.UTF_8);
+        this.valuesKey = (prefix + ":values").getBytes(StandardCharsets.UTF_8);
+        this.sequenceKey = (prefix + ":sequence").getBytes(StandardCharsets.UTF_8);
+        this.generationKey = (prefix + ":generation").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 加载 redis 中已有的全部映射，可在启动时调用以减少首次读取的往返
+     */
+    public void load() {
+        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
+            byte[] generation = redisConnection.get(generationKey);
+            if (generation == null) {
+                return;
+            }
+            Map<byte[], byte[]> entries = redisConnection.hGetAll(valuesKey);
+            if (!Arrays.equals(generation, redisConnection.get(generationKey))) {
+                // 加载期间字典被重建，等待首次读写时再加载
+                return;
+            }
+            State loaded = state(parseGeneration(generation));
+            if (entries != null) {
+                entries.forEach((id, value) -> loaded.cache(Integer.parseInt(new String(id, StandardCharsets.UTF_8)),
+                        new String(value, StandardCharsets.UTF_8)));
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loaded {} dictionary entries of generation {}", loaded.values.size(), loaded.generation);
+            }
+        } catch (Exception e) {
+            logger.error("load dictionary error. ", e);
+        }
+    }
+
+    /**
+     * 字符串转换为编号，本地未知的字符串一次性在 redis 中分配
+     *
+     * @return 当前代号以及与 {@code strings} 迭代顺序一致的编号，redis 不可用时返回 null
+     */
+    public Ids encode(Collection<String> strings) {
+        // 分配时代号发生变化，本地命中的编号已失效，按新代号重试一次
+        for (int attempt = 0; attempt < 2; attempt++) {
+            State current = checkGeneration(this.state);
+            List<String> missing = null;
+            for (String string : strings) {
+                if (current == null || !current.ids.containsKey(string)) {
+                    if (missing == null) {
+                        missing = new ArrayList<>();
+                    }
+                    missing.add(string);
+                }
+            }
+            if (missing != null) {
+                current = assign(missing);
+                if (current == null) {
+                    return null;
+                }
+            }
+
+            int[] result = new int[strings.size()];
+            int i = 0;
+            for (String string : strings) {
+                Integer id = current.ids.get(string);
+                if (id == null) {
+                    break;
+                }
+                result[i++] = id;
+            }
+            if (i == result.length) {
+                return new Ids(current.generation, result);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 编号转换为字符串，本地未知的编号或其他代号的编号一次性从 redis 读取
+     *
+     * @throws SerializationException 代号与 redis 中不一致、编号在字典中不存在或 redis 不可用
+     */
+    public Set<String> decode(Ids encoded) {
+        State current = this.state;
+        List<Integer> missing = null;
+        for (int id : encoded.ids) {
+            if (current == null || current.generation != encoded.generation || !current.values.containsKey(id)) {
+                if (missing == null) {
+                    missing = new ArrayList<>();
+                }
+                missing.add(id);
+            }
+        }
+        if (missing != null) {
+            current = fetch(missing, encoded.generation);
+        }
+
+        Set<String> result = new LinkedHashSet<>((int) (encoded.ids.length / 0.75f) + 1);
+        for (int id : encoded.ids) {
+            String value = current.values.get(id);
+            if (value == null) {
+                throw new SerializationException("Unknown dictionary id " + id);
+            }
+            result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * 写入编号集合：代号、数量、排序后的差值
+     */
+    public static void writeIds(BinaryOutput out, Ids encoded) {
+        int[] sorted = encoded.ids.clone();
+        Arrays.sort(sorted);
+        out.writeLong(encoded.generation);
+        out.writeVarInt(sorted.length);
+        int previous = 0;
+        for (int id : sorted) {
+            out.writeVarInt(id - previous);
+            previous = id;
+        }
+    }
+
+    /**
+     * 读取 {@link #writeIds(BinaryOutput, Ids)} 写入的编号集合，数量超过剩余字节数时抛出 {@link IllegalStateException}
+     */
+    public static Ids readIds(BinaryInput in) {
+        long generation = in.readLong();
+        int[] encoded = new int[in.readCount()];
+        int previous = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            previous += in.readVarInt();
+            encoded[i] = previous;
+        }
+        return new Ids(generation, encoded);
+    }
+
+    public int size() {
+        State current = this.state;
+        return current != null ? current.values.size() : 0;
+    }
+
+    public void setGenerationCheckInterval(long generationCheckInterval) {
+        this.generationCheckInterval = generationCheckInterval;
+    }
+
+    /**
+     * 到达校验间隔时读取 redis 中的代号，代号不存在时丢弃本地映射，由分配编号时重新生成；
+     * redis 不可用时继续使用本地映射
+     */
+    private State checkGeneration(State current) {
+        if (current == null || generationCheckInterval <= 0) {
+            return current;
+        }
+        long now = System.currentTimeMillis();
+        if (now - current.checkedAt < generationCheckInterval) {
+            return current;
+        }
+        current.checkedAt = now;
+
+        byte[] generation;
+        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
+            generation = redisConnection.get(generationKey);
+        } catch (Exception e) {
+            logger.error("check dictionary generation error. ", e);
+            return current;
+        }
+        if (generation == null) {
+            drop(current);
+            return null;
+        }
+        return state(parseGeneration(generation));
+    }
+
+    private State assign(List<String> missing) {
+        byte[][] args = new byte[missing.size() + 5][];
+        args[0] = idsKey;
+        args[1] = valuesKey;
+        args[2] = sequenceKey;
+        args[3] = generationKey;
+        args[4] = String.valueOf(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE)).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < missing.size(); i++) {
+            args[i + 5] = missing.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
+            List<Object> assigned = ASSIGN.execute(redisConnection, ReturnType.MULTI, 4, args);
+            if (assigned == null || assigned.size() != missing.size() + 1 || !(assigned.get(0) instanceof byte[])) {
+                logger.error("assign dictionary ids error. unexpected result: {}", assigned);
+                return null;
+            }
+            State current = state(parseGeneration((byte[]) assigned.get(0)));
+            for (int i = 0; i < missing.size(); i++) {
+                current.cache(((Number) assigned.get(i + 1)).intValue(), missing.get(i));
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Assigned {} dictionary ids", missing.size());
+            }
+            return current;
+        } catch (Exception e) {
+            logger.error("assign dictionary ids error. ", e);
+            return null;
+        }
+    }
+
+    private State fetch(List<Integer> missing, long expectedGeneration) {
+        byte[][] args = new byte[missing.size() + 2][];
+        args[0] = valuesKey;
+        args[1] = generationKey;
+        for (int i = 0; i < missing.size(); i++) {
+            args[i + 2] = String.valueOf(missing.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+
+        List<Object> fetched;
+        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
+            fetched = FETCH.execute(redisConnection, ReturnType.MULTI, 2, args);
+        } catch (Exception e) {
+            throw new SerializationException("Failed to load dictionary ids " + missing, e);
+        }
+        if (fetched == null || fetched.isEmpty() || !(fetched.get(0) instanceof byte[])) {
+            drop(this.state);
+            throw new SerializationException("Dictionary generation " + expectedGeneration + " no longer exists");
+        }
+
+        State current = state(parseGeneration((byte[]) fetched.get(0)));
+        if (current.generation != expectedGeneration) {
+            throw new SerializationException("Dictionary generation mismatch, payload generation "
+                    + expectedGeneration + ", current generation " + current.generation);
+        }
+        for (int i = 0; i < missing.size() && i + 1 < fetched.size(); i++) {
+            Object value = fetched.get(i + 1);
+            if (value instanceof byte[]) {
+                current.cache(missing.get(i), new String((byte[]) value, StandardCharsets.UTF_8));
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 返回指定代号的本地映射，与当前代号不一致时丢弃当前映射
+     */
+    private synchronized State state(long generation) {
+        State current = this.state;
+        if (current == null || current.generation != generation) {
+            if (current != null) {
+                logger.warn("Dictionary generation changed from {} to {}, dropping {} local entries",
+                        current.generation, generation, current.values.size());
+            }
+            current = new State(generation);
+            this.state = current;
+        }
+        return current;
+    }
+
+    private synchronized void drop(State expected) {
+        if (expected != null && this.state == expected) {
+            logger.warn("Dictionary generation {} no longer exists, dropping {} local entries",
+                    expected.generation, expected.values.size());
+            this.state = null;
+        }
+    }
+
+    private static long parseGeneration(byte[] generation) {
+        return Long.parseLong(new String(generation, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 字典编号集合以及分配这些编号时的代号
+     */
+    public static final class Ids {
+
+        private final long generation;
+
+        private final int[] ids;
+
+        public Ids(long generation, int[] ids) {
+            this.generation = generation;
+            this.ids = ids;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public int[] getIds() {
+            return ids;
+        }
+
+    }
+
+    /**
+     * 某个代号下的本地映射
+     */
+    private static final class State {
+
+        private final long generation;
+
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+        private final Map<Integer, String> values = new ConcurrentHashMap<>();
+
+        /**
+         * 上次校验代号的时间
+         */
+        private volatile long checkedAt = System.currentTimeMillis();
+
+        private State(long generation) {
+            this.generation = generation;
+        }
+
+        private void cache(int id, String value) {
+            values.put(id, value);
+            ids.put(value, id);
+        }
+
+    }
+
+}
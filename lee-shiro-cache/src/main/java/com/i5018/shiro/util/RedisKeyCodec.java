@@ -0,0 +1,129 @@
+package com.i5018.shiro.util;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * redis key 编码
+ * <p>
+ * 前缀只编码一次，key 直接编码到按最终长度分配的数组中，不再拼接中间字符串；
+ * 非 ASCII 的 key 先编码到线程内复用的缓冲区再一次性拷贝。
+ * 同时缓存少量热点 key（如用户名、会话ID）的编码结果，缓存满后整体清空。
+ * 只有 key 序列化工具为 UTF-8 字符串序列化时才能使用，否则调用方应退回原序列化方式，
+ * 见 {@link #supports(RedisSerializer)}。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/10 9:40
+ */
+public class RedisKeyCodec {
+
+    private static final String PROBE = "é:中";
+
+    private static final ThreadLocal<CharsetEncoder> ENCODER =
+            ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder());
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
+    /**
+     * 编码后的前缀
+     */
+    private final byte[] prefix;
+
+    /**
+     * 热点 key 缓存最大条目数，0 表示不缓存
+     */
+    private final int hotKeyCacheSize;
+
+    private final Map<String, byte[]> hotKeys;
+
+    public RedisKeyCodec(String prefix, int hotKeyCacheSize) {
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        this.hotKeyCacheSize = hotKeyCacheSize;
+        this.hotKeys = hotKeyCacheSize > 0 ? new ConcurrentHashMap<>(hotKeyCacheSize) : null;
+    }
+
+    /**
+     * key 序列化工具是否与 UTF-8 编码一致
+     */
+    public static boolean supports(RedisSerializer<String> serializerKey) {
+        return serializerKey != null
+                && Arrays.equals(serializerKey.serialize(PROBE), PROBE.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 编码 prefix + key，返回的数组可能被共享，调用方不能修改
+     */
+    public byte[] encode(Object key) {
+        String str = String.valueOf(key);
+        if (hotKeys == null) {
+            return encode(str);
+        }
+
+        byte[] bytes = hotKeys.get(str);
+        if (bytes == null) {
+            bytes = encode(str);
+            if (hotKeys.size() >= hotKeyCacheSize) {
+                hotKeys.clear();
+            }
+            hotKeys.put(str, bytes);
+        }
+        return bytes;
+    }
+
+    public byte[] getPrefix() {
+        return prefix.clone();
+    }
+
+    private byte[] encode(String key) {
+        int length = key.length();
+        byte[] result = new byte[prefix.length + length];
+        System.arraycopy(prefix, 0, result, 0, prefix.length);
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                return encodeNonAscii(key);
+            }
+            result[prefix.length + i] = (byte) c;
+        }
+        return result;
+    }
+
+    private byte[] encodeNonAscii(String key) {
+        CharsetEncoder encoder = ENCODER.get().reset();
+        ByteBuffer buffer = BUFFER.get();
+        int required = (int) (key.length() * (double) encoder.maxBytesPerChar());
+        if (buffer.capacity() < required) {
+            buffer = ByteBuffer.allocate(required);
+            BUFFER.set(buffer);
+        }
+        buffer.clear();
+
+        CoderResult result = encoder.encode(CharBuffer.wrap(key), buffer, true);
+        if (!result.isUnderflow()) {
+            return concat(key.getBytes(StandardCharsets.UTF_8));
+        }
+        encoder.flush(buffer);
+
+        byte[] bytes = new byte[prefix.length + buffer.position()];
+        System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+        System.arraycopy(buffer.array(), 0, bytes, prefix.length, buffer.position());
+        return bytes;
+    }
+
+    private byte[] concat(byte[] key) {
+        byte[] bytes = new byte[prefix.length + key.length];
+        System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+        System.arraycopy(key, 0, bytes, prefix.length, key.length);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,286 @@
+package com.i5018.shiro.util;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisZSetCommands.Tuple;
+import org.springframework.data.redis.connection.ReturnType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * key 成员索引
+ * <p>
+ * 使用一个有序集合记录同一命名空间下的所有 key，分值为过期时间（毫秒时间戳），
+ * 写入/删除通过 Lua 脚本与数据 key 原子更新。已过期的成员在统计或遍历时惰性清理，
+ * 因此数量统计为 ZCOUNT，遍历只涉及索引内的 key，不再扫描整个 keyspace。
+ * 脚本同时操作数据 key 与索引 key，仅适用于非集群部署。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/8 14:45
+ */
+public class RedisKeyIndex {
+
+    /**
+     * KEYS[1] 数据key KEYS[2] 索引key; ARGV[1] 有效期(秒) ARGV[2] 值 ARGV[3] 过期时间戳(毫秒) ARGV[4] 是否返回旧值
+     */
+    private static final LuaScript PUT = new LuaScript(
+            "local old = false "
+                    + "if ARGV[4] == '1' then old = redis.call('GET', KEYS[1]) end "
+                    + "redis.call('SETEX', KEYS[1], ARGV[1], ARGV[2]) "
+                    + "redis.call('ZADD', KEYS[2], ARGV[3], KEYS[1]) "
+                    + "if redis.call('PTTL', KEYS[2]) < tonumber(ARGV[1]) * 1000 then "
+                    + "redis.call('PEXPIRE', KEYS[2], tonumber(ARGV[1]) * 1000) end "
+                    + "return old");
+
+    /**
+     * KEYS[1] 数据key KEYS[2] 索引key; ARGV[1] 有效期(秒) ARGV[2] 过期时间戳(毫秒)
+     */
+    private static final LuaScript EXPIRE = new LuaScript(
+            "if redis.call('EXPIRE', KEYS[1], ARGV[1]) == 1 then "
+                    + "redis.call('ZADD', KEYS[2], ARGV[2], KEYS[1]) "
+                    + "if redis.call('PTTL', KEYS[2]) < tonumber(ARGV[1]) * 1000 then "
+                    + "redis.call('PEXPIRE', KEYS[2], tonumber(ARGV[1]) * 1000) end "
+                    + "return 1 end "
+                    + "return 0");
+
+    /**
+     * KEYS[1] 数据key KEYS[2] 索引key; ARGV[1] 有效期(秒) ARGV[2] 剩余有效期阈值(毫秒) ARGV[3] 过期时间戳(毫秒)
+     */
+    private static final LuaScript GET_AND_TOUCH = new LuaScript(
+            "local v = redis.call('GET', KEYS[1]) "
+                    + "if v and redis.call('PTTL', KEYS[1]) < tonumber(ARGV[2]) then "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "redis.call('ZADD', KEYS[2], ARGV[3], KEYS[1]) "
+                    + "if redis.call('PTTL', KEYS[2]) < tonumber(ARGV[1]) * 1000 then "
+                    + "redis.call('PEXPIRE', KEYS[2], tonumber(ARGV[1]) * 1000) end "
+                    + "end "
+                    + "return v");
+
+    /**
+     * KEYS[1] 数据key KEYS[2] 索引key
+     */
+    private static final LuaScript GET_AND_DELETE = new LuaScript(
+            "local old = redis.call('GET', KEYS[1]) "
+                    + "redis.call('ZREM', KEYS[2], KEYS[1]) "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "return old");
+
+    /**
+     * KEYS[1] 数据key KEYS[2] 索引key
+     */
+    private static final LuaScript DELETE = new LuaScript(
+            "redis.call('ZREM', KEYS[2], KEYS[1]) "
+                    + "return redis.call('DEL', KEYS[1])");
+
+    /**
+     * KEYS[1..n-1] 数据key KEYS[n] 索引key
+     */
+    private static final LuaScript DELETE_ALL = new LuaScript(
+            "local n = 0 "
+                    + "for i = 1, #KEYS - 1 do "
+                    + "redis.call('ZREM', KEYS[#KEYS], KEYS[i]) "
+                    + "n = n + redis.call('UNLINK', KEYS[i]) end "
+                    + "return n");
+
+    private static final byte[] TRUE = {'1'};
+
+    private static final byte[] FALSE = {'0'};
+
+    /**
+     * 索引key
+     */
+    private final byte[] indexKey;
+
+    public RedisKeyIndex(byte[] indexKey) {
+        this.indexKey = indexKey;
+    }
+
+    public byte[] getIndexKey() {
+        return indexKey;
+    }
+
+    /**
+     * SETEX 并登记到索引
+     */
+    public void put(RedisConnection redisConnection, byte[] key, long seconds, byte[] value) {
+        PUT.execute(redisConnection, ReturnType.VALUE, 2, key, indexKey,
+                toBytes(seconds), value, toBytes(expireAt(seconds)), FALSE);
+    }
+
+    /**
+     * SETEX 并登记到索引，同时返回旧值
+     */
+    public byte[] getAndPut(RedisConnection redisConnection, byte[] key, long seconds, byte[] value) {
+        return PUT.execute(redisConnection, ReturnType.VALUE, 2, key, indexKey,
+                toBytes(seconds), value, toBytes(expireAt(seconds)), TRUE);
+    }
+
+    /**
+     * EXPIRE 并更新索引中的过期时间
+     */
+    public boolean expire(RedisConnection redisConnection, byte[] key, long seconds) {
+        Long result = EXPIRE.execute(redisConnection, ReturnType.INTEGER, 2, key, indexKey,
+                toBytes(seconds), toBytes(expireAt(seconds)));
+        return result != null && result == 1L;
+    }
+
+    /**
+     * GET，剩余有效期低于阈值时 EXPIRE 并更新索引中的过期时间
+     */
+    public byte[] getAndTouch(RedisConnection redisConnection, byte[] key, long seconds, long thresholdMillis) {
+        return GET_AND_TOUCH.execute(redisConnection, ReturnType.VALUE, 2, key, indexKey,
+                toBytes(seconds), toBytes(thresholdMillis), toBytes(expireAt(seconds)));
+    }
+
+    /**
+     * DEL 并从索引中移除
+     */
+    public long delete(RedisConnection redisConnection, byte[] key) {
+        Long result = DELETE.execute(redisConnection, ReturnType.INTEGER, 2, key, indexKey);
+        return result == null ? 0L : result;
+    }
+
+    /**
+     * DEL 并从索引中移除，同时返回旧值
+     */
+    public byte[] getAndDelete(RedisConnection redisConnection, byte[] key) {
+        return GET_AND_DELETE.execute(redisConnection, ReturnType.VALUE, 2, key, indexKey);
+    }
+
+    /**
+     * 异步 SETEX 并登记到索引
+     */
+    public CompletableFuture<Void> putAsync(LettuceAsyncCommands async, byte[] key, long seconds, byte[] value) {
+        return async.eval(PUT, ReturnType.VALUE, new byte[][]{key, indexKey},
+                toBytes(seconds), value, toBytes(expireAt(seconds)), FALSE).thenApply(result -> null);
+    }
+
+    /**
+     * 异步 EXPIRE 并更新索引中的过期时间
+     */
+    public CompletableFuture<Boolean> expireAsync(LettuceAsyncCommands async, byte[] key, long seconds) {
+        return async.<Long>eval(EXPIRE, ReturnType.INTEGER, new byte[][]{key, indexKey},
+                toBytes(seconds), toBytes(expireAt(seconds))).thenApply(result -> result != null && result == 1L);
+    }
+
+    /**
+     * 异步 GET，剩余有效期低于阈值时 EXPIRE 并更新索引中的过期时间
+     */
+    public CompletableFuture<byte[]> getAndTouchAsync(LettuceAsyncCommands async, byte[] key, long seconds,
+                                                      long thresholdMillis) {
+        return async.eval(GET_AND_TOUCH, ReturnType.VALUE, new byte[][]{key, indexKey},
+                toBytes(seconds), toBytes(thresholdMillis), toBytes(expireAt(seconds)));
+    }
+
+    /**
+     * 异步 DEL 并从索引中移除
+     */
+    public CompletableFuture<Void> deleteAsync(LettuceAsyncCommands async, byte[] key) {
+        return async.eval(DELETE, ReturnType.INTEGER, new byte[][]{key, indexKey}).thenApply(result -> null);
+    }
+
+    /**
+     * 批量 UNLINK 并从索引中移除
+     */
+    public long deleteAll(RedisConnection redisConnection, byte[][] keys) {
+        byte[][] keysAndIndex = new byte[keys.length + 1][];
+        System.arraycopy(keys, 0, keysAndIndex, 0, keys.length);
+        keysAndIndex[keys.length] = indexKey;
+        Long result = DELETE_ALL.execute(redisConnection, ReturnType.INTEGER, keysAndIndex.length, keysAndIndex);
+        return result == null ? 0L : result;
+    }
+
+    /**
+     * 未过期成员数量
+     */
+    public long count(RedisConnection redisConnection) {
+        long now = System.currentTimeMillis();
+        prune(redisConnection, now);
+        Long count = redisConnection.zCount(indexKey, now, Double.POSITIVE_INFINITY);
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * 分页遍历未过期成员
+     * <p>
+     * 以上一页最后一个成员的分值作为下一页的起点，只跳过分值与其相同且已遍历过的成员，
+     * 每页的代价与已遍历的数量无关；遍历期间被续期的成员可能重复或遗漏，与 SCAN 相同
+     * </p>
+     *
+     * @return 遍历到的成员总数
+     */
+    public long scan(RedisConnection redisConnection, int count, Consumer<List<byte[]>> pageConsumer) {
+        long now = System.currentTimeMillis();
+        prune(redisConnection, now);
+
+        long total = 0;
+        double min = now;
+        // 分值等于 min 的成员中已遍历的数量
+        long skip = 0;
+        while (true) {
+            Set<Tuple> tuples = redisConnection.zRangeByScoreWithScores(indexKey, min, Double.POSITIVE_INFINITY,
+                    skip, count);
+            if (tuples == null || tuples.isEmpty()) {
+                break;
+            }
+            List<byte[]> members = new ArrayList<>(tuples.size());
+            for (Tuple tuple : tuples) {
+                members.add(tuple.getValue());
+                if (tuple.getScore() == min) {
+                    skip++;
+                } else {
+                    min = tuple.getScore();
+                    skip = 1;
+                }
+            }
+            total += members.size();
+            pageConsumer.accept(members);
+            if (tuples.size() < count) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 按索引删除全部成员及索引本身
+     *
+     * @return 删除的成员数
+     */
+    public long clear(RedisConnection redisConnection, int count) {
+        long total = 0;
+        while (true) {
+            Set<byte[]> members = redisConnection.zRange(indexKey, 0, count - 1);
+            if (members == null || members.isEmpty()) {
+                break;
+            }
+            byte[][] keys = RedisUtil.toArray(new ArrayList<>(members));
+            redisConnection.unlink(keys);
+            redisConnection.zRem(indexKey, keys);
+            total += keys.length;
+        }
+        redisConnection.unlink(indexKey);
+        return total;
+    }
+
+    /**
+     * 清理已过期成员
+     */
+    public void prune(RedisConnection redisConnection, long now) {
+        redisConnection.zRemRangeByScore(indexKey, Double.NEGATIVE_INFINITY, now);
+    }
+
+    private static long expireAt(long seconds) {
+        return System.currentTimeMillis() + seconds * 1000;
+    }
+
+    private static byte[] toBytes(long value) {
+        return String.valueOf(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.i5018.shiro.util;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * 带租约的 redis 互斥锁
+ * <p>
+ * 加锁使用 SET NX PX，锁在租约到期后自动释放，避免持有者宕机导致死锁；
+ * 解锁时比较持有者标识，只删除自己持有的锁。锁不可重入。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/11 15:20
+ */
+public class RedisLock {
+
+    /**
+     * KEYS[1] 锁; ARGV[1] 持有者标识
+     */
+    private static final LuaScript UNLOCK = new LuaScript(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+                    + "return redis.call('DEL', KEYS[1]) "
+                    + "end "
+                    + "return 0");
+
+    /**
+     * 锁key
+     */
+    private final byte[] key;
+
+    /**
+     * 持有者标识
+     */
+    private final byte[] token = UUID.randomUUID().toString().getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * 租约时长
+     */
+    private final Duration lease;
+
+    public RedisLock(byte[] key, Duration lease) {
+        this.key = key;
+        this.lease = lease;
+    }
+
+    /**
+     * 尝试加锁，不等待
+     *
+     * @return 是否获得锁
+     */
+    public boolean tryLock(RedisConnection redisConnection) {
+        Boolean locked = redisConnection.set(key, token, Expiration.milliseconds(lease.toMillis()),
+                SetOption.SET_IF_ABSENT);
+        return Boolean.TRUE.equals(locked);
+    }
+
+    /**
+     * 释放锁，锁已过期或被他人持有时不做任何操作
+     */
+    public void unlock(RedisConnection redisConnection) {
+        UNLOCK.execute(redisConnection, ReturnType.INTEGER, 1, key, token);
+    }
+
+}
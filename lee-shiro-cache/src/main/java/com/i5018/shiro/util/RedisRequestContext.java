@@ -0,0 +1,220 @@
+package com.i5018.shiro.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 请求级 redis 上下文
+ * <p>
+ * 请求开始时 {@link #bind(boolean)}，结束时 {@link #release()}。绑定期间当前线程通过
+ * {@link #getConnection(RedisConnectionFactory)} 获取的连接为同一个连接（每个连接工厂一个），
+ * 关闭操作被忽略，请求结束时统一关闭；{@link #defer(RedisConnectionFactory, Consumer)}
+ * 提交的写操作在请求结束时通过一次管道发送。未绑定时直接从连接工厂获取连接。
+ * </p>
+ * <p>
+ * 只对当前线程生效，异步操作在其他线程执行时仍使用独立连接。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/14 14:10
+ */
+public final class RedisRequestContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisRequestContext.class);
+
+    private static final ThreadLocal<RedisRequestContext> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 连接工厂到共享连接
+     */
+    private final Map<RedisConnectionFactory, RedisConnection> connections = new IdentityHashMap<>(2);
+
+    /**
+     * 连接工厂到共享连接的代理
+     */
+    private final Map<RedisConnectionFactory, RedisConnection> proxies = new IdentityHashMap<>(2);
+
+    /**
+     * 连接工厂到延迟写操作
+     */
+    private final Map<RedisConnectionFactory, List<DeferredWrite>> deferred = new IdentityHashMap<>(2);
+
+    /**
+     * 是否允许延迟写
+     */
+    private final boolean deferWrites;
+
+    private RedisRequestContext(boolean deferWrites) {
+        this.deferWrites = deferWrites;
+    }
+
+    /**
+     * 绑定到当前线程，已绑定时返回 false
+     *
+     * @param deferWrites 是否允许延迟写
+     */
+    public static boolean bind(boolean deferWrites) {
+        if (CURRENT.get() != null) {
+            return false;
+        }
+        CURRENT.set(new RedisRequestContext(deferWrites));
+        return true;
+    }
+
+    /**
+     * 发送延迟写操作，关闭共享连接并解除绑定
+     */
+    public static void release() {
+        RedisRequestContext context = CURRENT.get();
+        if (context == null) {
+            return;
+        }
+        CURRENT.remove();
+        context.flush();
+        context.close();
+    }
+
+    public static boolean isBound() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * 获取连接，绑定时返回请求内共享的连接
+     */
+    public static RedisConnection getConnection(RedisConnectionFactory redisConnectionFactory) {
+        RedisRequestContext context = CURRENT.get();
+        if (context == null) {
+            return redisConnectionFactory.getConnection();
+        }
+        return context.connection(redisConnectionFactory);
+    }
+
+    /**
+     * 延迟到请求结束时执行写操作
+     *
+     * @return 未绑定或不允许延迟写时返回 false，调用方需要立即执行
+     */
+    public static boolean defer(RedisConnectionFactory redisConnectionFactory, Consumer<RedisConnection> command) {
+        return defer(redisConnectionFactory, command, null);
+    }
+
+    /**
+     * 延迟到请求结束时执行写操作，发送失败时回调 {@code onFailure}，如写入本地降级存储
+     *
+     * @return 未绑定或不允许延迟写时返回 false，调用方需要立即执行
+     */
+    public static boolean defer(RedisConnectionFactory redisConnectionFactory, Consumer<RedisConnection> command,
+                                Consumer<Exception> onFailure) {
+        RedisRequestContext context = CURRENT.get();
+        if (context == null || !context.deferWrites) {
+            return false;
+        }
+        context.deferred.computeIfAbsent(redisConnectionFactory, factory -> new ArrayList<>())
+                .add(new DeferredWrite(command, onFailure));
+        return true;
+    }
+
+    private RedisConnection connection(RedisConnectionFactory redisConnectionFactory) {
+        RedisConnection connection = connections.get(redisConnectionFactory);
+        if (connection == null || connection.isClosed()) {
+            connection = redisConnectionFactory.getConnection();
+            connections.put(redisConnectionFactory, connection);
+            proxies.put(redisConnectionFactory, shared(connection));
+        }
+        return proxies.get(redisConnectionFactory);
+    }
+
+    private void flush() {
+        for (Map.Entry<RedisConnectionFactory, List<DeferredWrite>> entry : deferred.entrySet()) {
+            List<DeferredWrite> commands = entry.getValue();
+            try {
+                RedisConnection connection = connection(entry.getKey());
+                connection.openPipeline();
+                try {
+                    for (DeferredWrite command : commands) {
+                        command.command.accept(connection);
+                    }
+                } finally {
+                    connection.closePipeline();
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("flushed {} deferred redis writes", commands.size());
+                }
+            } catch (Exception e) {
+                logger.error("flush deferred redis writes error. ", e);
+                // 管道中无法区分成功的命令，全部按失败处理
+                for (DeferredWrite command : commands) {
+                    command.failed(e);
+                }
+            }
+        }
+        deferred.clear();
+    }
+
+    private void close() {
+        for (RedisConnection connection : connections.values()) {
+            try {
+                connection.close();
+            } catch (Exception e) {
+                logger.error("Failed to close redis connection", e);
+            }
+        }
+        connections.clear();
+        proxies.clear();
+    }
+
+    /**
+     * 延迟写操作与发送失败时的回调
+     */
+    private static final class DeferredWrite {
+
+        private final Consumer<RedisConnection> command;
+
+        private final Consumer<Exception> onFailure;
+
+        private DeferredWrite(Consumer<RedisConnection> command, Consumer<Exception> onFailure) {
+            this.command = command;
+            this.onFailure = onFailure;
+        }
+
+        private void failed(Exception e) {
+            if (onFailure == null) {
+                return;
+            }
+            try {
+                onFailure.accept(e);
+            } catch (Exception ex) {
+                logger.error("deferred redis write failure callback error. ", ex);
+            }
+        }
+    }
+
+    /**
+     * 忽略关闭操作的连接代理
+     */
+    private static RedisConnection shared(RedisConnection target) {
+        Class<?> type = target instanceof RedisClusterConnection ? RedisClusterConnection.class : RedisConnection.class;
+        return (RedisConnection) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                return null;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        });
+    }
+
+}
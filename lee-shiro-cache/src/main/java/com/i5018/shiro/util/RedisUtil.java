@@ -0,0 +1,70 @@
+package com.i5018.shiro.util;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * @author limk
+ * @date 2020/9/8 9:30
+ */
+public class RedisUtil {
+
+    /**
+     * 在调用线程上直接执行，用于未配置异步线程池时
+     */
+    public static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    private RedisUtil() {
+    }
+
+
+    /**
+     * 使用 SCAN 增量遍历匹配的 key，每凑满 {@code count} 个 key 回调一次
+     *
+     * @param redisConnection redis连接
+     * @param pattern         匹配规则
+     * @param count           每次 SCAN 的 COUNT 以及每页大小
+     * @param pageConsumer    分页回调，回调结束后页内 key 不再被引用
+     * @return 遍历到的 key 总数
+     */
+    public static long scan(RedisConnection redisConnection, String pattern, int count,
+                            Consumer<List<byte[]>> pageConsumer) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(count).build();
+
+        long total = 0;
+        List<byte[]> page = new ArrayList<>(count);
+        try (Cursor<byte[]> cursor = redisConnection.scan(options)) {
+            while (cursor.hasNext()) {
+                page.add(cursor.next());
+                if (page.size() >= count) {
+                    total += page.size();
+                    pageConsumer.accept(page);
+                    page = new ArrayList<>(count);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to close redis scan cursor", e);
+        }
+
+        if (!page.isEmpty()) {
+            total += page.size();
+            pageConsumer.accept(page);
+        }
+        return total;
+    }
+
+    /**
+     * 转换为 redis 命令需要的数组参数
+     */
+    public static byte[][] toArray(List<byte[]> keys) {
+        return keys.toArray(new byte[keys.size()][]);
+    }
+
+}
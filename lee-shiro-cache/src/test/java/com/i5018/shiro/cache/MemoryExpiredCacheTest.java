@@ -0,0 +1,248 @@
+package com.i5018.shiro.cache;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MemoryExpiredCache} 的时间轮回收与 LRU 淘汰，使用可控时钟
+ * <p>
+ * {@link MemoryExpiredCache#size()} 包含已过期但尚未被时间轮回收的条目，用于判断回收时机。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/17 16:40
+ */
+public class MemoryExpiredCacheTest {
+
+    /**
+     * 起始时间不与槽位边界对齐
+     */
+    private static final long START = 1_600_000_000_123L;
+
+    /**
+     * 第 0 层槽位跨度，到期后最多再经过两个槽位必须被回收
+     */
+    private static final long SLOT = 1 << 10;
+
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    private final AtomicLong now = new AtomicLong(START);
+
+    private MemoryExpiredCache<String, String> cache(int maxSize, int segments) {
+        return new MemoryExpiredCache<>("test", null, maxSize, segments, now::get);
+    }
+
+    @Test
+    public void entriesAreReclaimedAtTheirOwnTtlOnEveryLevel() {
+        long[] ttls = {
+                30 * SECOND, 64 * SECOND, 66 * SECOND, 10 * MINUTE,
+                70 * MINUTE, 75 * HOUR, 4 * DAY, 30 * DAY, 300 * DAY
+        };
+        for (long ttl : ttls) {
+            assertReclaimedAt(ttl, Math.max(SECOND, ttl / 500));
+            assertReclaimedAt(ttl, ttl / 3);
+            assertReclaimedAt(ttl, ttl);
+        }
+    }
+
+    @Test
+    public void entryInTheCurrentSlotOneRotationAheadSurvivesWraparound() {
+        // 到期槽位正好是当前槽位 + 64，与当前槽位下标相同
+        long expireAt = ((START >>> 10) + 64) << 10;
+        assertTrue(expireAt - START < 1 << 16);
+        assertReclaimedAt(expireAt - START, SECOND);
+        assertReclaimedAt(expireAt - START, 100);
+        assertReclaimedAt(expireAt - START, 63 * SECOND);
+    }
+
+    @Test
+    public void longIdleGapReclaimsOnlyExpiredEntries() {
+        MemoryExpiredCache<String, String> cache = cache(100, 1);
+        cache.put("seconds", "v", Duration.ofSeconds(10));
+        cache.put("hours", "v", Duration.ofHours(2));
+        cache.put("days", "v", Duration.ofDays(5));
+        cache.put("month", "v", Duration.ofDays(40));
+
+        now.addAndGet(10 * DAY);
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+        assertEquals("v", cache.get("month"));
+        assertNull(cache.get("days"));
+
+        // 空闲后新写入的条目按新的时间回收
+        cache.put("fresh", "v", Duration.ofSeconds(5));
+        now.addAndGet(5 * SECOND - 1);
+        cache.cleanUp();
+        assertEquals(2, cache.size());
+        now.addAndGet(2 * SLOT);
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+
+        now.addAndGet(31 * DAY);
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiredEntryIsNotReturnedBeforeReclaim() {
+        MemoryExpiredCache<String, String> cache = cache(100, 1);
+        cache.put("k", "v", Duration.ofMinutes(5));
+        now.addAndGet(5 * MINUTE);
+
+        assertNull(cache.get("k"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedAtMaxSize() {
+        MemoryExpiredCache<String, String> cache = cache(3, 1);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+
+        cache.put("d", "4");
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals("4", cache.get("d"));
+
+        // 覆盖写入也算访问
+        cache.put("c", "5");
+        cache.put("e", "6");
+        assertNull(cache.get("a"));
+        assertEquals("5", cache.get("c"));
+    }
+
+    @Test
+    public void evictedEntryIsUnscheduledFromTheWheel() {
+        MemoryExpiredCache<String, String> cache = cache(2, 1);
+        cache.put("a", "1", Duration.ofSeconds(10));
+        cache.put("b", "2", Duration.ofSeconds(10));
+        cache.put("c", "3", Duration.ofSeconds(20));
+        cache.put("a", "4", Duration.ofSeconds(30));
+
+        now.addAndGet(10 * SECOND + 2 * SLOT);
+        cache.cleanUp();
+        assertEquals(2, cache.size());
+        now.addAndGet(10 * SECOND);
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+        assertEquals("4", cache.get("a"));
+    }
+
+    /**
+     * 多线程读写的同时推进时钟并回收，结束后所有条目都必须仍在时间轮中，
+     * 时钟越过最长有效期后回收为空
+     */
+    @Test
+    public void concurrentPutGetAndCleanUpKeepStructuresConsistent() throws Exception {
+        final int maxSize = 1024;
+        final int keys = 4096;
+        final int operations = 100_000;
+        MemoryExpiredCache<String, String> cache = cache(maxSize, 16);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    for (int i = 0; i < operations; i++) {
+                        String key = "k" + random.nextInt(keys);
+                        int op = random.nextInt(10);
+                        if (op < 4) {
+                            cache.put(key, key, Duration.ofMillis(1 + random.nextLong(3 * DAY)));
+                        } else if (op < 9) {
+                            String value = cache.get(key);
+                            if (value != null && !value.equals(key)) {
+                                throw new AssertionError("Unexpected value " + value + " for " + key);
+                            }
+                        } else {
+                            cache.remove(key);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        Thread cleaner = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                start.await();
+                while (!done.get()) {
+                    now.addAndGet(random.nextLong(5 * MINUTE));
+                    cache.cleanUp();
+                    assertTrue(cache.size() <= maxSize);
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+
+        workers.forEach(Thread::start);
+        cleaner.start();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.MINUTES.toMillis(1));
+        }
+        done.set(true);
+        cleaner.join(TimeUnit.MINUTES.toMillis(1));
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(cache.size() <= maxSize);
+        assertEquals(cache.keys().size(), cache.values().size());
+
+        now.addAndGet(3 * DAY + 2 * SLOT);
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * 以 {@code step} 为间隔推进时钟，条目在到期前不能被回收，到期后两个槽位内必须被回收
+     */
+    private void assertReclaimedAt(long ttl, long step) {
+        now.set(START);
+        MemoryExpiredCache<String, String> cache = cache(16, 1);
+        cache.put("k", "v", Duration.ofMillis(ttl));
+        long expireAt = START + ttl;
+
+        while (now.get() + step < expireAt) {
+            now.addAndGet(step);
+            cache.cleanUp();
+            assertEquals("ttl=" + ttl + " step=" + step + " reclaimed early at +" + (now.get() - START),
+                    1, cache.size());
+        }
+        now.set(expireAt - 1);
+        cache.cleanUp();
+        assertEquals("ttl=" + ttl + " step=" + step + " reclaimed before expiry", 1, cache.size());
+
+        now.set(expireAt + 2 * SLOT);
+        cache.cleanUp();
+        assertEquals("ttl=" + ttl + " step=" + step + " not reclaimed after expiry", 0, cache.size());
+    }
+
+}
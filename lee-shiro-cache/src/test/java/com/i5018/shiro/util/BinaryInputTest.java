@@ -0,0 +1,189 @@
+package com.i5018.shiro.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link BinaryOutput}/{@link BinaryInput} 的编码格式以及 {@link RedisDictionary} 编号集合的读写
+ *
+ * @author limk
+ * @date 2020/9/17 17:55
+ */
+public class BinaryInputTest {
+
+    /**
+     * 各类字段依次写入后的固定数据，编码变化时需要同步提升使用方的版本号
+     */
+    private static final String GOLDEN = "7f0102030405060708ac020102c3a900000000000000000703010202";
+
+    @Test
+    public void varIntExtremesRoundTrip() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        BinaryOutput out = new BinaryOutput(1);
+        for (int value : values) {
+            out.writeVarInt(value);
+        }
+        BinaryInput in = new BinaryInput(out.toByteArray(), 0);
+        for (int value : values) {
+            assertEquals(value, in.readVarInt());
+        }
+        assertTruncated(in);
+    }
+
+    @Test
+    public void varLongExtremesRoundTrip() {
+        long[] values = {0, 1, -1, 63, -64, 64, Long.MAX_VALUE, Long.MIN_VALUE};
+        BinaryOutput out = new BinaryOutput(1);
+        for (long value : values) {
+            out.writeVarLong(value);
+        }
+        byte[] bytes = out.toByteArray();
+        BinaryInput in = new BinaryInput(bytes, 0);
+        for (long value : values) {
+            assertEquals(value, in.readVarLong());
+        }
+        assertTruncated(in);
+        // zigzag 编码下绝对值较小的负数只占一个字节
+        assertEquals(1, bytes[2]);
+    }
+
+    @Test
+    public void bytesAndStringsRoundTrip() {
+        BinaryOutput out = new BinaryOutput(1);
+        out.writeString("");
+        out.writeString("会话 session");
+        out.writeBytes(null);
+        out.writeBytes(new byte[]{0, -1, 127});
+        out.writeLong(Long.MIN_VALUE);
+
+        BinaryInput in = new BinaryInput(out.toByteArray(), 0);
+        assertEquals("", in.readString());
+        assertEquals("会话 session", in.readString());
+        // null 写为空数组
+        assertArrayEquals(new byte[0], in.readBytes());
+        assertArrayEquals(new byte[]{0, -1, 127}, in.readBytes());
+        assertEquals(Long.MIN_VALUE, in.readLong());
+    }
+
+    @Test
+    public void resetReusesBuffer() {
+        BinaryOutput out = new BinaryOutput(4);
+        out.writeString("longer than four bytes");
+        int capacity = out.capacity();
+        out.reset();
+        out.writeByte(1);
+
+        assertArrayEquals(new byte[]{1}, out.toByteArray());
+        assertEquals(capacity, out.capacity());
+    }
+
+    @Test
+    public void truncatedAndMalformedInputIsRejected() {
+        byte[] bytes = golden();
+        for (int length = 0; length < bytes.length; length++) {
+            BinaryInput in = new BinaryInput(Arrays.copyOf(bytes, length), 0);
+            try {
+                readGolden(in);
+                fail("truncated payload of " + length + " bytes was accepted");
+            } catch (IllegalStateException expected) {
+                // expected
+            }
+        }
+
+        // 超过 5/10 个字节仍有后续标记
+        byte[] continued = new byte[11];
+        Arrays.fill(continued, (byte) -1);
+        assertTruncated(new BinaryInput(continued, 0), BinaryInput::readVarInt);
+        assertTruncated(new BinaryInput(continued, 0), BinaryInput::readVarLong);
+
+        // 长度、数量超过剩余字节数
+        BinaryOutput out = new BinaryOutput(8);
+        out.writeVarInt(3);
+        out.writeByte('a');
+        out.writeByte('b');
+        assertTruncated(new BinaryInput(out.toByteArray(), 0), BinaryInput::readString);
+        assertTruncated(new BinaryInput(out.toByteArray(), 0), BinaryInput::readCount);
+        out.reset();
+        out.writeVarInt(Integer.MAX_VALUE);
+        assertTruncated(new BinaryInput(out.toByteArray(), 0), BinaryInput::readBytes);
+        out.reset();
+        out.writeVarInt(-1);
+        assertTruncated(new BinaryInput(out.toByteArray(), 0), BinaryInput::readCount);
+    }
+
+    @Test
+    public void dictionaryIdsAreSortedAndDeltaEncoded() {
+        BinaryOutput out = new BinaryOutput(8);
+        int[] ids = {40, 3, 1000, 4};
+        RedisDictionary.writeIds(out, new RedisDictionary.Ids(-5L, ids));
+
+        RedisDictionary.Ids read = RedisDictionary.readIds(new BinaryInput(out.toByteArray(), 0));
+        assertEquals(-5L, read.getGeneration());
+        assertArrayEquals(new int[]{3, 4, 40, 1000}, read.getIds());
+        // 写入时不修改调用方的数组
+        assertArrayEquals(new int[]{40, 3, 1000, 4}, ids);
+    }
+
+    @Test
+    public void goldenPayloadIsStable() {
+        BinaryOutput out = new BinaryOutput(1);
+        out.writeByte(0x7F);
+        out.writeLong(0x0102030405060708L);
+        out.writeVarInt(300);
+        out.writeVarLong(-1);
+        out.writeString("é");
+        out.writeBytes(null);
+        RedisDictionary.writeIds(out, new RedisDictionary.Ids(7, new int[]{5, 1, 3}));
+
+        assertEquals(GOLDEN, hex(out.toByteArray()));
+        readGolden(new BinaryInput(golden(), 0));
+    }
+
+    private static void readGolden(BinaryInput in) {
+        assertEquals(0x7F, in.readByte());
+        assertEquals(0x0102030405060708L, in.readLong());
+        assertEquals(300, in.readVarInt());
+        assertEquals(-1, in.readVarLong());
+        assertEquals("é", in.readString());
+        assertArrayEquals(new byte[0], in.readBytes());
+        RedisDictionary.Ids ids = RedisDictionary.readIds(in);
+        assertEquals(7, ids.getGeneration());
+        assertArrayEquals(new int[]{1, 3, 5}, ids.getIds());
+    }
+
+    private static void assertTruncated(BinaryInput in) {
+        assertTruncated(in, BinaryInput::readByte);
+    }
+
+    private static void assertTruncated(BinaryInput in, Function<BinaryInput, Object> read) {
+        try {
+            Object value = read.apply(in);
+            fail("expected IllegalStateException but read " + value);
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    private static byte[] golden() {
+        byte[] bytes = new byte[GOLDEN.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(GOLDEN.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.i5018.shiro.util;
+
+import org.junit.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link CompressingRedisSerializer} 的压缩阈值、兼容未压缩数据以及损坏数据的校验
+ *
+ * @author limk
+ * @date 2020/9/17 18:10
+ */
+public class CompressingRedisSerializerTest {
+
+    /**
+     * 原样读写字节数组，便于直接检查压缩结果
+     */
+    private static final RedisSerializer<Object> BYTES = new RedisSerializer<Object>() {
+
+        @Override
+        public byte[] serialize(Object o) {
+            return (byte[]) o;
+        }
+
+        @Override
+        public Object deserialize(byte[] bytes) {
+            return bytes;
+        }
+    };
+
+    private final CompressingRedisSerializer serializer = new CompressingRedisSerializer(BYTES, 64);
+
+    @Test
+    public void valuesBelowThresholdAreStoredAsIs() {
+        byte[] raw = repeated(63);
+
+        assertSame(raw, serializer.serialize(raw));
+        assertArrayEquals(raw, (byte[]) serializer.deserialize(raw));
+    }
+
+    @Test
+    public void valuesAtThresholdAreCompressedAndRoundTrip() {
+        for (int length : new int[]{64, 1024, 64 * 1024}) {
+            byte[] raw = repeated(length);
+            byte[] stored = serializer.serialize(raw);
+
+            assertTrue(CompressingRedisSerializer.isCompressed(stored));
+            assertTrue(stored.length < raw.length);
+            assertArrayEquals(raw, (byte[]) serializer.deserialize(stored));
+        }
+    }
+
+    @Test
+    public void maximallyCompressedPayloadRoundTrips() {
+        byte[] raw = new byte[4 * 1024 * 1024];
+        byte[] stored = serializer.serialize(raw);
+
+        assertTrue(CompressingRedisSerializer.isCompressed(stored));
+        assertArrayEquals(raw, (byte[]) serializer.deserialize(stored));
+    }
+
+    @Test
+    public void incompressibleValuesAreStoredAsIs() {
+        byte[] raw = new byte[4096];
+        new Random(42).nextBytes(raw);
+
+        assertSame(raw, serializer.serialize(raw));
+        assertFalse(CompressingRedisSerializer.isCompressed(raw));
+        assertArrayEquals(raw, (byte[]) serializer.deserialize(raw));
+    }
+
+    @Test
+    public void emptyPayloadIsNull() {
+        assertNull(serializer.deserialize(null));
+        assertNull(serializer.deserialize(new byte[0]));
+    }
+
+    @Test
+    public void lengthBeyondCompressionRatioIsRejectedBeforeAllocating() {
+        byte[] stored = serializer.serialize(repeated(1024));
+        int body = stored.length - 8;
+
+        assertRejected(withLength(stored, 255 * body + 1));
+        assertRejected(withLength(stored, 512 * 1024 * 1024));
+        assertRejected(withLength(stored, Integer.MAX_VALUE));
+        assertRejected(withLength(stored, 0));
+        assertRejected(withLength(stored, -1));
+    }
+
+    @Test
+    public void corruptPayloadIsRejected() {
+        byte[] stored = serializer.serialize(repeated(1024));
+
+        assertRejected(Arrays.copyOf(stored, stored.length - 1));
+        assertRejected(Arrays.copyOf(stored, 9));
+        assertRejected(withLength(stored, 1023));
+        assertRejected(withLength(stored, 1025));
+    }
+
+    private static byte[] repeated(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + i % 4);
+        }
+        return bytes;
+    }
+
+    private static byte[] withLength(byte[] stored, int length) {
+        byte[] bytes = stored.clone();
+        bytes[4] = (byte) (length >>> 24);
+        bytes[5] = (byte) (length >>> 16);
+        bytes[6] = (byte) (length >>> 8);
+        bytes[7] = (byte) length;
+        return bytes;
+    }
+
+    private void assertRejected(byte[] bytes) {
+        try {
+            serializer.deserialize(bytes);
+            fail("corrupt payload was accepted");
+        } catch (SerializationException expected) {
+            // expected
+        }
+    }
+
+}
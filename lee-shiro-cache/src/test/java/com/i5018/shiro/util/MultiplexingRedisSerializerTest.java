@@ -0,0 +1,110 @@
+package com.i5018.shiro.util;
+
+import org.junit.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MultiplexingRedisSerializer} 的格式头分发与旧格式兼容
+ *
+ * @author limk
+ * @date 2020/9/17 18:30
+ */
+public class MultiplexingRedisSerializerTest {
+
+    @Test
+    public void everyFormatRoundTrips() {
+        Map<String, Object> value = value();
+        for (int format : new int[]{MultiplexingRedisSerializer.FORMAT_JDK, MultiplexingRedisSerializer.FORMAT_FST}) {
+            MultiplexingRedisSerializer serializer = new MultiplexingRedisSerializer();
+            serializer.setWriteFormat(format);
+
+            byte[] bytes = serializer.serialize(value);
+            assertEquals((byte) 0xE7, bytes[0]);
+            assertEquals(format, bytes[1]);
+            assertEquals(value, serializer.deserialize(bytes));
+        }
+    }
+
+    @Test
+    public void fstPayloadIsReadFromTheTaggedArray() {
+        MultiplexingRedisSerializer serializer = new MultiplexingRedisSerializer();
+        serializer.setWriteFormat(MultiplexingRedisSerializer.FORMAT_FST);
+        byte[] bytes = serializer.serialize(value());
+
+        // 格式头之后的数据与直接使用 FST 序列化的结果一致
+        byte[] payload = new FstSerializer().serialize(value());
+        assertArrayEquals(payload, Arrays.copyOfRange(bytes, 2, bytes.length));
+
+        // 交替读取大小不同的数据，线程内复用的输入缓冲区不能残留上一次的内容
+        byte[] small = serializer.serialize("small");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(value(), serializer.deserialize(bytes));
+            assertEquals("small", serializer.deserialize(small));
+        }
+    }
+
+    @Test
+    public void plainSerializersReceiveOnlyThePayload() {
+        List<byte[]> received = new ArrayList<>();
+        MultiplexingRedisSerializer serializer = new MultiplexingRedisSerializer(new ObjectRedisSerializer());
+        serializer.setFormat(7, new RedisSerializer<Object>() {
+
+            @Override
+            public byte[] serialize(Object o) {
+                return ((String) o).getBytes();
+            }
+
+            @Override
+            public Object deserialize(byte[] bytes) {
+                received.add(bytes);
+                return new String(bytes);
+            }
+        });
+        serializer.setWriteFormat(7);
+
+        byte[] bytes = serializer.serialize("payload");
+        assertArrayEquals(new byte[]{(byte) 0xE7, 7, 'p', 'a', 'y', 'l', 'o', 'a', 'd'}, bytes);
+        assertEquals("payload", serializer.deserialize(bytes));
+        assertArrayEquals("payload".getBytes(), received.get(0));
+    }
+
+    @Test
+    public void legacyPayloadIsReadWithoutHeader() {
+        MultiplexingRedisSerializer serializer = new MultiplexingRedisSerializer();
+        serializer.setWriteFormat(MultiplexingRedisSerializer.FORMAT_FST);
+        serializer.setRewriteLegacy(true);
+        byte[] legacy = new ObjectRedisSerializer().serialize(value());
+
+        assertEquals(value(), serializer.deserialize(legacy));
+        assertTrue(serializer.isRewriteRequired(legacy));
+        assertFalse(serializer.isRewriteRequired(serializer.serialize(value())));
+        assertNull(serializer.deserialize(new byte[0]));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void unknownFormatIsRejected() {
+        new MultiplexingRedisSerializer().deserialize(new byte[]{(byte) 0xE7, 9, 1, 2, 3});
+    }
+
+    private static Map<String, Object> value() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("name", "admin");
+        value.put("roles", new ArrayList<>(Arrays.asList("admin", "user")));
+        value.put("count", 42L);
+        return value;
+    }
+
+}
@@ -1,16 +1,24 @@
 package com.i5018.shiro.authc.realm;
 
 import com.i5018.shiro.authc.UserPrincipal;
+import com.i5018.shiro.cache.ExpiredCache;
+import com.i5018.shiro.cache.NegativeLookupCache;
+import com.i5018.shiro.util.BloomFilter;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.authc.credential.CredentialsMatcher;
 import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.cache.Cache;
 import org.apache.shiro.cache.CacheManager;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+
 /**
  * @author limk
  * @date 2020/8/31 22:38
@@ -19,6 +27,25 @@ public abstract class BaseAuthorizingRealm extends AuthorizingRealm {
 
     private static final Logger logger = LoggerFactory.getLogger(BaseAuthorizingRealm.class);
 
+    private static final String NEGATIVE_LOOKUP_CACHE_SUFFIX = ".negativeLookupCache";
+
+    /**
+     * 是否缓存不存在的账号，需要 CacheManager 提供 {@link ExpiredCache}
+     */
+    private boolean negativeLookupCacheEnabled = false;
+
+    /**
+     * 不存在账号的缓存有效期
+     */
+    private Duration negativeLookupExpiration = Duration.ofMinutes(5);
+
+    /**
+     * 本地布隆过滤器预期容量，0 表示不使用
+     */
+    private long negativeLookupBloomFilterSize = 0;
+
+    private volatile NegativeLookupCache negativeLookupCache;
+
     public BaseAuthorizingRealm() {
     }
 
@@ -47,6 +74,26 @@ public abstract class BaseAuthorizingRealm extends AuthorizingRealm {
         return info;
     }
 
+    /**
+     * 授权缓存为 {@link ExpiredCache} 时使用 get(key, loader) 加载，
+     * 同一账号的并发未命中只执行一次 {@link #doGetAuthorizationInfo(PrincipalCollection)}
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected AuthorizationInfo getAuthorizationInfo(PrincipalCollection principals) {
+        Cache<Object, AuthorizationInfo> cache = getAuthorizationCache();
+        if (principals == null || !isAuthorizationCachingEnabled() || !(cache instanceof ExpiredCache)) {
+            return super.getAuthorizationInfo(principals);
+        }
+
+        Object key = getAuthorizationCacheKey(principals);
+        if (key == null) {
+            return super.getAuthorizationInfo(principals);
+        }
+
+        return ((ExpiredCache<Object, AuthorizationInfo>) cache).get(key, k -> doGetAuthorizationInfo(principals));
+    }
+
     @Override
     protected Object getAuthenticationCacheKey(AuthenticationToken token) {
         if (token != null) {
@@ -67,6 +114,99 @@ public abstract class BaseAuthorizingRealm extends AuthorizingRealm {
         return getCacheKey(super.getAuthenticationCacheKey(principals));
     }
 
+    /**
+     * 批量清除指定账号的授权缓存，如角色/权限变更后
+     *
+     * @param usernames 用户账号
+     */
+    @SuppressWarnings("unchecked")
+    public void clearCachedAuthorizationInfo(Collection<String> usernames) {
+        Cache<Object, AuthorizationInfo> cache = getAuthorizationCache();
+        if (cache == null || usernames == null || usernames.isEmpty()) {
+            return;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Clearing {} cached authorization info", usernames.size());
+        }
+
+        if (cache instanceof ExpiredCache) {
+            ((ExpiredCache<Object, AuthorizationInfo>) cache).removeAll(new ArrayList<>(usernames));
+        } else {
+            usernames.forEach(cache::remove);
+        }
+    }
+
+    /**
+     * 账号是否已知不存在
+     *
+     * @param account 用户账号/手机号
+     */
+    protected boolean isUnknownAccountCached(String account) {
+        NegativeLookupCache cache = getNegativeLookupCache();
+        return cache != null && cache.isMissing(account);
+    }
+
+    /**
+     * 记录不存在的账号
+     *
+     * @param account 用户账号/手机号
+     */
+    protected void cacheUnknownAccount(String account) {
+        NegativeLookupCache cache = getNegativeLookupCache();
+        if (cache != null) {
+            cache.markMissing(account);
+        }
+    }
+
+    /**
+     * 删除不存在账号的记录，账号创建后调用
+     *
+     * @param account 用户账号/手机号
+     */
+    public void clearCachedUnknownAccount(String account) {
+        NegativeLookupCache cache = getNegativeLookupCache();
+        if (cache != null) {
+            cache.evict(account);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private NegativeLookupCache getNegativeLookupCache() {
+        if (!negativeLookupCacheEnabled || getCacheManager() == null) {
+            return null;
+        }
+        if (negativeLookupCache == null) {
+            synchronized (this) {
+                if (negativeLookupCache == null) {
+                    Cache<String, Boolean> cache = getCacheManager().getCache(getClass().getName() + NEGATIVE_LOOKUP_CACHE_SUFFIX);
+                    if (!(cache instanceof ExpiredCache)) {
+                        logger.warn("Negative lookup cache requires an ExpiredCache, disabled for realm [{}]", getName());
+                        negativeLookupCacheEnabled = false;
+                        return null;
+                    }
+                    BloomFilter bloomFilter = negativeLookupBloomFilterSize > 0
+                            ? new BloomFilter(negativeLookupBloomFilterSize, 0.01) : null;
+                    negativeLookupCache = new NegativeLookupCache((ExpiredCache<String, Boolean>) cache,
+                            negativeLookupExpiration, bloomFilter);
+                }
+            }
+        }
+        return negativeLookupCache;
+    }
+
+    public void setNegativeLookupCacheEnabled(boolean negativeLookupCacheEnabled) {
+        this.negativeLookupCacheEnabled = negativeLookupCacheEnabled;
+    }
+
+    public void setNegativeLookupExpiration(Duration negativeLookupExpiration) {
+        this.negativeLookupExpiration = negativeLookupExpiration;
+    }
+
+    public void setNegativeLookupBloomFilterSize(long negativeLookupBloomFilterSize) {
+        this.negativeLookupBloomFilterSize = negativeLookupBloomFilterSize;
+    }
+
     private Object getCacheKey(Object principal) {
         if (principal instanceof String) {
             return principal;
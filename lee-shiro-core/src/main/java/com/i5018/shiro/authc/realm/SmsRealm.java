@@ -34,8 +34,13 @@ public class SmsRealm extends BaseAuthorizingRealm {
         // 用户手机号
         String sms = smsToken.getSms();
 
+        if (isUnknownAccountCached(sms)) {
+            throw new UnknownAccountException("Sms [" + sms + "] not found");
+        }
+
         UserPrincipal user = userPrincipalSmsService.loadUserPrincipalBySms(sms);
         if (user == null) {
+            cacheUnknownAccount(sms);
             throw new UnknownAccountException("Sms [" + sms + "] not found");
         }
 
@@ -39,8 +39,13 @@ public class UsernamePasswordRealm extends BaseAuthorizingRealm {
         // 用户账号
         String username = usernamePasswordToken.getUsername();
 
+        if (isUnknownAccountCached(username)) {
+            throw new UnknownAccountException("账号 [" + username + "] 不存在");
+        }
+
         UserPrincipal user = userPrincipalService.loadUserPrincipalByUsername(username);
         if (user == null) {
+            cacheUnknownAccount(username);
             throw new UnknownAccountException("账号 [" + username + "] 不存在");
         }
 
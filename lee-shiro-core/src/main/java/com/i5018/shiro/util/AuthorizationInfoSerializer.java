@@ -0,0 +1,173 @@
+package com.i5018.shiro.util;
+
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * {@link SimpleAuthorizationInfo} 专用的二进制序列化，用于授权缓存
+ * <p>
+ * 角色与字符串权限通过 {@link RedisDictionary} 写为编号（连同字典代号，版本 2），字典不可用时写为字符串；
+ * 对象权限（objectPermissions）较少使用，整体交给 {@code fallback}。
+ * 数据以魔数和版本号开头，读取时不是该格式的数据以及其他对象都交给 {@code fallback}（默认 JDK 序列化），
+ * 可以直接替换授权缓存原有的 value 序列化工具。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/16 15:10
+ */
+public class AuthorizationInfoSerializer implements RedisSerializer<Object> {
+
+    private static final byte MAGIC = (byte) 0xA9;
+
+    /**
+     * 编号集合不带字典代号的版本，其中的编号无法校验，读取时拒绝
+     */
+    private static final byte VERSION_WITHOUT_GENERATION = 1;
+
+    private static final byte VERSION = 2;
+
+    private static final int ROLES = 1;
+    private static final int ROLE_IDS = 1 << 1;
+    private static final int PERMISSIONS = 1 << 2;
+    private static final int PERMISSION_IDS = 1 << 3;
+    private static final int OBJECT_PERMISSIONS = 1 << 4;
+
+    /**
+     * 超过该大小的输出缓冲区不在线程内保留
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<BinaryOutput> OUTPUT = ThreadLocal.withInitial(() -> new BinaryOutput(256));
+
+    private final RedisDictionary dictionary;
+
+    /**
+     * 其他对象、对象权限以及旧格式数据的序列化工具
+     */
+    private final RedisSerializer<Object> fallback;
+
+    public AuthorizationInfoSerializer(RedisDictionary dictionary) {
+        this(dictionary, new ObjectRedisSerializer());
+    }
+
+    public AuthorizationInfoSerializer(RedisDictionary dictionary, RedisSerializer<Object> fallback) {
+        this.dictionary = dictionary;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public byte[] serialize(Object o) throws SerializationException {
+        if (o == null) {
+            return new byte[0];
+        }
+        if (o.getClass() != SimpleAuthorizationInfo.class) {
+            return fallback.serialize(o);
+        }
+
+        BinaryOutput out = OUTPUT.get();
+        out.reset();
+        try {
+            writeInfo(out, (SimpleAuthorizationInfo) o);
+            return out.toByteArray();
+        } catch (RuntimeException e) {
+            throw new SerializationException("Failed to serialize authorization info", e);
+        } finally {
+            if (out.capacity() > MAX_RETAINED_BUFFER) {
+                OUTPUT.remove();
+            }
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            return fallback.deserialize(bytes);
+        }
+        if (bytes.length < 2 || bytes[1] < VERSION_WITHOUT_GENERATION || bytes[1] > VERSION) {
+            throw new SerializationException("Unsupported authorization info codec version "
+                    + (bytes.length < 2 ? "<missing>" : String.valueOf(bytes[1])));
+        }
+
+        try {
+            return readInfo(new BinaryInput(bytes, 2), bytes[1]);
+        } catch (RuntimeException e) {
+            throw new SerializationException("Failed to deserialize authorization info payload", e);
+        }
+    }
+
+    private void writeInfo(BinaryOutput out, SimpleAuthorizationInfo info) {
+        RedisDictionary.Ids roleIds = info.getRoles() != null ? dictionary.encode(info.getRoles()) : null;
+        RedisDictionary.Ids permissionIds = info.getStringPermissions() != null ? dictionary.encode(info.getStringPermissions()) : null;
+
+        int fields = 0;
+        fields |= roleIds != null ? ROLE_IDS : info.getRoles() != null ? ROLES : 0;
+        fields |= permissionIds != null ? PERMISSION_IDS : info.getStringPermissions() != null ? PERMISSIONS : 0;
+        fields |= info.getObjectPermissions() != null ? OBJECT_PERMISSIONS : 0;
+
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeVarInt(fields);
+        if (roleIds != null) {
+            RedisDictionary.writeIds(out, roleIds);
+        } else if (info.getRoles() != null) {
+            writeStrings(out, info.getRoles());
+        }
+        if (permissionIds != null) {
+            RedisDictionary.writeIds(out, permissionIds);
+        } else if (info.getStringPermissions() != null) {
+            writeStrings(out, info.getStringPermissions());
+        }
+        if (info.getObjectPermissions() != null) {
+            out.writeBytes(fallback.serialize(info.getObjectPermissions()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private SimpleAuthorizationInfo readInfo(BinaryInput in, byte version) {
+        int fields = in.readVarInt();
+        if (version == VERSION_WITHOUT_GENERATION && (fields & (ROLE_IDS | PERMISSION_IDS)) != 0) {
+            throw new SerializationException("Dictionary ids written without generation");
+        }
+        SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+        if ((fields & ROLES) != 0) {
+            info.setRoles(readStrings(in));
+        }
+        if ((fields & ROLE_IDS) != 0) {
+            info.setRoles(dictionary.decode(RedisDictionary.readIds(in)));
+        }
+        if ((fields & PERMISSIONS) != 0) {
+            info.setStringPermissions(readStrings(in));
+        }
+        if ((fields & PERMISSION_IDS) != 0) {
+            info.setStringPermissions(dictionary.decode(RedisDictionary.readIds(in)));
+        }
+        if ((fields & OBJECT_PERMISSIONS) != 0) {
+            info.setObjectPermissions((Set) fallback.deserialize(in.readBytes()));
+        }
+        return info;
+    }
+
+    private void writeStrings(BinaryOutput out, Set<String> values) {
+        out.writeVarInt(values.size());
+        for (String value : values) {
+            out.writeString(value);
+        }
+    }
+
+    private Set<String> readStrings(BinaryInput in) {
+        int size = in.readCount();
+        Set<String> values = new LinkedHashSet<>((int) (size / 0.75f) + 1);
+        for (int i = 0; i < size; i++) {
+            values.add(in.readString());
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.i5018.shiro.util;
+
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link AuthorizationInfoSerializer} 的格式兼容性，不需要 redis，字典使用内存实现
+ *
+ * @author limk
+ * @date 2020/9/17 17:40
+ */
+public class AuthorizationInfoSerializerTest {
+
+    /**
+     * 角色、字符串权限写为代号为 7 的字典编号的固定数据
+     */
+    private static final String GOLDEN = "a9020a000000000000000701010000000000000007020301";
+
+    @Test
+    public void dictionaryPayloadRoundTrips() {
+        AuthorizationInfoSerializer serializer = new AuthorizationInfoSerializer(new MemoryDictionary(7));
+        SimpleAuthorizationInfo info = info();
+        info.addObjectPermission(new WildcardPermission("user:*"));
+
+        byte[] bytes = serializer.serialize(info);
+        assertEquals((byte) 0xA9, bytes[0]);
+        assertEquals(2, bytes[1]);
+        assertInfoEquals(info, serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void unavailableDictionaryFallsBackToStrings() {
+        MemoryDictionary dictionary = new MemoryDictionary(7);
+        dictionary.available = false;
+        SimpleAuthorizationInfo info = info();
+
+        byte[] bytes = new AuthorizationInfoSerializer(dictionary).serialize(info);
+        assertInfoEquals(info, new AuthorizationInfoSerializer(new MemoryDictionary(8)).deserialize(bytes));
+    }
+
+    @Test
+    public void nullAndEmptyFieldsRoundTrip() {
+        AuthorizationInfoSerializer serializer = new AuthorizationInfoSerializer(new MemoryDictionary(7));
+        SimpleAuthorizationInfo empty = new SimpleAuthorizationInfo();
+        SimpleAuthorizationInfo emptySets = new SimpleAuthorizationInfo(new LinkedHashSet<>());
+        emptySets.setStringPermissions(new LinkedHashSet<>());
+
+        assertInfoEquals(empty, serializer.deserialize(serializer.serialize(empty)));
+        assertInfoEquals(emptySets, serializer.deserialize(serializer.serialize(emptySets)));
+        assertNull(serializer.deserialize(serializer.serialize(null)));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void idsFromAnotherDictionaryGenerationAreRejected() {
+        byte[] bytes = new AuthorizationInfoSerializer(new MemoryDictionary(7)).serialize(info());
+        new AuthorizationInfoSerializer(new MemoryDictionary(8)).deserialize(bytes);
+    }
+
+    @Test
+    public void version1PayloadIsReadOnlyWithoutDictionaryIds() {
+        MemoryDictionary unavailable = new MemoryDictionary(7);
+        unavailable.available = false;
+        byte[] strings = new AuthorizationInfoSerializer(unavailable).serialize(info());
+        strings[1] = 1;
+        assertInfoEquals(info(), new AuthorizationInfoSerializer(new MemoryDictionary(7)).deserialize(strings));
+
+        byte[] ids = new AuthorizationInfoSerializer(new MemoryDictionary(7)).serialize(info());
+        ids[1] = 1;
+        assertRejected(new AuthorizationInfoSerializer(new MemoryDictionary(7)), ids);
+    }
+
+    @Test
+    public void legacyJdkPayloadIsReadThroughFallback() {
+        AuthorizationInfoSerializer serializer = new AuthorizationInfoSerializer(new MemoryDictionary(7));
+        SimpleAuthorizationInfo info = info();
+
+        assertInfoEquals(info, serializer.deserialize(new ObjectRedisSerializer().serialize(info)));
+        assertEquals("plain", serializer.deserialize(serializer.serialize("plain")));
+    }
+
+    @Test
+    public void truncatedAndCorruptPayloadsRaiseSerializationException() {
+        AuthorizationInfoSerializer serializer = new AuthorizationInfoSerializer(new MemoryDictionary(7));
+        MemoryDictionary unavailable = new MemoryDictionary(7);
+        unavailable.available = false;
+        for (byte[] bytes : Arrays.asList(serializer.serialize(info()),
+                new AuthorizationInfoSerializer(unavailable).serialize(info()))) {
+            for (int length = 1; length < bytes.length; length++) {
+                assertRejected(serializer, Arrays.copyOf(bytes, length));
+            }
+        }
+
+        byte[] valid = serializer.serialize(info());
+        for (byte version : new byte[]{0, 3, (byte) 0xFF}) {
+            byte[] bytes = valid.clone();
+            bytes[1] = version;
+            assertRejected(serializer, bytes);
+        }
+        // 编号不存在
+        assertRejected(serializer, new byte[]{(byte) 0xA9, 2, 2, 0, 0, 0, 0, 0, 0, 0, 7, 1, 99});
+    }
+
+    @Test
+    public void goldenPayloadIsStable() {
+        AuthorizationInfoSerializer serializer = new AuthorizationInfoSerializer(new MemoryDictionary(7));
+        SimpleAuthorizationInfo info = new SimpleAuthorizationInfo(new LinkedHashSet<>(Arrays.asList("admin")));
+        info.setStringPermissions(new LinkedHashSet<>(Arrays.asList("user:read", "user:write")));
+
+        assertEquals(GOLDEN, hex(serializer.serialize(info)));
+        assertInfoEquals(info, serializer.deserialize(bytes(GOLDEN)));
+    }
+
+    private static SimpleAuthorizationInfo info() {
+        SimpleAuthorizationInfo info = new SimpleAuthorizationInfo(new LinkedHashSet<>(Arrays.asList("admin", "user")));
+        info.setStringPermissions(new LinkedHashSet<>(Arrays.asList("user:read", "user:write", "role:read")));
+        return info;
+    }
+
+    private static void assertInfoEquals(SimpleAuthorizationInfo expected, Object actual) {
+        assertTrue(String.valueOf(actual), actual instanceof SimpleAuthorizationInfo);
+        SimpleAuthorizationInfo info = (SimpleAuthorizationInfo) actual;
+        assertEquals(expected.getRoles(), info.getRoles());
+        assertEquals(expected.getStringPermissions(), info.getStringPermissions());
+        assertEquals(expected.getObjectPermissions(), info.getObjectPermissions());
+    }
+
+    private static void assertRejected(AuthorizationInfoSerializer serializer, byte[] bytes) {
+        try {
+            Object result = serializer.deserialize(bytes);
+            fail("corrupt payload " + hex(bytes) + " was accepted as " + result);
+        } catch (SerializationException expected) {
+            // expected
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * 内存字典，编号按首次出现的顺序分配
+     */
+    private static final class MemoryDictionary extends RedisDictionary {
+
+        private final long generation;
+
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private final Map<Integer, String> values = new HashMap<>();
+
+        private boolean available = true;
+
+        private MemoryDictionary(long generation) {
+            super(null, "test");
+            this.generation = generation;
+            for (String value : Arrays.asList("admin", "user", "user:read", "user:write", "role:read")) {
+                ids.put(value, ids.size() + 1);
+                values.put(ids.get(value), value);
+            }
+        }
+
+        @Override
+        public Ids encode(Collection<String> strings) {
+            if (!available) {
+                return null;
+            }
+            int[] result = new int[strings.size()];
+            int i = 0;
+            for (String string : strings) {
+                Integer id = ids.get(string);
+                if (id == null) {
+                    id = ids.size() + 1;
+                    ids.put(string, id);
+                    values.put(id, string);
+                }
+                result[i++] = id;
+            }
+            return new Ids(generation, result);
+        }
+
+        @Override
+        public Set<String> decode(Ids encoded) {
+            if (encoded.getGeneration() != generation) {
+                throw new SerializationException("Dictionary generation mismatch");
+            }
+            Set<String> result = new LinkedHashSet<>();
+            for (int id : encoded.getIds()) {
+                String value = values.get(id);
+                if (value == null) {
+                    throw new SerializationException("Unknown dictionary id " + id);
+                }
+                result.add(value);
+            }
+            return result;
+        }
+    }
+
+}
@@ -4,6 +4,9 @@ import com.i5018.shiro.authc.UserPrincipal;
 import com.i5018.shiro.constant.ShiroConstant;
 import com.i5018.shiro.cache.ExpiredCache;
 import com.i5018.shiro.cache.ExpiredCacheManager;
+import com.i5018.shiro.cache.RedisCache;
+import com.i5018.shiro.cache.RedisCacheConfig;
+import com.i5018.shiro.cache.RedisCacheManager;
 import com.i5018.shiro.util.WebUtil;
 import org.apache.shiro.authc.UnknownAccountException;
 import org.apache.shiro.session.Session;
@@ -52,7 +55,18 @@ public class KickOutSessionControlFilter extends AccessControlFilter {
     private final ExpiredCache<String, Deque<Serializable>> cache;
     private final SessionManager sessionManager;
 
+    /**
+     * 使用 {@link RedisCacheManager} 且未单独配置时，队列缓存启用滑动过期，
+     * 队列未变化时由读取续期，不再每次请求都回写
+     */
     public KickOutSessionControlFilter(ExpiredCacheManager cacheManager, SessionManager sessionManager) {
+        if (cacheManager instanceof RedisCacheManager) {
+            RedisCacheConfig config = ((RedisCacheManager) cacheManager)
+                    .getCacheConfig(ShiroConstant.DEFAULT_KICK_OUT_CACHE);
+            if (config.getSlidingExpiration() == null) {
+                config.setSlidingExpiration(true);
+            }
+        }
         this.cache = cacheManager.getCache(ShiroConstant.DEFAULT_KICK_OUT_CACHE);
         this.sessionManager = sessionManager;
     }
@@ -87,14 +101,17 @@ public class KickOutSessionControlFilter extends AccessControlFilter {
         synchronized (cache) {
             // 初始化用户的队列放到缓存里
             Deque<Serializable> deque = cache.get(username);
+            boolean changed = false;
             if (deque == null) {
                 deque = new LinkedList<>();
+                changed = true;
             }
 
             // 如果队列里没有此sessionId且用户没有被踢出，放入队列
             if (!deque.contains(sessionId) && session.getAttribute(ShiroConstant.DEFAULT_KICK_OUT_RETRY) == null) {
                 session.setAttribute(ShiroConstant.DEFAULT_KICK_OUT_SUBJECT, username);
                 deque.push(sessionId);
+                changed = true;
             }
 
             // 如果队列里的sessionId数超出最大会话数，开始踢人
@@ -108,6 +125,7 @@ public class KickOutSessionControlFilter extends AccessControlFilter {
                     // 踢出前者
                     kickOutSessionId = deque.removeLast();
                 }
+                changed = true;
                 try {
                     Session kickOutSession = sessionManager.getSession(new DefaultSessionKey(kickOutSessionId));
                     if (kickOutSession != null) {
@@ -119,7 +137,10 @@ public class KickOutSessionControlFilter extends AccessControlFilter {
                 }
             }
 
-            cache.put(username, deque);
+            // 队列未变化且缓存滑动过期时由读取续期，不再回写
+            if (changed || !isSlidingExpiration()) {
+                cache.put(username, deque);
+            }
         }
 
         // 如果被踢出了，直接退出，重定向到踢出后的地址
@@ -142,6 +163,10 @@ public class KickOutSessionControlFilter extends AccessControlFilter {
         return true;
     }
 
+    private boolean isSlidingExpiration() {
+        return cache instanceof RedisCache && ((RedisCache<?, ?>) cache).isSlidingExpiration();
+    }
+
     public void setKickOutUrl(String kickOutUrl) {
         this.kickOutUrl = kickOutUrl;
     }
@@ -0,0 +1,50 @@
+package com.i5018.shiro.filter;
+
+import com.i5018.shiro.util.RedisRequestContext;
+import org.apache.shiro.web.servlet.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * 为每个请求绑定 {@link RedisRequestContext}，请求内的会话/缓存操作共用一个 redis 连接，
+ * 会话续期等延迟写操作在请求结束时通过一次管道发送
+ * <p>
+ * 会话在 ShiroFilter 中读取和更新，需要作为普通 Servlet Filter 注册在 ShiroFilter 之前
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/14 15:00
+ */
+public class RedisRequestContextFilter extends OncePerRequestFilter {
+
+    /**
+     * 是否允许延迟写
+     */
+    private boolean deferWrites = true;
+
+    @Override
+    protected void doFilterInternal(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean bound = RedisRequestContext.bind(deferWrites);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (bound) {
+                RedisRequestContext.release();
+            }
+        }
+    }
+
+    public boolean isDeferWrites() {
+        return deferWrites;
+    }
+
+    public void setDeferWrites(boolean deferWrites) {
+        this.deferWrites = deferWrites;
+    }
+
+}
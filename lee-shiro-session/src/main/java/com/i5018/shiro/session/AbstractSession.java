@@ -4,7 +4,9 @@ import org.apache.shiro.session.mgt.SimpleSession;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 由于SimpleSession lastAccessTime更改后也会调用SessionDao update方法，
@@ -13,6 +15,9 @@ import java.util.Map;
  * Session Attribute
  * DefaultSubjectContext.PRINCIPALS_SESSION_KEY 保存 principal
  * DefaultSubjectContext.AUTHENTICATED_SESSION_KEY 保存 boolean是否登陆
+ * <p>
+ * 同时记录变更过的属性 key，供按字段存储的会话仓库只写入变更的属性，
+ * 见 {@link com.i5018.shiro.session.repository.HashSessionRepositoryImpl}
  *
  * @author limk
  * @date 2020/9/1 21:45
@@ -20,11 +25,28 @@ import java.util.Map;
  */
 public abstract class AbstractSession extends SimpleSession implements Serializable {
 
+    /**
+     * 固定为加入变更记录前的默认值，兼容已保存的 JDK 序列化会话
+     */
+    private static final long serialVersionUID = -5113668994682443444L;
+
     /**
      * 除lastAccessTime以外其他字段发生改变时为true
      */
     private boolean isChanged;
 
+    /**
+     * 上次取出后设置或移除过的属性 key，不参与序列化。
+     * 缓存中的会话会被同一会话的并发请求共享，记录与取出都在 this 上同步，
+     * 取出后的集合不再被修改
+     */
+    private transient Set<Object> changedAttributes;
+
+    /**
+     * 属性是否被整体替换，为true时需要重写全部属性
+     */
+    private transient boolean attributesReplaced;
+
     public AbstractSession() {
         super();
         this.setChanged(true);
@@ -65,10 +87,22 @@ public abstract class AbstractSession extends SimpleSession implements Serializa
         this.setChanged(true);
     }
 
+    /**
+     * 原属性为空时（包括 SimpleSession 首次设置属性时的延迟初始化）只记录新属性的 key，
+     * 否则标记为整体替换
+     */
     @Override
     public void setAttributes(Map<Object, Object> attributes) {
+        Map<Object, Object> previous = super.getAttributes();
         super.setAttributes(attributes);
         this.setChanged(true);
+        if (previous != null && !previous.isEmpty()) {
+            this.markAttributesReplaced();
+        } else if (attributes != null) {
+            for (Object key : attributes.keySet()) {
+                this.markAttributeChanged(key);
+            }
+        }
     }
 
     /**
@@ -82,11 +116,13 @@ public abstract class AbstractSession extends SimpleSession implements Serializa
         }
         super.setAttribute(key, value);
         this.setChanged(true);
+        this.markAttributeChanged(key);
     }
 
     @Override
     public Object removeAttribute(Object key) {
         this.setChanged(true);
+        this.markAttributeChanged(key);
         return super.removeAttribute(key);
     }
 
@@ -136,4 +172,35 @@ public abstract class AbstractSession extends SimpleSession implements Serializa
         this.isChanged = isChanged;
     }
 
+    /**
+     * 取出并清空变更过的属性 key
+     *
+     * @return 变更过的属性 key，属性被整体替换时返回 null
+     */
+    public synchronized Set<Object> drainChangedAttributes() {
+        Set<Object> changed = attributesReplaced ? null
+                : changedAttributes != null ? changedAttributes : new HashSet<>();
+        this.changedAttributes = null;
+        this.attributesReplaced = false;
+        return changed;
+    }
+
+    /**
+     * 标记属性被整体替换，如变更写入失败后需要在下次更新时重写全部属性
+     */
+    public synchronized void markAttributesReplaced() {
+        this.attributesReplaced = true;
+        this.changedAttributes = null;
+    }
+
+    private synchronized void markAttributeChanged(Object key) {
+        if (attributesReplaced) {
+            return;
+        }
+        if (changedAttributes == null) {
+            changedAttributes = new HashSet<>();
+        }
+        changedAttributes.add(key);
+    }
+
 }
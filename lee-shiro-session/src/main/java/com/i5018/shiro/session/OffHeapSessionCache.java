@@ -0,0 +1,516 @@
+package com.i5018.shiro.session;
+
+import com.i5018.shiro.util.ObjectRedisSerializer;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheException;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.util.Destroyable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 堆外本地会话缓存
+ * <p>
+ * 会话序列化后保存在直接内存或内存映射文件中，堆上只保留会话ID到存储块的索引，
+ * 本地命中时不需要访问 redis，缓存的会话也不会长期占用老年代。
+ * 存储区按会话ID分为 {@code segments} 段，每段独立加锁，按 {@code blockSize} 切分为固定大小的块，
+ * 一个会话占用同一段内的若干块；段内空间不足时按 LRU 淘汰，条目按会话超时时间过期。
+ * </p>
+ * <p>
+ * 通过 {@link RedisSessionDAO#setActiveSessionsCache(Cache)} 设置：
+ * <pre>
+ * RedisSessionDAO sessionDAO = new RedisSessionDAO(sessionRepository);
+ * sessionDAO.setActiveSessionsCache(new OffHeapSessionCache(256L * 1024 * 1024));
+ * </pre>
+ * 每次读取都会反序列化出新的会话对象，同一请求内由 {@link ShiroSessionManager} 复用。
+ * 只更新了最后访问时间的会话由 {@link RedisSessionDAO} 调用 {@link #touch(Serializable, Date)}，
+ * 只修改堆上索引，不重新序列化和写入存储区，读取时以索引中的最后访问时间为准。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/14 10:20
+ */
+public class OffHeapSessionCache implements Cache<Serializable, Session>, Destroyable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapSessionCache.class);
+
+    /**
+     * 默认容量 64MB
+     */
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    /**
+     * 默认块大小
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * 默认分段数
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * 分段
+     */
+    private final Segment[] segments;
+
+    /**
+     * 块大小
+     */
+    private final int blockSize;
+
+    /**
+     * 内存映射文件，使用直接内存时为空
+     */
+    private final Path file;
+
+    private RedisSerializer<Object> serializer = new ObjectRedisSerializer();
+
+    public OffHeapSessionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OffHeapSessionCache(long capacity) {
+        this(capacity, DEFAULT_BLOCK_SIZE);
+    }
+
+    public OffHeapSessionCache(long capacity, int blockSize) {
+        this(capacity, blockSize, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * 使用直接内存
+     *
+     * @param capacity  容量（字节），不超过 2GB
+     * @param blockSize 块大小
+     * @param segments  分段数，单个会话不能超过一段的容量
+     */
+    public OffHeapSessionCache(long capacity, int blockSize, int segments) {
+        this(ByteBuffer.allocateDirect(arenaSize(capacity, blockSize)), blockSize, segments, null);
+    }
+
+    public OffHeapSessionCache(Path file, long capacity, int blockSize) throws IOException {
+        this(file, capacity, blockSize, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * 使用内存映射文件，文件在 {@link #destroy()} 时删除
+     *
+     * @param file      映射文件
+     * @param capacity  容量（字节），不超过 2GB
+     * @param blockSize 块大小
+     * @param segments  分段数，单个会话不能超过一段的容量
+     */
+    public OffHeapSessionCache(Path file, long capacity, int blockSize, int segments) throws IOException {
+        this(map(file, arenaSize(capacity, blockSize)), blockSize, segments, file);
+    }
+
+    private OffHeapSessionCache(ByteBuffer arena, int blockSize, int segments, Path file) {
+        if (segments <= 0) {
+            throw new IllegalArgumentException("segments must be positive");
+        }
+        this.blockSize = blockSize;
+        this.file = file;
+
+        int blockCount = arena.capacity() / blockSize;
+        int segmentCount = Math.min(segments, blockCount);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int from = (int) ((long) blockCount * i / segmentCount);
+            int to = (int) ((long) blockCount * (i + 1) / segmentCount);
+            ByteBuffer view = arena.duplicate();
+            view.limit(to * blockSize);
+            view.position(from * blockSize);
+            this.segments[i] = new Segment(view.slice(), to - from);
+        }
+    }
+
+    @Override
+    public Session get(Serializable sessionId) throws CacheException {
+        if (sessionId == null) {
+            return null;
+        }
+
+        Segment segment = segmentFor(sessionId);
+        byte[] bytes;
+        long lastAccessTime;
+        synchronized (segment) {
+            Slot slot = segment.index.get(sessionId);
+            if (slot == null) {
+                return null;
+            }
+            if (slot.isExpired(System.currentTimeMillis())) {
+                segment.release(segment.index.remove(sessionId));
+                return null;
+            }
+            bytes = segment.read(slot);
+            lastAccessTime = slot.lastAccessTime;
+        }
+
+        Session session;
+        try {
+            session = (Session) serializer.deserialize(bytes);
+        } catch (Exception e) {
+            logger.error("deserialize off-heap session error, sessionId {}", sessionId, e);
+            remove(sessionId);
+            return null;
+        }
+        if (session instanceof SimpleSession && lastAccessTime > 0) {
+            ((SimpleSession) session).setLastAccessTime(new Date(lastAccessTime));
+        }
+        return session;
+    }
+
+    @Override
+    public Session put(Serializable sessionId, Session session) throws CacheException {
+        if (sessionId == null || session == null) {
+            return null;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = serializer.serialize(session);
+        } catch (Exception e) {
+            logger.error("serialize off-heap session error, sessionId {}", sessionId, e);
+            remove(sessionId);
+            return null;
+        }
+        if (bytes == null) {
+            remove(sessionId);
+            return null;
+        }
+
+        int blocks = (bytes.length + blockSize - 1) / blockSize;
+        Date lastAccessTime = session.getLastAccessTime();
+        Segment segment = segmentFor(sessionId);
+        synchronized (segment) {
+            segment.release(segment.index.remove(sessionId));
+            if (blocks > segment.freeBlocks.length) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("session {} of {} bytes exceeds off-heap segment capacity, skip", sessionId, bytes.length);
+                }
+                return null;
+            }
+            segment.evict(blocks);
+
+            Slot slot = new Slot(segment.allocate(blocks), bytes.length, session.getTimeout(),
+                    lastAccessTime != null ? lastAccessTime.getTime() : 0L, System.currentTimeMillis());
+            segment.write(slot, bytes);
+            segment.index.put(sessionId, slot);
+        }
+        return null;
+    }
+
+    /**
+     * 只更新已缓存会话的最后访问时间并续期，不重新序列化
+     *
+     * @param sessionId      会话ID
+     * @param lastAccessTime 最后访问时间
+     * @return 会话未缓存或已过期时返回 false，调用方应重新 {@link #put(Serializable, Session)}
+     */
+    public boolean touch(Serializable sessionId, Date lastAccessTime) {
+        if (sessionId == null || lastAccessTime == null) {
+            return false;
+        }
+
+        Segment segment = segmentFor(sessionId);
+        synchronized (segment) {
+            Slot slot = segment.index.get(sessionId);
+            long now = System.currentTimeMillis();
+            if (slot == null || slot.isExpired(now)) {
+                return false;
+            }
+            slot.touch(lastAccessTime.getTime(), now);
+            return true;
+        }
+    }
+
+    @Override
+    public Session remove(Serializable sessionId) throws CacheException {
+        if (sessionId == null) {
+            return null;
+        }
+        Segment segment = segmentFor(sessionId);
+        synchronized (segment) {
+            segment.release(segment.index.remove(sessionId));
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Slot slot : segment.index.values()) {
+                    segment.release(slot);
+                }
+                segment.index.clear();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.index.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Serializable> keys() {
+        Set<Serializable> keys = new LinkedHashSet<>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                keys.addAll(segment.index.keySet());
+            }
+        }
+        return Collections.unmodifiableSet(keys);
+    }
+
+    @Override
+    public Collection<Session> values() {
+        List<Session> sessions = new ArrayList<>();
+        for (Serializable sessionId : keys()) {
+            Session session = get(sessionId);
+            if (session != null) {
+                sessions.add(session);
+            }
+        }
+        return Collections.unmodifiableList(sessions);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        clear();
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * 已使用的字节数（按块计算）
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                used += (long) (segment.freeBlocks.length - segment.freeCount) * blockSize;
+            }
+        }
+        return used;
+    }
+
+    public long getCapacity() {
+        long capacity = 0;
+        for (Segment segment : segments) {
+            capacity += (long) segment.freeBlocks.length * blockSize;
+        }
+        return capacity;
+    }
+
+    public RedisSerializer<Object> getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(RedisSerializer<Object> serializer) {
+        this.serializer = serializer;
+    }
+
+    private Segment segmentFor(Serializable sessionId) {
+        int hash = sessionId.hashCode();
+        return segments[Math.floorMod(hash ^ (hash >>> 16), segments.length)];
+    }
+
+    private static int arenaSize(long capacity, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        long blocks = capacity / blockSize;
+        if (blocks <= 0 || blocks * blockSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity must be between blockSize and 2GB");
+        }
+        return (int) (blocks * blockSize);
+    }
+
+    private static ByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * 存储区的一段，所有字段都在段上同步访问
+     */
+    private final class Segment {
+
+        /**
+         * 本段的存储区视图，position 独立于其他段
+         */
+        private final ByteBuffer arena;
+
+        /**
+         * 空闲块栈
+         */
+        private final int[] freeBlocks;
+
+        /**
+         * 空闲块数量
+         */
+        private int freeCount;
+
+        /**
+         * 会话ID到存储块的索引，按访问顺序排列
+         */
+        private final LinkedHashMap<Serializable, Slot> index = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Segment(ByteBuffer arena, int blockCount) {
+            this.arena = arena;
+            this.freeBlocks = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                freeBlocks[i] = blockCount - 1 - i;
+            }
+            this.freeCount = blockCount;
+        }
+
+        /**
+         * 先清理过期条目，空间仍不足时按 LRU 淘汰
+         */
+        private void evict(int blocks) {
+            if (freeCount >= blocks) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<Serializable, Slot>> it = index.entrySet().iterator();
+            while (it.hasNext() && freeCount < blocks) {
+                Slot slot = it.next().getValue();
+                if (slot.isExpired(now)) {
+                    it.remove();
+                    release(slot);
+                }
+            }
+
+            it = index.entrySet().iterator();
+            while (it.hasNext() && freeCount < blocks) {
+                Map.Entry<Serializable, Slot> entry = it.next();
+                it.remove();
+                release(entry.getValue());
+                if (logger.isDebugEnabled()) {
+                    logger.debug("evict off-heap session {}", entry.getKey());
+                }
+            }
+        }
+
+        private int[] allocate(int blocks) {
+            int[] allocated = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                allocated[i] = freeBlocks[--freeCount];
+            }
+            return allocated;
+        }
+
+        private void release(Slot slot) {
+            if (slot == null) {
+                return;
+            }
+            for (int block : slot.blocks) {
+                freeBlocks[freeCount++] = block;
+            }
+        }
+
+        private void write(Slot slot, byte[] bytes) {
+            int offset = 0;
+            for (int block : slot.blocks) {
+                int length = Math.min(blockSize, bytes.length - offset);
+                arena.position(block * blockSize);
+                arena.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private byte[] read(Slot slot) {
+            byte[] bytes = new byte[slot.length];
+            int offset = 0;
+            for (int block : slot.blocks) {
+                int length = Math.min(blockSize, bytes.length - offset);
+                arena.position(block * blockSize);
+                arena.get(bytes, offset, length);
+                offset += length;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * 会话占用的存储块
+     */
+    private static final class Slot {
+
+        /**
+         * 块编号
+         */
+        private final int[] blocks;
+
+        /**
+         * 序列化后的长度
+         */
+        private final int length;
+
+        /**
+         * 会话超时时间（毫秒），不大于 0 时不过期
+         */
+        private final long timeout;
+
+        /**
+         * 最后访问时间，touch 后比存储区中序列化的值新
+         */
+        private long lastAccessTime;
+
+        /**
+         * 过期时间
+         */
+        private long expireAt;
+
+        private Slot(int[] blocks, int length, long timeout, long lastAccessTime, long now) {
+            this.blocks = blocks;
+            this.length = length;
+            this.timeout = timeout;
+            touch(lastAccessTime, now);
+        }
+
+        private void touch(long lastAccessTime, long now) {
+            this.lastAccessTime = lastAccessTime;
+            this.expireAt = timeout > 0 ? now + timeout : Long.MAX_VALUE;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expireAt;
+        }
+    }
+
+}
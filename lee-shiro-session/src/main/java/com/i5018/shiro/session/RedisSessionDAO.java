@@ -1,6 +1,8 @@
 package com.i5018.shiro.session;
 
+import com.i5018.shiro.session.repository.AsyncSessionRepository;
 import com.i5018.shiro.session.repository.SessionRepository;
+import org.apache.shiro.cache.Cache;
 import org.apache.shiro.session.Session;
 import org.apache.shiro.session.UnknownSessionException;
 import org.apache.shiro.session.mgt.ValidatingSession;
@@ -12,6 +14,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author limk
@@ -23,6 +26,12 @@ public class RedisSessionDAO extends CachingSessionDAO {
 
     private final SessionRepository sessionRepository;
 
+    /**
+     * 是否并行发出会话读取与续期，需要会话仓库实现 {@link AsyncSessionRepository}。
+     * 异步路径不使用请求上下文连接与本地降级存储，出错时会话视为不存在，默认关闭
+     */
+    private boolean asyncRead = false;
+
     public RedisSessionDAO(SessionRepository sessionRepository) {
         this.sessionRepository = sessionRepository;
     }
@@ -64,15 +73,24 @@ public class RedisSessionDAO extends CachingSessionDAO {
     protected Session doReadSession(Serializable sessionId) {
         Session session = null;
         try {
-            session = sessionRepository.getSession(sessionId);
-            if (session != null) {
-                // 重置 Redis中缓存过期时间
-                sessionRepository.refreshSession(sessionId);
-
-                if (logger.isDebugEnabled()) {
-                    logger.debug("read and refreshed sessionId {}", sessionId);
+            if (asyncRead && sessionRepository instanceof AsyncSessionRepository) {
+                // 读取与重置过期时间同时发出，只等待一次往返
+                AsyncSessionRepository asyncRepository = (AsyncSessionRepository) sessionRepository;
+                CompletableFuture<Session> read = asyncRepository.getSessionAsync(sessionId);
+                CompletableFuture<Void> refresh = asyncRepository.refreshSessionAsync(sessionId);
+                session = read.join();
+                refresh.join();
+            } else {
+                session = sessionRepository.getSession(sessionId);
+                if (session != null) {
+                    // 重置 Redis中缓存过期时间
+                    sessionRepository.refreshSession(sessionId);
                 }
             }
+
+            if (session != null && logger.isDebugEnabled()) {
+                logger.debug("read and refreshed sessionId {}", sessionId);
+            }
         } catch (Exception e) {
             logger.error("read and refreshed Session error", e);
         }
@@ -128,9 +146,28 @@ public class RedisSessionDAO extends CachingSessionDAO {
         return sessionId;
     }
 
+    /**
+     * 重写CachingSessionDAO中update方法，只更新了lastAccessTime（touch）时不会写入Redis，
+     * 使用 {@link OffHeapSessionCache} 时也不再重新序列化整个会话放入缓存，只更新缓存中的最后访问时间
+     *
+     * @param session {@link org.apache.shiro.session.Session}
+     * @throws UnknownSessionException 找不到Session异常
+     */
+    @Override
+    public void update(Session session) throws UnknownSessionException {
+        Cache<Serializable, Session> cache = getActiveSessionsCache();
+        if (session instanceof ShiroSession && !((ShiroSession) session).isChanged()
+                && cache instanceof OffHeapSessionCache
+                && ((OffHeapSessionCache) cache).touch(session.getId(), session.getLastAccessTime())) {
+            return;
+        }
+        super.update(session);
+    }
+
     /**
      * 更新会话
      * <p>更新会话最后访问时间/停止会话/设置超时时间/设置移除属性等会调用</p>
+     * <p>使用 {@link com.i5018.shiro.session.repository.HashSessionRepositoryImpl} 时只写入变更过的属性</p>
      *
      * @param session {@link org.apache.shiro.session.Session}
      */
@@ -199,6 +236,10 @@ public class RedisSessionDAO extends CachingSessionDAO {
         return sessions;
     }
 
+    public void setAsyncRead(boolean asyncRead) {
+        this.asyncRead = asyncRead;
+    }
+
     /**
      * 获取存货session的数量
      *
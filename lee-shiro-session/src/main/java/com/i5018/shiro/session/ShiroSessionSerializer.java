@@ -0,0 +1,496 @@
+package com.i5018.shiro.session;
+
+import com.i5018.shiro.authc.UserPrincipal;
+import com.i5018.shiro.constant.ShiroConstant;
+import com.i5018.shiro.constant.ShiroUserStateEnum;
+import com.i5018.shiro.util.BinaryInput;
+import com.i5018.shiro.util.BinaryOutput;
+import com.i5018.shiro.util.ObjectRedisSerializer;
+import com.i5018.shiro.util.RedisDictionary;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.apache.shiro.web.util.WebUtils;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ShiroSession} 专用的二进制序列化
+ * <p>
+ * 按固定结构写入会话ID、时间戳（long）、超时时间、host、标识位和属性，
+ * 常用属性 key（登录信息、认证标识、踢出标识等）写为编号，{@link SimplePrincipalCollection}
+ * 与 {@link UserPrincipal} 按字段写入，其余属性值退回 {@code fallback} 序列化。
+ * </p>
+ * <p>
+ * 数据以魔数和版本号开头；读取时不是该格式的数据（如已有的 JDK 序列化数据）以及非 ShiroSession 对象
+ * 都交给 {@code fallback} 处理，可以直接替换 {@link com.i5018.shiro.session.repository.SessionRepositoryImpl}
+ * 原有的 value 序列化工具。新增字段或常用 key 时只能追加并升级版本号。
+ * </p>
+ * <p>
+ * 配置 {@link RedisDictionary} 后 {@link UserPrincipal} 的角色与权限连同字典代号写为字典编号（版本 3），
+ * 字典不可用时仍写为字符串；未配置字典时仍写版本 1，应先在所有节点升级后再配置字典。
+ * 版本 2 的编号不带代号无法校验，读取到其中的编号时拒绝。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/15 10:10
+ */
+public class ShiroSessionSerializer implements RedisSerializer<Object> {
+
+    private static final byte MAGIC = (byte) 0xB5;
+
+    /**
+     * 角色、权限只以字符串写入的版本
+     */
+    private static final byte VERSION_STRINGS = 1;
+
+    /**
+     * 角色、权限写为不带字典代号的编号的版本，只读取其中的字符串
+     */
+    private static final byte VERSION_WITHOUT_GENERATION = 2;
+
+    /**
+     * 角色、权限可以写为字典编号的版本，仅在配置了字典时写入
+     */
+    private static final byte VERSION = 3;
+
+    /**
+     * 常用属性 key，按下标编号，只能追加
+     */
+    private static final String[] WELL_KNOWN_KEYS = {
+            DefaultSubjectContext.PRINCIPALS_SESSION_KEY,
+            DefaultSubjectContext.AUTHENTICATED_SESSION_KEY,
+            WebUtils.SAVED_REQUEST_KEY,
+            ShiroConstant.DEFAULT_KICK_OUT_SUBJECT,
+            ShiroConstant.DEFAULT_KICK_OUT_RETRY
+    };
+
+    private static final Map<String, Integer> WELL_KNOWN_KEY_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < WELL_KNOWN_KEYS.length; i++) {
+            WELL_KNOWN_KEY_INDEX.put(WELL_KNOWN_KEYS[i], i);
+        }
+    }
+
+    private static final int FLAG_EXPIRED = 1;
+    private static final int FLAG_CHANGED = 1 << 1;
+    private static final int FLAG_STOPPED = 1 << 2;
+    private static final int FLAG_HOST = 1 << 3;
+    private static final int FLAG_STRING_ID = 1 << 4;
+
+    private static final byte KEY_WELL_KNOWN = 0;
+    private static final byte KEY_STRING = 1;
+    private static final byte KEY_OBJECT = 2;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_TRUE = 2;
+    private static final byte VALUE_FALSE = 3;
+    private static final byte VALUE_INT = 4;
+    private static final byte VALUE_LONG = 5;
+    private static final byte VALUE_DATE = 6;
+    private static final byte VALUE_PRINCIPALS = 7;
+    private static final byte VALUE_USER_PRINCIPAL = 8;
+    private static final byte VALUE_OBJECT = 9;
+
+    private static final int USER_ID = 1;
+    private static final int USER_USERNAME = 1 << 1;
+    private static final int USER_PASSWORD = 1 << 2;
+    private static final int USER_SALT = 1 << 3;
+    private static final int USER_STATE = 1 << 4;
+    private static final int USER_ROLES = 1 << 5;
+    private static final int USER_PERMISSIONS = 1 << 6;
+    private static final int USER_ROLE_IDS = 1 << 7;
+    private static final int USER_PERMISSION_IDS = 1 << 8;
+
+    /**
+     * 超过该大小的输出缓冲区不在线程内保留
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<BinaryOutput> OUTPUT = ThreadLocal.withInitial(() -> new BinaryOutput(512));
+
+    /**
+     * 非 ShiroSession 对象、未知属性值以及旧格式数据的序列化工具
+     */
+    private final RedisSerializer<Object> fallback;
+
+    /**
+     * 角色、权限字典，为空时按字符串写入
+     */
+    private RedisDictionary dictionary;
+
+    public ShiroSessionSerializer() {
+        this(new ObjectRedisSerializer());
+    }
+
+    public ShiroSessionSerializer(RedisSerializer<Object> fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public byte[] serialize(Object o) throws SerializationException {
+        if (o == null) {
+            return new byte[0];
+        }
+        if (o.getClass() != ShiroSession.class) {
+            return fallback.serialize(o);
+        }
+
+        BinaryOutput out = OUTPUT.get();
+        out.reset();
+        try {
+            writeSession(out, (ShiroSession) o);
+            return out.toByteArray();
+        } catch (RuntimeException e) {
+            throw new SerializationException("Failed to serialize session " + ((ShiroSession) o).getId(), e);
+        } finally {
+            if (out.capacity() > MAX_RETAINED_BUFFER) {
+                OUTPUT.remove();
+            }
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != MAGIC) {
+            return fallback.deserialize(bytes);
+        }
+        if (bytes.length < 2 || bytes[1] < VERSION_STRINGS || bytes[1] > VERSION) {
+            throw new SerializationException("Unsupported session codec version "
+                    + (bytes.length < 2 ? "<missing>" : String.valueOf(bytes[1])));
+        }
+
+        try {
+            return readSession(new BinaryInput(bytes, 2), bytes[1]);
+        } catch (RuntimeException e) {
+            throw new SerializationException("Failed to deserialize session payload", e);
+        }
+    }
+
+    private void writeSession(BinaryOutput out, ShiroSession session) {
+        Serializable id = session.getId();
+        int flags = 0;
+        if (session.isExpired()) {
+            flags |= FLAG_EXPIRED;
+        }
+        if (session.isChanged()) {
+            flags |= FLAG_CHANGED;
+        }
+        if (session.getStopTimestamp() != null) {
+            flags |= FLAG_STOPPED;
+        }
+        if (session.getHost() != null) {
+            flags |= FLAG_HOST;
+        }
+        if (id instanceof String) {
+            flags |= FLAG_STRING_ID;
+        }
+
+        out.writeByte(MAGIC);
+        out.writeByte(dictionary != null ? VERSION : VERSION_STRINGS);
+        out.writeByte(flags);
+        if (id instanceof String) {
+            out.writeString((String) id);
+        } else {
+            out.writeBytes(fallback.serialize(id));
+        }
+        out.writeLong(time(session.getStartTimestamp()));
+        out.writeLong(time(session.getLastAccessTime()));
+        if (session.getStopTimestamp() != null) {
+            out.writeLong(session.getStopTimestamp().getTime());
+        }
+        out.writeVarLong(session.getTimeout());
+        if (session.getHost() != null) {
+            out.writeString(session.getHost());
+        }
+
+        Map<Object, Object> attributes = session.getAttributes();
+        if (attributes == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        out.writeVarInt(attributes.size());
+        for (Map.Entry<Object, Object> entry : attributes.entrySet()) {
+            writeKey(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private ShiroSession readSession(BinaryInput in, byte version) {
+        int flags = in.readByte();
+        ShiroSession session = new ShiroSession();
+        session.setId((flags & FLAG_STRING_ID) != 0 ? in.readString() : (Serializable) fallback.deserialize(in.readBytes()));
+        session.setStartTimestamp(new Date(in.readLong()));
+        session.setLastAccessTime(new Date(in.readLong()));
+        if ((flags & FLAG_STOPPED) != 0) {
+            session.setStopTimestamp(new Date(in.readLong()));
+        }
+        session.setTimeout(in.readVarLong());
+        if ((flags & FLAG_HOST) != 0) {
+            session.setHost(in.readString());
+        }
+        session.setExpired((flags & FLAG_EXPIRED) != 0);
+
+        int size = in.readCount();
+        if (size > 0) {
+            Map<Object, Object> attributes = new HashMap<>((int) (size / 0.75f) + 1);
+            for (int i = 0; i < size; i++) {
+                Object key = readKey(in);
+                attributes.put(key, readValue(in, version));
+            }
+            session.setAttributes(attributes);
+        }
+        session.setChanged((flags & FLAG_CHANGED) != 0);
+        return session;
+    }
+
+    private void writeKey(BinaryOutput out, Object key) {
+        if (key instanceof String) {
+            Integer index = WELL_KNOWN_KEY_INDEX.get(key);
+            if (index != null) {
+                out.writeByte(KEY_WELL_KNOWN);
+                out.writeVarInt(index);
+            } else {
+                out.writeByte(KEY_STRING);
+                out.writeString((String) key);
+            }
+        } else {
+            out.writeByte(KEY_OBJECT);
+            out.writeBytes(fallback.serialize(key));
+        }
+    }
+
+    private Object readKey(BinaryInput in) {
+        byte type = in.readByte();
+        switch (type) {
+            case KEY_WELL_KNOWN:
+                int index = in.readVarInt();
+                if (index >= WELL_KNOWN_KEYS.length) {
+                    throw new IllegalStateException("Unknown well-known attribute key " + index);
+                }
+                return WELL_KNOWN_KEYS[index];
+            case KEY_STRING:
+                return in.readString();
+            case KEY_OBJECT:
+                return fallback.deserialize(in.readBytes());
+            default:
+                throw new IllegalStateException("Unknown attribute key type " + type);
+        }
+    }
+
+    private void writeValue(BinaryOutput out, Object value) {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+        } else if (value instanceof Integer) {
+            out.writeByte(VALUE_INT);
+            out.writeVarLong((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeVarLong((Long) value);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(VALUE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value.getClass() == SimplePrincipalCollection.class) {
+            out.writeByte(VALUE_PRINCIPALS);
+            writePrincipals(out, (SimplePrincipalCollection) value);
+        } else if (value.getClass() == UserPrincipal.class) {
+            out.writeByte(VALUE_USER_PRINCIPAL);
+            writeUserPrincipal(out, (UserPrincipal) value);
+        } else {
+            out.writeByte(VALUE_OBJECT);
+            out.writeBytes(fallback.serialize(value));
+        }
+    }
+
+    private Object readValue(BinaryInput in, byte version) {
+        byte type = in.readByte();
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return in.readString();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_INT:
+                return (int) in.readVarLong();
+            case VALUE_LONG:
+                return in.readVarLong();
+            case VALUE_DATE:
+                return new Date(in.readLong());
+            case VALUE_PRINCIPALS:
+                return readPrincipals(in, version);
+            case VALUE_USER_PRINCIPAL:
+                return readUserPrincipal(in, version);
+            case VALUE_OBJECT:
+                return fallback.deserialize(in.readBytes());
+            default:
+                throw new IllegalStateException("Unknown attribute value type " + type);
+        }
+    }
+
+    private void writePrincipals(BinaryOutput out, SimplePrincipalCollection principals) {
+        Set<String> realmNames = principals.getRealmNames();
+        out.writeVarInt(realmNames.size());
+        for (String realmName : realmNames) {
+            Collection<?> realmPrincipals = principals.fromRealm(realmName);
+            out.writeString(realmName);
+            out.writeVarInt(realmPrincipals.size());
+            for (Object principal : realmPrincipals) {
+                writeValue(out, principal);
+            }
+        }
+    }
+
+    private SimplePrincipalCollection readPrincipals(BinaryInput in, byte version) {
+        SimplePrincipalCollection principals = new SimplePrincipalCollection();
+        int realms = in.readVarInt();
+        for (int i = 0; i < realms; i++) {
+            String realmName = in.readString();
+            int count = in.readVarInt();
+            for (int j = 0; j < count; j++) {
+                principals.add(readValue(in, version), realmName);
+            }
+        }
+        return principals;
+    }
+
+    private void writeUserPrincipal(BinaryOutput out, UserPrincipal user) {
+        RedisDictionary.Ids roleIds = encode(user.getRoles());
+        RedisDictionary.Ids permissionIds = encode(user.getPermissions());
+
+        int fields = 0;
+        fields |= user.getId() != null ? USER_ID : 0;
+        fields |= user.getUsername() != null ? USER_USERNAME : 0;
+        fields |= user.getPassword() != null ? USER_PASSWORD : 0;
+        fields |= user.getSalt() != null ? USER_SALT : 0;
+        fields |= user.getState() != null ? USER_STATE : 0;
+        fields |= roleIds != null ? USER_ROLE_IDS : user.getRoles() != null ? USER_ROLES : 0;
+        fields |= permissionIds != null ? USER_PERMISSION_IDS : user.getPermissions() != null ? USER_PERMISSIONS : 0;
+
+        out.writeVarInt(fields);
+        if (user.getId() != null) {
+            out.writeVarLong(user.getId());
+        }
+        if (user.getUsername() != null) {
+            out.writeString(user.getUsername());
+        }
+        if (user.getPassword() != null) {
+            out.writeString(user.getPassword());
+        }
+        if (user.getSalt() != null) {
+            out.writeString(user.getSalt());
+        }
+        if (user.getState() != null) {
+            out.writeByte(user.getState());
+        }
+        if (roleIds != null) {
+            RedisDictionary.writeIds(out, roleIds);
+        } else if (user.getRoles() != null) {
+            writeStrings(out, user.getRoles());
+        }
+        if (permissionIds != null) {
+            RedisDictionary.writeIds(out, permissionIds);
+        } else if (user.getPermissions() != null) {
+            writeStrings(out, user.getPermissions());
+        }
+    }
+
+    private UserPrincipal readUserPrincipal(BinaryInput in, byte version) {
+        int fields = in.readVarInt();
+        if (version == VERSION_WITHOUT_GENERATION && (fields & (USER_ROLE_IDS | USER_PERMISSION_IDS)) != 0) {
+            throw new SerializationException("Dictionary ids written without generation");
+        }
+        UserPrincipal user = new UserPrincipal(null, null, null, null, ShiroUserStateEnum.NORMAL);
+        user.setState(null);
+        if ((fields & USER_ID) != 0) {
+            user.setId(in.readVarLong());
+        }
+        if ((fields & USER_USERNAME) != 0) {
+            user.setUsername(in.readString());
+        }
+        if ((fields & USER_PASSWORD) != 0) {
+            user.setPassword(in.readString());
+        }
+        if ((fields & USER_SALT) != 0) {
+            user.setSalt(in.readString());
+        }
+        if ((fields & USER_STATE) != 0) {
+            user.setState(in.readByte());
+        }
+        if ((fields & USER_ROLES) != 0) {
+            user.setRoles(readStrings(in));
+        }
+        if ((fields & USER_PERMISSIONS) != 0) {
+            user.setPermissions(readStrings(in));
+        }
+        if ((fields & USER_ROLE_IDS) != 0) {
+            user.setRoles(decode(in));
+        }
+        if ((fields & USER_PERMISSION_IDS) != 0) {
+            user.setPermissions(decode(in));
+        }
+        return user;
+    }
+
+    private void writeStrings(BinaryOutput out, Set<String> values) {
+        out.writeVarInt(values.size());
+        for (String value : values) {
+            out.writeString(value);
+        }
+    }
+
+    private Set<String> readStrings(BinaryInput in) {
+        int size = in.readCount();
+        Set<String> values = new LinkedHashSet<>((int) (size / 0.75f) + 1);
+        for (int i = 0; i < size; i++) {
+            values.add(in.readString());
+        }
+        return values;
+    }
+
+    /**
+     * 字典编号，未配置字典或字典不可用时返回 null，由调用方按字符串写入
+     */
+    private RedisDictionary.Ids encode(Set<String> values) {
+        return dictionary != null && values != null ? dictionary.encode(values) : null;
+    }
+
+    private Set<String> decode(BinaryInput in) {
+        if (dictionary == null) {
+            throw new IllegalStateException("Session payload references dictionary ids but no dictionary is configured");
+        }
+        return dictionary.decode(RedisDictionary.readIds(in));
+    }
+
+    public RedisDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(RedisDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    private static long time(Date date) {
+        return date != null ? date.getTime() : 0L;
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.i5018.shiro.session.repository;
+
+import org.apache.shiro.session.Session;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步会话存储，可以让会话读取与其他 redis 访问并行执行
+ *
+ * @author limk
+ * @date 2020/9/10 17:20
+ */
+public interface AsyncSessionRepository extends SessionRepository {
+
+    /**
+     * 异步更新会话
+     *
+     * @param session {@link org.apache.shiro.session.Session}
+     * @return 更新完成
+     */
+    CompletableFuture<Void> updateSessionAsync(Session session);
+
+    /**
+     * 异步刷新缓存重新计算过期时间
+     *
+     * @param sessionId 会话ID
+     * @return 刷新完成
+     */
+    CompletableFuture<Void> refreshSessionAsync(Serializable sessionId);
+
+    /**
+     * 异步删除会话
+     *
+     * @param sessionId 会话ID
+     * @return 删除完成
+     */
+    CompletableFuture<Void> deleteSessionAsync(Serializable sessionId);
+
+    /**
+     * 异步获取会话
+     *
+     * @param sessionId 会话ID
+     * @return {@link org.apache.shiro.session.Session}
+     */
+    CompletableFuture<Session> getSessionAsync(Serializable sessionId);
+
+}
@@ -0,0 +1,488 @@
+package com.i5018.shiro.session.repository;
+
+import com.i5018.shiro.session.AbstractSession;
+import com.i5018.shiro.session.ShiroSession;
+import com.i5018.shiro.util.LuaScript;
+import com.i5018.shiro.util.ObjectRedisSerializer;
+import com.i5018.shiro.util.RedisKeyCodec;
+import com.i5018.shiro.util.RedisRequestContext;
+import com.i5018.shiro.util.RedisUtil;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按字段存储的会话仓库
+ * <p>
+ * 每个会话保存为一个 hash，基本字段（ID、时间戳、超时时间、host 等）与每个属性各占一个字段，
+ * 属性值使用 {@code serializerValue} 单独序列化。更新 {@link AbstractSession} 时只写入变更过的属性，
+ * 如设置踢出标识时不会重新序列化登录信息和 SavedRequest；基本字段只有几个字节，每次更新都写入。
+ * 变更写入与续期在同一个 Lua 脚本中执行，会话已不存在或属性被整体替换时重写整个 hash。
+ * </p>
+ * <p>
+ * 与 {@link SessionRepositoryImpl} 的存储格式不兼容，两者不能共用 key 前缀；不支持会话索引与本地降级。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/16 16:30
+ */
+public class HashSessionRepositoryImpl implements SessionRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashSessionRepositoryImpl.class);
+
+    private static final String DEFAULT_REDIS_SHIRO_SESSION = "shiro:hsession:";
+
+    private static final byte[] FIELD_ID = bytes("id");
+    private static final byte[] FIELD_START_TIMESTAMP = bytes("startTimestamp");
+    private static final byte[] FIELD_STOP_TIMESTAMP = bytes("stopTimestamp");
+    private static final byte[] FIELD_LAST_ACCESS_TIME = bytes("lastAccessTime");
+    private static final byte[] FIELD_TIMEOUT = bytes("timeout");
+    private static final byte[] FIELD_EXPIRED = bytes("expired");
+    private static final byte[] FIELD_HOST = bytes("host");
+
+    /**
+     * 字符串属性 key 的字段前缀
+     */
+    private static final byte[] ATTRIBUTE_PREFIX = bytes("attr:");
+
+    /**
+     * 其他属性 key 的字段前缀，后接 key 的序列化结果
+     */
+    private static final byte[] OBJECT_ATTRIBUTE_PREFIX = bytes("attr#");
+
+    /**
+     * KEYS[1] 会话key; ARGV[1] 有效期(秒) ARGV[2..] 字段与值
+     */
+    private static final LuaScript REPLACE = new LuaScript(
+            "redis.call('DEL', KEYS[1]) "
+                    + "redis.call('HMSET', KEYS[1], unpack(ARGV, 2)) "
+                    + "return redis.call('EXPIRE', KEYS[1], ARGV[1])");
+
+    /**
+     * KEYS[1] 会话key; ARGV[1] 有效期(秒) ARGV[2] 写入的字段数n ARGV[3..2+2n] 字段与值 其余为删除的字段；
+     * 会话不存在时返回 0，避免写出缺少基本字段的 hash
+     */
+    private static final LuaScript UPDATE = new LuaScript(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end "
+                    + "local n = tonumber(ARGV[2]) "
+                    + "if n > 0 then redis.call('HMSET', KEYS[1], unpack(ARGV, 3, 2 + 2 * n)) end "
+                    + "if #ARGV > 2 + 2 * n then redis.call('HDEL', KEYS[1], unpack(ARGV, 3 + 2 * n)) end "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "return 1");
+
+    /**
+     * redis连接工厂
+     */
+    private final RedisConnectionFactory redisConnectionFactory;
+
+    /**
+     * 缓存前缀
+     */
+    private String keyPrefix = DEFAULT_REDIS_SHIRO_SESSION;
+
+    /**
+     * 缓存有效期（秒）
+     */
+    private Duration expiration = Duration.ofSeconds(1800);
+
+    /**
+     * key序列化工具
+     */
+    private RedisSerializer<String> serializerKey = new StringRedisSerializer();
+
+    /**
+     * 会话ID与属性值序列化工具
+     */
+    private RedisSerializer<Object> serializerValue = new ObjectRedisSerializer();
+
+    /**
+     * SCAN 每批数量
+     */
+    private int scanCount = 1000;
+
+    /**
+     * 热点会话ID编码缓存大小，同一请求内会多次读写同一会话
+     */
+    private int hotKeyCacheSize = 1024;
+
+    /**
+     * key 编码，key 序列化工具不是 UTF-8 字符串序列化时为空
+     */
+    private volatile RedisKeyCodec keyCodec;
+
+    public HashSessionRepositoryImpl(RedisConnectionFactory redisConnectionFactory) {
+        this.redisConnectionFactory = redisConnectionFactory;
+    }
+
+    @Override
+    public void saveSession(Session session) {
+        if (session == null || session.getId() == null) {
+            throw new NullPointerException("session is empty");
+        }
+
+        if (session instanceof AbstractSession) {
+            ((AbstractSession) session).drainChangedAttributes();
+        }
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            replaceSession(redisConnection, serializeSessionKey(session.getId()), session);
+        } catch (Exception e) {
+            logger.error("save session error. ", e);
+            markReplaced(session);
+        }
+    }
+
+    @Override
+    public void updateSession(Session session) {
+        if (session == null || session.getId() == null) {
+            throw new NullPointerException("session is empty");
+        }
+
+        Set<Object> changed = session instanceof AbstractSession
+                ? ((AbstractSession) session).drainChangedAttributes() : null;
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            byte[] sessionKey = serializeSessionKey(session.getId());
+            if (changed == null || !updateChanges(redisConnection, sessionKey, session, changed)) {
+                replaceSession(redisConnection, sessionKey, session);
+            }
+        } catch (Exception e) {
+            logger.error("update session error. ", e);
+            // 本次变更未写入，下次更新时重写全部属性
+            markReplaced(session);
+        }
+    }
+
+    @Override
+    public void refreshSession(Serializable sessionId) {
+        if (sessionId == null) {
+            throw new NullPointerException("session is empty");
+        }
+
+        try {
+            byte[] sessionKey = serializeSessionKey(sessionId);
+            // 续期不影响本次请求的结果，请求上下文允许时延迟到请求结束批量发送
+            if (!RedisRequestContext.defer(redisConnectionFactory,
+                    connection -> connection.expire(sessionKey, expiration.getSeconds()))) {
+                try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+                    redisConnection.expire(sessionKey, expiration.getSeconds());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("refresh session error. ", e);
+        }
+    }
+
+    @Override
+    public void deleteSession(Serializable sessionId) {
+        if (sessionId == null) {
+            throw new NullPointerException("session id is empty");
+        }
+
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            redisConnection.del(serializeSessionKey(sessionId));
+        } catch (Exception e) {
+            logger.error("delete session error. ", e);
+        }
+    }
+
+    @Override
+    public Session getSession(Serializable sessionId) {
+        if (sessionId == null) {
+            throw new NullPointerException("session id is empty");
+        }
+
+        Session session = null;
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            session = readSession(redisConnection.hGetAll(serializeSessionKey(sessionId)));
+        } catch (Exception e) {
+            logger.error("get session error. ", e);
+        }
+
+        return session;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Collection<Session> getAllSessions() {
+        Collection<Session> sessions = null;
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            List<Session> result = new ArrayList<>();
+            RedisUtil.scan(redisConnection, keyPrefix + "*", scanCount, page -> {
+                redisConnection.openPipeline();
+                List<Object> pageValues;
+                try {
+                    for (byte[] key : page) {
+                        redisConnection.hGetAll(key);
+                    }
+                } finally {
+                    pageValues = redisConnection.closePipeline();
+                }
+                for (Object value : pageValues) {
+                    Session session = value instanceof Map ? readSession((Map<byte[], byte[]>) value) : null;
+                    if (session != null) {
+                        result.add(session);
+                    }
+                }
+            });
+            if (!result.isEmpty()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Currently scanning to {} key-values.", result.size());
+                }
+                sessions = Collections.unmodifiableList(result);
+            }
+        } catch (Exception e) {
+            logger.error("get all sessions error.", e);
+        }
+
+        return sessions;
+    }
+
+    @Override
+    public Long getActiveSessionsSize() {
+        long size = 0L;
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            size = RedisUtil.scan(redisConnection, keyPrefix + "*", scanCount, page -> {
+            });
+        } catch (Exception e) {
+            logger.error("get all sessions error.", e);
+        }
+
+        return size;
+    }
+
+    /**
+     * 重写整个 hash
+     */
+    private void replaceSession(RedisConnection redisConnection, byte[] sessionKey, Session session) {
+        List<byte[]> args = new ArrayList<>();
+        args.add(sessionKey);
+        args.add(seconds());
+        List<byte[]> removed = new ArrayList<>();
+        writeFields(session, args, removed);
+        for (Object key : session.getAttributeKeys()) {
+            Object value = session.getAttribute(key);
+            if (value != null) {
+                args.add(attributeField(key));
+                args.add(serializerValue.serialize(value));
+            }
+        }
+
+        REPLACE.execute(redisConnection, ReturnType.INTEGER, 1, RedisUtil.toArray(args));
+        if (logger.isDebugEnabled()) {
+            logger.debug("replaced session {} with {} fields", session.getId(), (args.size() - 2) / 2);
+        }
+    }
+
+    /**
+     * 写入基本字段与变更过的属性
+     *
+     * @return 会话不存在时返回 false
+     */
+    private boolean updateChanges(RedisConnection redisConnection, byte[] sessionKey, Session session,
+                                  Set<Object> changed) {
+        List<byte[]> pairs = new ArrayList<>();
+        List<byte[]> removed = new ArrayList<>();
+        writeFields(session, pairs, removed);
+        for (Object key : changed) {
+            Object value = session.getAttribute(key);
+            if (value != null) {
+                pairs.add(attributeField(key));
+                pairs.add(serializerValue.serialize(value));
+            } else {
+                removed.add(attributeField(key));
+            }
+        }
+
+        List<byte[]> args = new ArrayList<>(pairs.size() + removed.size() + 3);
+        args.add(sessionKey);
+        args.add(seconds());
+        args.add(bytes(String.valueOf(pairs.size() / 2)));
+        args.addAll(pairs);
+        args.addAll(removed);
+
+        Long result = UPDATE.execute(redisConnection, ReturnType.INTEGER, 1, RedisUtil.toArray(args));
+        if (logger.isDebugEnabled()) {
+            logger.debug("updated session {} with {} changed attributes", session.getId(), changed.size());
+        }
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 基本字段，值为空的字段加入删除列表
+     */
+    private void writeFields(Session session, List<byte[]> pairs, List<byte[]> removed) {
+        pairs.add(FIELD_ID);
+        pairs.add(serializerValue.serialize(session.getId()));
+        addField(pairs, removed, FIELD_START_TIMESTAMP, time(session.getStartTimestamp()));
+        addField(pairs, removed, FIELD_LAST_ACCESS_TIME, time(session.getLastAccessTime()));
+        addField(pairs, removed, FIELD_TIMEOUT, String.valueOf(session.getTimeout()));
+        addField(pairs, removed, FIELD_HOST, session.getHost());
+        if (session instanceof SimpleSession) {
+            SimpleSession simpleSession = (SimpleSession) session;
+            addField(pairs, removed, FIELD_STOP_TIMESTAMP, time(simpleSession.getStopTimestamp()));
+            addField(pairs, removed, FIELD_EXPIRED, simpleSession.isExpired() ? "1" : "0");
+        }
+    }
+
+    private static void addField(List<byte[]> pairs, List<byte[]> removed, byte[] field, String value) {
+        if (value != null) {
+            pairs.add(field);
+            pairs.add(bytes(value));
+        } else {
+            removed.add(field);
+        }
+    }
+
+    private Session readSession(Map<byte[], byte[]> hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+
+        ShiroSession session = new ShiroSession();
+        Map<Object, Object> attributes = new HashMap<>();
+        for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+            byte[] field = entry.getKey();
+            byte[] value = entry.getValue();
+            if (startsWith(field, ATTRIBUTE_PREFIX)) {
+                attributes.put(new String(field, ATTRIBUTE_PREFIX.length, field.length - ATTRIBUTE_PREFIX.length,
+                        StandardCharsets.UTF_8), serializerValue.deserialize(value));
+            } else if (startsWith(field, OBJECT_ATTRIBUTE_PREFIX)) {
+                attributes.put(serializerValue.deserialize(Arrays.copyOfRange(field, OBJECT_ATTRIBUTE_PREFIX.length,
+                        field.length)), serializerValue.deserialize(value));
+            } else if (Arrays.equals(field, FIELD_ID)) {
+                session.setId((Serializable) serializerValue.deserialize(value));
+            } else if (Arrays.equals(field, FIELD_START_TIMESTAMP)) {
+                session.setStartTimestamp(date(value));
+            } else if (Arrays.equals(field, FIELD_STOP_TIMESTAMP)) {
+                session.setStopTimestamp(date(value));
+            } else if (Arrays.equals(field, FIELD_LAST_ACCESS_TIME)) {
+                session.setLastAccessTime(date(value));
+            } else if (Arrays.equals(field, FIELD_TIMEOUT)) {
+                session.setTimeout(Long.parseLong(string(value)));
+            } else if (Arrays.equals(field, FIELD_EXPIRED)) {
+                session.setExpired("1".equals(string(value)));
+            } else if (Arrays.equals(field, FIELD_HOST)) {
+                session.setHost(string(value));
+            }
+        }
+        if (session.getId() == null) {
+            return null;
+        }
+
+        if (!attributes.isEmpty()) {
+            session.setAttributes(attributes);
+        }
+        session.setChanged(false);
+        session.drainChangedAttributes();
+        return session;
+    }
+
+    private byte[] attributeField(Object key) {
+        if (key instanceof String) {
+            return concat(ATTRIBUTE_PREFIX, bytes((String) key));
+        }
+        return concat(OBJECT_ATTRIBUTE_PREFIX, serializerValue.serialize(key));
+    }
+
+    private byte[] seconds() {
+        return bytes(String.valueOf(expiration.getSeconds()));
+    }
+
+    private static void markReplaced(Session session) {
+        if (session instanceof AbstractSession) {
+            ((AbstractSession) session).markAttributesReplaced();
+        }
+    }
+
+    private static String time(Date date) {
+        return date != null ? String.valueOf(date.getTime()) : null;
+    }
+
+    private static Date date(byte[] value) {
+        return new Date(Long.parseLong(string(value)));
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] concat(byte[] prefix, byte[] bytes) {
+        byte[] result = Arrays.copyOf(prefix, prefix.length + bytes.length);
+        System.arraycopy(bytes, 0, result, prefix.length, bytes.length);
+        return result;
+    }
+
+    private byte[] serializeSessionKey(Serializable sessionId) {
+        RedisKeyCodec codec = keyCodec;
+        if (codec == null) {
+            if (!RedisKeyCodec.supports(serializerKey)) {
+                return serializerKey.serialize(keyPrefix + sessionId);
+            }
+            codec = new RedisKeyCodec(keyPrefix, hotKeyCacheSize);
+            keyCodec = codec;
+        }
+        return codec.encode(sessionId);
+    }
+
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+        this.keyCodec = null;
+    }
+
+    public void setExpiration(Duration expiration) {
+        this.expiration = expiration;
+    }
+
+    public void setSerializerKey(RedisSerializer<String> serializerKey) {
+        this.serializerKey = serializerKey;
+        this.keyCodec = null;
+    }
+
+    public void setSerializerValue(RedisSerializer<Object> serializerValue) {
+        this.serializerValue = serializerValue;
+    }
+
+    public void setScanCount(int scanCount) {
+        this.scanCount = scanCount;
+    }
+
+    public void setHotKeyCacheSize(int hotKeyCacheSize) {
+        this.hotKeyCacheSize = hotKeyCacheSize;
+        this.keyCodec = null;
+    }
+
+}
@@ -1,6 +1,14 @@
 package com.i5018.shiro.session.repository;
 
+import com.i5018.shiro.cache.LocalFallbackStore;
+import com.i5018.shiro.util.LettuceAsyncCommands;
+import com.i5018.shiro.util.MultiplexingRedisSerializer;
 import com.i5018.shiro.util.ObjectRedisSerializer;
+import com.i5018.shiro.util.RedisCircuitBreaker;
+import com.i5018.shiro.util.RedisKeyCodec;
+import com.i5018.shiro.util.RedisKeyIndex;
+import com.i5018.shiro.util.RedisRequestContext;
+import com.i5018.shiro.util.RedisUtil;
 import org.apache.shiro.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,22 +20,30 @@ import org.springframework.util.CollectionUtils;
 
 import java.io.Serializable;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 /**
  * @author limk
  * @date 2020/9/2 10:27
  */
-public class SessionRepositoryImpl implements SessionRepository {
+public class SessionRepositoryImpl implements AsyncSessionRepository {
 
     private static final Logger logger = LoggerFactory.getLogger(SessionRepositoryImpl.class);
 
     private static final String DEFAULT_REDIS_SHIRO_SESSION = "shiro:session:";
 
+    /**
+     * 成员索引key后缀
+     */
+    private static final String INDEX_KEY_SUFFIX = "@index";
+
     /**
      * redis连接工厂
      */
@@ -53,8 +69,58 @@ public class SessionRepositoryImpl implements SessionRepository {
      */
     private RedisSerializer<Object> serializerValue = new ObjectRedisSerializer();
 
+    /**
+     * SCAN 每批数量
+     */
+    private int scanCount = 1000;
+
+    /**
+     * 是否维护会话索引，启用后会话数量为 ZCOUNT，遍历不再扫描 keyspace
+     */
+    private boolean indexEnabled = false;
+
+    /**
+     * 会话索引
+     */
+    private RedisKeyIndex keyIndex;
+
+    /**
+     * 热点会话ID编码缓存大小，同一请求内会多次读写同一会话
+     */
+    private int hotKeyCacheSize = 1024;
+
+    /**
+     * key 编码，key 序列化工具不是 UTF-8 字符串序列化时为空
+     */
+    private volatile RedisKeyCodec keyCodec;
+
+    /**
+     * 执行异步操作的线程池：非 Lettuce 连接时的异步读写、降级回写以及旧格式回写，
+     * 任务中会执行阻塞的 redis 调用，不要使用 {@code ForkJoinPool.commonPool()} 等共享线程池；
+     * 为空时在调用线程上直接执行
+     */
+    private Executor asyncExecutor;
+
+    /**
+     * redis 不可用时的本地降级存储，为空时不降级
+     */
+    private LocalFallbackStore<Serializable, Session> fallbackStore;
+
+    /**
+     * 是否把会话更新延迟到请求结束时发送，需要绑定 {@link RedisRequestContext}。
+     * 响应提交后、请求结束前到达的同一会话的新请求可能读到旧会话，默认只延迟续期
+     */
+    private boolean deferUpdates = false;
+
+    /**
+     * Lettuce 原生异步命令，非 Lettuce 连接时为空
+     */
+    private final LettuceAsyncCommands asyncCommands;
+
     public SessionRepositoryImpl(RedisConnectionFactory redisConnectionFactory) {
         this.redisConnectionFactory = redisConnectionFactory;
+        this.asyncCommands = LettuceAsyncCommands.supports(redisConnectionFactory)
+                ? new LettuceAsyncCommands(redisConnectionFactory) : null;
     }
 
     @Override
@@ -63,11 +129,14 @@ public class SessionRepositoryImpl implements SessionRepository {
             throw new NullPointerException("session is empty");
         }
 
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            String sessionKey = buildRedisSessionKey(session.getId());
-            redisConnection.setEx(serializeKey(sessionKey), expiration.getSeconds(), serializeValue(session));
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            writeSession(redisConnection, serializeSessionKey(session.getId()), serializeValue(session));
+            mirror(session);
         } catch (Exception e) {
             logger.error("save session error. ", e);
+            if (isFallback(e)) {
+                fallbackStore.put(session.getId(), session, expiration.toMillis());
+            }
         }
     }
 
@@ -77,11 +146,25 @@ public class SessionRepositoryImpl implements SessionRepository {
             throw new NullPointerException("session is empty");
         }
 
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            String sessionKey = buildRedisSessionKey(session.getId());
-            redisConnection.setEx(serializeKey(sessionKey), expiration.getSeconds(), serializeValue(session));
+        try {
+            byte[] sessionKey = serializeSessionKey(session.getId());
+            byte[] value = serializeValue(session);
+            if (!deferUpdates || !RedisRequestContext.defer(redisConnectionFactory,
+                    connection -> writeSession(connection, sessionKey, value), e -> {
+                        if (isFallback(e)) {
+                            fallbackStore.put(session.getId(), session, expiration.toMillis());
+                        }
+                    })) {
+                try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+                    writeSession(redisConnection, sessionKey, value);
+                }
+            }
+            mirror(session);
         } catch (Exception e) {
             logger.error("update session error. ", e);
+            if (isFallback(e)) {
+                fallbackStore.put(session.getId(), session, expiration.toMillis());
+            }
         }
     }
 
@@ -91,11 +174,30 @@ public class SessionRepositoryImpl implements SessionRepository {
             throw new NullPointerException("session is empty");
         }
 
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            String sessionKey = buildRedisSessionKey(sessionId);
-            redisConnection.expire(serializeKey(sessionKey), expiration.getSeconds());
+        try {
+            byte[] sessionKey = serializeSessionKey(sessionId);
+            // 续期不影响本次请求的结果，请求上下文允许时延迟到请求结束批量发送
+            if (!RedisRequestContext.defer(redisConnectionFactory,
+                    connection -> expireSession(connection, sessionKey), e -> refreshFallback(sessionId, e))) {
+                try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+                    expireSession(redisConnection, sessionKey);
+                }
+            }
         } catch (Exception e) {
             logger.error("refresh session error. ", e);
+            refreshFallback(sessionId, e);
+        }
+    }
+
+    /**
+     * 续期失败时续期本地降级存储中的会话
+     */
+    private void refreshFallback(Serializable sessionId, Exception e) {
+        if (isFallback(e)) {
+            Session session = fallbackStore.get(sessionId);
+            if (session != null) {
+                fallbackStore.put(sessionId, session, expiration.toMillis());
+            }
         }
     }
 
@@ -105,11 +207,21 @@ public class SessionRepositoryImpl implements SessionRepository {
             throw new NullPointerException("session id is empty");
         }
 
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            String sessionKey = buildRedisSessionKey(sessionId);
-            redisConnection.del(serializeKey(sessionKey));
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            byte[] sessionKey = serializeSessionKey(sessionId);
+            if (indexEnabled) {
+                keyIndex().delete(redisConnection, sessionKey);
+            } else {
+                redisConnection.del(sessionKey);
+            }
+            if (fallbackStore != null) {
+                fallbackStore.evict(sessionId);
+            }
         } catch (Exception e) {
             logger.error("delete session error. ", e);
+            if (isFallback(e)) {
+                fallbackStore.remove(sessionId);
+            }
         }
     }
 
@@ -120,31 +232,126 @@ public class SessionRepositoryImpl implements SessionRepository {
         }
 
         Session session = null;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            String sessionKey = buildRedisSessionKey(sessionId);
-            session = (Session) deserializeValue(redisConnection.get(serializeKey(sessionKey)));
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            byte[] sessionKey = serializeSessionKey(sessionId);
+            byte[] bytes = redisConnection.get(sessionKey);
+            session = (Session) deserializeValue(bytes);
+            if (session != null) {
+                mirror(session);
+                rewriteIfLegacy(sessionKey, bytes, session);
+            }
         } catch (Exception e) {
             logger.error("get session error. ", e);
+            if (isFallback(e)) {
+                session = fallbackStore.get(sessionId);
+            }
         }
 
         return session;
     }
 
+    @Override
+    public CompletableFuture<Void> updateSessionAsync(Session session) {
+        if (session == null || session.getId() == null) {
+            throw new NullPointerException("session is empty");
+        }
+        if (asyncCommands == null) {
+            return CompletableFuture.runAsync(() -> updateSession(session), asyncExecutor());
+        }
+
+        CompletableFuture<Void> future;
+        try {
+            byte[] sessionKey = serializeSessionKey(session.getId());
+            byte[] value = serializeValue(session);
+            future = indexEnabled
+                    ? keyIndex().putAsync(asyncCommands, sessionKey, expiration.getSeconds(), value)
+                    : asyncCommands.setEx(sessionKey, expiration.getSeconds(), value).thenApply(result -> null);
+        } catch (Exception e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.exceptionally(e -> {
+            logger.error("update session async error. ", e);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> refreshSessionAsync(Serializable sessionId) {
+        if (sessionId == null) {
+            throw new NullPointerException("session is empty");
+        }
+        if (asyncCommands == null) {
+            return CompletableFuture.runAsync(() -> refreshSession(sessionId), asyncExecutor());
+        }
+
+        byte[] sessionKey = serializeSessionKey(sessionId);
+        CompletableFuture<Void> future = indexEnabled
+                ? keyIndex().expireAsync(asyncCommands, sessionKey, expiration.getSeconds()).thenApply(result -> null)
+                : asyncCommands.expire(sessionKey, expiration.getSeconds()).thenApply(result -> null);
+        return future.exceptionally(e -> {
+            logger.error("refresh session async error. ", e);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteSessionAsync(Serializable sessionId) {
+        if (sessionId == null) {
+            throw new NullPointerException("session id is empty");
+        }
+        if (asyncCommands == null) {
+            return CompletableFuture.runAsync(() -> deleteSession(sessionId), asyncExecutor());
+        }
+
+        byte[] sessionKey = serializeSessionKey(sessionId);
+        CompletableFuture<Void> future = indexEnabled
+                ? keyIndex().deleteAsync(asyncCommands, sessionKey)
+                : asyncCommands.del(sessionKey).thenApply(result -> null);
+        return future.exceptionally(e -> {
+            logger.error("delete session async error. ", e);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Session> getSessionAsync(Serializable sessionId) {
+        if (sessionId == null) {
+            throw new NullPointerException("session id is empty");
+        }
+        if (asyncCommands == null) {
+            return CompletableFuture.supplyAsync(() -> getSession(sessionId), asyncExecutor());
+        }
+
+        return asyncCommands.get(serializeSessionKey(sessionId))
+                .thenApply(bytes -> (Session) deserializeValue(bytes))
+                .exceptionally(e -> {
+                    logger.error("get session async error. ", e);
+                    return null;
+                });
+    }
+
     @Override
     public Collection<Session> getAllSessions() {
         Collection<Session> sessions = null;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            Set<byte[]> allKeys = allKeys(redisConnection);
-            if (!CollectionUtils.isEmpty(allKeys)) {
-                List<byte[]> allValues = redisConnection.mGet(allKeys.toArray(new byte[allKeys.size()][]));
-                if (!CollectionUtils.isEmpty(allValues)) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Currently scanning to {} key-values.", allValues.size());
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            List<Session> result = new ArrayList<>();
+            scanKeys(redisConnection, page -> {
+                List<byte[]> pageValues = redisConnection.mGet(RedisUtil.toArray(page));
+                if (!CollectionUtils.isEmpty(pageValues)) {
+                    for (byte[] value : pageValues) {
+                        Session session = (Session) deserializeValue(value);
+                        if (session != null) {
+                            result.add(session);
+                        }
                     }
-                    List<Session> result = allValues.stream().map(value -> (Session) deserializeValue(value))
-                            .collect(Collectors.toList());
-                    sessions = Collections.unmodifiableList(result);
                 }
+            });
+            if (!result.isEmpty()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Currently scanning to {} key-values.", result.size());
+                }
+                sessions = Collections.unmodifiableList(result);
             }
         } catch (Exception e) {
             logger.error("get all sessions error.", e);
@@ -156,10 +363,12 @@ public class SessionRepositoryImpl implements SessionRepository {
     @Override
     public Long getActiveSessionsSize() {
         long size = 0L;
-        try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
-            Set<byte[]> allKeys = allKeys(redisConnection);
-            if (!CollectionUtils.isEmpty(allKeys)) {
-                size = allKeys.size();
+        try (RedisConnection redisConnection = RedisRequestContext.getConnection(redisConnectionFactory)) {
+            if (indexEnabled) {
+                size = keyIndex().count(redisConnection);
+            } else {
+                size = RedisUtil.scan(redisConnection, keyPrefix + "*", scanCount, page -> {
+                });
             }
         } catch (Exception e) {
             logger.error("get all sessions error.", e);
@@ -168,12 +377,110 @@ public class SessionRepositoryImpl implements SessionRepository {
         return size;
     }
 
+    private void writeSession(RedisConnection redisConnection, byte[] sessionKey, byte[] value) {
+        if (indexEnabled) {
+            keyIndex().put(redisConnection, sessionKey, expiration.getSeconds(), value);
+        } else {
+            redisConnection.setEx(sessionKey, expiration.getSeconds(), value);
+        }
+    }
+
+    private void expireSession(RedisConnection redisConnection, byte[] sessionKey) {
+        if (indexEnabled) {
+            keyIndex().expire(redisConnection, sessionKey, expiration.getSeconds());
+        } else {
+            redisConnection.expire(sessionKey, expiration.getSeconds());
+        }
+    }
+
+    /**
+     * 同步最近读写的会话到本地降级存储，并回写降级期间的修改
+     */
+    private void mirror(Session session) {
+        if (fallbackStore == null) {
+            return;
+        }
+        fallbackStore.mirror(session.getId(), session, expiration.toMillis());
+        if (fallbackStore.hasPending()) {
+            try {
+                asyncExecutor().execute(() -> fallbackStore.reconcile(() -> {
+                }, (sessionId, pending) -> updateSession(pending), this::deleteSession));
+            } catch (RejectedExecutionException e) {
+                logger.error("reconcile sessions rejected. ", e);
+            }
+        }
+    }
+
+    /**
+     * 读到旧格式的会话时按当前格式异步回写
+     */
+    private void rewriteIfLegacy(byte[] sessionKey, byte[] bytes, Session session) {
+        if (!MultiplexingRedisSerializer.isRewriteRequired(serializerValue, bytes)) {
+            return;
+        }
+        byte[] rewritten = serializeValue(session);
+        try {
+            asyncExecutor().execute(() -> {
+                try (RedisConnection redisConnection = redisConnectionFactory.getConnection()) {
+                    MultiplexingRedisSerializer.rewrite(redisConnection, sessionKey, bytes, rewritten);
+                } catch (Exception e) {
+                    logger.error("rewrite legacy session error. ", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.error("rewrite legacy session rejected. ", e);
+        }
+    }
+
+    private Executor asyncExecutor() {
+        return asyncExecutor != null ? asyncExecutor : RedisUtil.DIRECT_EXECUTOR;
+    }
+
+    private boolean isFallback(Exception e) {
+        return fallbackStore != null && RedisCircuitBreaker.isFailure(e);
+    }
+
+    /**
+     * 分页遍历会话key，启用索引时遍历索引，否则 SCAN
+     */
+    private void scanKeys(RedisConnection redisConnection, Consumer<List<byte[]>> pageConsumer) {
+        if (indexEnabled) {
+            keyIndex().scan(redisConnection, scanCount, pageConsumer);
+        } else {
+            RedisUtil.scan(redisConnection, keyPrefix + "*", scanCount, pageConsumer);
+        }
+    }
+
+    /**
+     * 索引key不能落在 keyPrefix* 的匹配范围内，去掉结尾的分隔符后再追加后缀
+     */
+    private RedisKeyIndex keyIndex() {
+        if (keyIndex == null) {
+            String base = keyPrefix.endsWith(":") ? keyPrefix.substring(0, keyPrefix.length() - 1) : keyPrefix;
+            keyIndex = new RedisKeyIndex(serializeKey(base + INDEX_KEY_SUFFIX));
+        }
+        return keyIndex;
+    }
+
     private String buildRedisSessionKey(Serializable sessionId) {
         return keyPrefix + sessionId;
     }
 
+    private byte[] serializeSessionKey(Serializable sessionId) {
+        RedisKeyCodec codec = keyCodec;
+        if (codec == null) {
+            if (!RedisKeyCodec.supports(serializerKey)) {
+                return serializeKey(buildRedisSessionKey(sessionId));
+            }
+            codec = new RedisKeyCodec(keyPrefix, hotKeyCacheSize);
+            keyCodec = codec;
+        }
+        return codec.encode(sessionId);
+    }
+
     public void setKeyPrefix(String keyPrefix) {
         this.keyPrefix = keyPrefix;
+        this.keyCodec = null;
     }
 
     public void setExpiration(Duration expiration) {
@@ -182,12 +489,41 @@ public class SessionRepositoryImpl implements SessionRepository {
 
     public void setSerializerKey(RedisSerializer<String> serializerKey) {
         this.serializerKey = serializerKey;
+        this.keyCodec = null;
     }
 
     public void setSerializerValue(RedisSerializer<Object> serializerValue) {
         this.serializerValue = serializerValue;
     }
 
+    public void setScanCount(int scanCount) {
+        this.scanCount = scanCount;
+    }
+
+    public void setHotKeyCacheSize(int hotKeyCacheSize) {
+        this.hotKeyCacheSize = hotKeyCacheSize;
+        this.keyCodec = null;
+    }
+
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * redis 不可用时本地降级存储的最大会话数，0 表示不降级
+     */
+    public void setFallbackMaxSize(int fallbackMaxSize) {
+        this.fallbackStore = fallbackMaxSize > 0 ? new LocalFallbackStore<>(fallbackMaxSize) : null;
+    }
+
+    public void setIndexEnabled(boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+    }
+
+    public void setDeferUpdates(boolean deferUpdates) {
+        this.deferUpdates = deferUpdates;
+    }
+
     private byte[] serializeKey(String key) {
         return serializerKey.serialize(key);
     }
@@ -210,14 +546,4 @@ public class SessionRepositoryImpl implements SessionRepository {
         return serializerValue.deserialize(bytes);
     }
 
-    private Set<byte[]> allKeys(RedisConnection redisConnection) {
-        Set<byte[]> allKeys = Collections.emptySet();
-        byte[] serializeKeys = serializerKey.serialize(keyPrefix + "*");
-        if (serializeKeys != null) {
-            allKeys = redisConnection.keys(serializeKeys);
-        }
-
-        return allKeys;
-    }
-
 }
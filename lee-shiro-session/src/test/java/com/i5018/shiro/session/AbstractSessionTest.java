@@ -0,0 +1,99 @@
+package com.i5018.shiro.session;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link AbstractSession} 属性变更记录
+ *
+ * @author limk
+ * @date 2020/9/17 10:20
+ */
+public class AbstractSessionTest {
+
+    @Test
+    public void drainReturnsChangedAndRemovedKeys() {
+        ShiroSession session = new ShiroSession();
+        session.setAttribute("a", 1);
+        session.setAttribute("b", 2);
+        session.removeAttribute("a");
+
+        Set<Object> changed = session.drainChangedAttributes();
+        assertEquals(new HashSet<Object>(Arrays.asList("a", "b")), changed);
+        assertTrue(session.drainChangedAttributes().isEmpty());
+    }
+
+    @Test
+    public void unchangedValueIsNotRecorded() {
+        ShiroSession session = new ShiroSession();
+        session.setAttribute("a", 1);
+        session.drainChangedAttributes();
+
+        session.setAttribute("a", 1);
+        assertTrue(session.drainChangedAttributes().isEmpty());
+    }
+
+    @Test
+    public void replacedAttributesRequireFullRewrite() {
+        ShiroSession session = new ShiroSession();
+        session.setAttribute("a", 1);
+        session.markAttributesReplaced();
+        session.setAttribute("b", 2);
+
+        assertNull(session.drainChangedAttributes());
+        assertTrue(session.drainChangedAttributes().isEmpty());
+    }
+
+    /**
+     * 一个线程设置属性，另一个线程模拟会话更新不断取出并遍历变更，
+     * 所有设置过的 key 都必须被某次取出，且遍历不能抛出并发修改异常
+     */
+    @Test
+    public void concurrentSetThenUpdateLosesNoKeys() throws Exception {
+        final int keys = 200_000;
+        ShiroSession session = new ShiroSession();
+        Set<Object> written = new HashSet<>();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1);
+
+        Thread updater = new Thread(() -> {
+            started.countDown();
+            try {
+                while (!done.get()) {
+                    Set<Object> changed = session.drainChangedAttributes();
+                    for (Object key : changed) {
+                        written.add(key);
+                    }
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        updater.start();
+        started.await();
+
+        for (int i = 0; i < keys; i++) {
+            session.setAttribute("key" + i, i);
+        }
+        done.set(true);
+        updater.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        written.addAll(session.drainChangedAttributes());
+        assertEquals(keys, written.size());
+    }
+
+}
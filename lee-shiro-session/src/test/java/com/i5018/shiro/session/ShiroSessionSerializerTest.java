@@ -0,0 +1,414 @@
+package com.i5018.shiro.session;
+
+import com.i5018.shiro.authc.UserPrincipal;
+import com.i5018.shiro.constant.ShiroConstant;
+import com.i5018.shiro.constant.ShiroUserStateEnum;
+import com.i5018.shiro.util.BinaryOutput;
+import com.i5018.shiro.util.ObjectRedisSerializer;
+import com.i5018.shiro.util.RedisDictionary;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
+import org.apache.shiro.web.util.WebUtils;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ShiroSessionSerializer} 的格式兼容性，不需要 redis，字典使用内存实现
+ * <p>
+ * 固定字节数组用于发现格式的意外变化：调整常用属性 key 的顺序、标识位或字段顺序都会导致失败，
+ * 这类修改只能追加并升级版本号。
+ * </p>
+ *
+ * @author limk
+ * @date 2020/9/17 17:10
+ */
+public class ShiroSessionSerializerTest {
+
+    private static final byte MAGIC = (byte) 0xB5;
+
+    /**
+     * 版本 1（角色、权限写为字符串）的固定会话
+     */
+    private static final String GOLDEN_V1 = "b5011f06676f6c64656e00000174876e800000000174876f6a6000000174877054c080dddb01093132372e302e302e310500"
+            + "01020004040400020000000701057265616c6d01087f020561646d696e067365637265740473616c7400020561646d696e04"
+            + "757365720309757365723a726561640a757365723a777269746509726f6c653a72656164000303";
+
+    /**
+     * 版本 3（角色、权限写为代号为 7 的字典编号）的固定会话
+     */
+    private static final String GOLDEN_V3 = "b5031f06676f6c64656e00000174876e800000000174876f6a6000000174877054c080dddb01093132372e302e302e310500"
+            + "01020004040400020000000701057265616c6d01089f03020561646d696e067365637265740473616c740000000000000000"
+            + "07020101000000000000000703030101000303";
+
+    @Test
+    public void stringPayloadRoundTripsWithoutDictionary() {
+        ShiroSessionSerializer serializer = new ShiroSessionSerializer();
+        ShiroSession session = loggedInSession("s-1");
+
+        byte[] bytes = serializer.serialize(session);
+        assertEquals(MAGIC, bytes[0]);
+        assertEquals(1, bytes[1]);
+        assertSessionEquals(session, serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void dictionaryPayloadRoundTrips() {
+        ShiroSessionSerializer serializer = serializer(new MemoryDictionary(7));
+        ShiroSession session = loggedInSession("s-1");
+
+        byte[] bytes = serializer.serialize(session);
+        assertEquals(3, bytes[1]);
+        assertTrue(bytes.length < new ShiroSessionSerializer().serialize(session).length);
+        assertSessionEquals(session, serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void unavailableDictionaryFallsBackToStrings() {
+        MemoryDictionary dictionary = new MemoryDictionary(7);
+        dictionary.available = false;
+        ShiroSessionSerializer serializer = serializer(dictionary);
+        ShiroSession session = loggedInSession("s-1");
+
+        byte[] bytes = serializer.serialize(session);
+        assertEquals(3, bytes[1]);
+        assertSessionEquals(session, serializer(new MemoryDictionary(8)).deserialize(bytes));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void idsFromAnotherDictionaryGenerationAreRejected() {
+        byte[] bytes = serializer(new MemoryDictionary(7)).serialize(loggedInSession("s-1"));
+        serializer(new MemoryDictionary(8)).deserialize(bytes);
+    }
+
+    @Test
+    public void version2PayloadIsReadOnlyWithoutDictionaryIds() {
+        byte[] strings = new ShiroSessionSerializer().serialize(loggedInSession("s-1"));
+        strings[1] = 2;
+        assertSessionEquals(loggedInSession("s-1"), new ShiroSessionSerializer().deserialize(strings));
+
+        byte[] ids = serializer(new MemoryDictionary(7)).serialize(loggedInSession("s-1"));
+        ids[1] = 2;
+        try {
+            serializer(new MemoryDictionary(7)).deserialize(ids);
+            fail("version 2 dictionary ids carry no generation and must be rejected");
+        } catch (SerializationException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void legacyJdkPayloadIsReadThroughFallback() {
+        ShiroSession session = loggedInSession("s-1");
+        byte[] legacy = new ObjectRedisSerializer().serialize(session);
+
+        assertSessionEquals(session, new ShiroSessionSerializer().deserialize(legacy));
+        assertEquals("plain", new ShiroSessionSerializer().deserialize(new ObjectRedisSerializer().serialize("plain")));
+        assertEquals("plain", new ObjectRedisSerializer().deserialize(new ShiroSessionSerializer().serialize("plain")));
+    }
+
+    @Test
+    public void userPrincipalWithNullFieldsRoundTrips() {
+        UserPrincipal empty = new UserPrincipal(null, null, null, null, ShiroUserStateEnum.NORMAL);
+        empty.setState(null);
+        UserPrincipal emptySets = new UserPrincipal(1L, "u", null, null, ShiroUserStateEnum.NORMAL);
+        emptySets.setRoles(new LinkedHashSet<>());
+        emptySets.setPermissions(new LinkedHashSet<>());
+
+        for (ShiroSessionSerializer serializer : Arrays.asList(new ShiroSessionSerializer(),
+                serializer(new MemoryDictionary(7)))) {
+            for (UserPrincipal user : Arrays.asList(empty, emptySets)) {
+                ShiroSession session = session("s-1");
+                session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY, new SimplePrincipalCollection(user, "realm"));
+                session.setAttribute("user", user);
+                assertSessionEquals(session, serializer.deserialize(serializer.serialize(session)));
+            }
+        }
+    }
+
+    @Test
+    public void nonStringIdsKeysAndValuesRoundTrip() {
+        ShiroSessionSerializer serializer = new ShiroSessionSerializer();
+        for (Serializable id : Arrays.<Serializable>asList(42L, new UUID(1, 2))) {
+            Map<Object, Object> attributes = new HashMap<>();
+            attributes.put(7, "int key");
+            attributes.put(new Date(5L), "date key");
+            attributes.put("null", null);
+            attributes.put("int", -3);
+            attributes.put("long", Long.MIN_VALUE);
+            attributes.put("false", false);
+            attributes.put("date", new Date(1_600_000_000_000L));
+            attributes.put("object", new ArrayList<>(Arrays.asList("a", "b")));
+            attributes.put(ShiroConstant.DEFAULT_KICK_OUT_SUBJECT, true);
+            ShiroSession session = session(id);
+            session.setAttributes(attributes);
+
+            assertSessionEquals(session, serializer.deserialize(serializer.serialize(session)));
+        }
+    }
+
+    @Test
+    public void truncatedPayloadsRaiseSerializationException() {
+        ShiroSession session = loggedInSession(42L);
+        session.setAttribute("object", new ArrayList<>(Arrays.asList("a", "b")));
+        for (ShiroSessionSerializer serializer : Arrays.asList(new ShiroSessionSerializer(),
+                serializer(new MemoryDictionary(7)))) {
+            byte[] bytes = serializer.serialize(session);
+            for (int length = 1; length < bytes.length; length++) {
+                try {
+                    serializer.deserialize(Arrays.copyOf(bytes, length));
+                    fail("payload truncated to " + length + " of " + bytes.length + " bytes was accepted");
+                } catch (SerializationException expected) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void corruptPayloadsRaiseSerializationException() {
+        byte[] valid = new ShiroSessionSerializer().serialize(loggedInSession("s-1"));
+        for (byte version : new byte[]{0, 4, (byte) 0xFF}) {
+            byte[] bytes = valid.clone();
+            bytes[1] = version;
+            assertRejected(bytes);
+        }
+        assertRejected(new byte[]{MAGIC});
+
+        // 属性 key 类型、属性值类型、常用 key 编号不存在；属性数量为畸形 varint
+        assertRejected(header().key(9).bytes());
+        assertRejected(header().key(1).string("k").value(42).bytes());
+        assertRejected(header().key(0).varInt(99).value(0).bytes());
+        BinaryOutput out = header(-1);
+        for (int i = 0; i < 5; i++) {
+            out.writeByte(0xFF);
+        }
+        assertRejected(out.toByteArray());
+    }
+
+    @Test
+    public void goldenPayloadsAreStable() {
+        ShiroSession session = goldenSession();
+
+        assertEquals(GOLDEN_V1, hex(new ShiroSessionSerializer().serialize(session)));
+        assertSessionEquals(session, new ShiroSessionSerializer().deserialize(bytes(GOLDEN_V1)));
+
+        MemoryDictionary dictionary = new MemoryDictionary(7);
+        ShiroSessionSerializer serializer = serializer(dictionary);
+        assertEquals(GOLDEN_V3, hex(serializer.serialize(session)));
+        assertSessionEquals(session, serializer.deserialize(bytes(GOLDEN_V3)));
+        assertArrayEquals(bytes(GOLDEN_V3), serializer.serialize(serializer.deserialize(bytes(GOLDEN_V3))));
+    }
+
+    private static ShiroSessionSerializer serializer(RedisDictionary dictionary) {
+        ShiroSessionSerializer serializer = new ShiroSessionSerializer();
+        serializer.setDictionary(dictionary);
+        return serializer;
+    }
+
+    private static ShiroSession session(Serializable id) {
+        ShiroSession session = new ShiroSession("127.0.0.1");
+        session.setId(id);
+        session.setStartTimestamp(new Date(1_600_000_000_000L));
+        session.setLastAccessTime(new Date(1_600_000_060_000L));
+        session.setTimeout(1_800_000L);
+        return session;
+    }
+
+    private static ShiroSession loggedInSession(Serializable id) {
+        UserPrincipal user = new UserPrincipal(1L, "admin", "secret", "salt", ShiroUserStateEnum.NORMAL);
+        user.setRoles(new LinkedHashSet<>(Arrays.asList("admin", "user")));
+        user.setPermissions(new LinkedHashSet<>(Arrays.asList("user:read", "user:write", "role:read")));
+
+        ShiroSession session = session(id);
+        session.setAttribute(DefaultSubjectContext.PRINCIPALS_SESSION_KEY, new SimplePrincipalCollection(user, "realm"));
+        session.setAttribute(DefaultSubjectContext.AUTHENTICATED_SESSION_KEY, Boolean.TRUE);
+        return session;
+    }
+
+    /**
+     * 覆盖全部常用 key 与标识位的固定会话
+     */
+    private static ShiroSession goldenSession() {
+        ShiroSession session = loggedInSession("golden");
+        Map<Object, Object> attributes = new HashMap<>(session.getAttributes());
+        attributes.put(ShiroConstant.DEFAULT_KICK_OUT_SUBJECT, Boolean.FALSE);
+        attributes.put(ShiroConstant.DEFAULT_KICK_OUT_RETRY, 2);
+        attributes.put(WebUtils.SAVED_REQUEST_KEY, null);
+        session.setAttributes(attributes);
+        session.setStopTimestamp(new Date(1_600_000_120_000L));
+        session.setExpired(true);
+        return session;
+    }
+
+    private static void assertSessionEquals(ShiroSession expected, Object actual) {
+        assertTrue(String.valueOf(actual), actual instanceof ShiroSession);
+        ShiroSession session = (ShiroSession) actual;
+        assertEquals(expected.getId(), session.getId());
+        assertEquals(expected.getStartTimestamp(), session.getStartTimestamp());
+        assertEquals(expected.getLastAccessTime(), session.getLastAccessTime());
+        assertEquals(expected.getStopTimestamp(), session.getStopTimestamp());
+        assertEquals(expected.getTimeout(), session.getTimeout());
+        assertEquals(expected.getHost(), session.getHost());
+        assertEquals(expected.isExpired(), session.isExpired());
+        assertEquals(expected.isChanged(), session.isChanged());
+        Map<Object, Object> attributes = expected.getAttributes() != null ? expected.getAttributes() : new HashMap<>();
+        Map<Object, Object> actualAttributes = session.getAttributes() != null ? session.getAttributes() : new HashMap<>();
+        assertEquals(attributes, actualAttributes);
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            Object result = new ShiroSessionSerializer().deserialize(bytes);
+            fail("corrupt payload " + hex(bytes) + " was accepted as " + result);
+        } catch (SerializationException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * 版本 1、字符串会话ID、无属性前的固定头部，属性数量为 1
+     */
+    private static PayloadBuilder header() {
+        return new PayloadBuilder(header(1));
+    }
+
+    private static BinaryOutput header(int attributes) {
+        BinaryOutput out = new BinaryOutput(64);
+        out.writeByte(MAGIC);
+        out.writeByte(1);
+        // FLAG_STRING_ID
+        out.writeByte(1 << 4);
+        out.writeString("s");
+        out.writeLong(0L);
+        out.writeLong(0L);
+        out.writeVarLong(0L);
+        if (attributes >= 0) {
+            out.writeVarInt(attributes);
+        }
+        return out;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static final class PayloadBuilder {
+
+        private final BinaryOutput out;
+
+        private PayloadBuilder(BinaryOutput out) {
+            this.out = out;
+        }
+
+        private PayloadBuilder key(int type) {
+            out.writeByte(type);
+            return this;
+        }
+
+        private PayloadBuilder value(int type) {
+            out.writeByte(type);
+            return this;
+        }
+
+        private PayloadBuilder string(String value) {
+            out.writeString(value);
+            return this;
+        }
+
+        private PayloadBuilder varInt(int value) {
+            out.writeVarInt(value);
+            return this;
+        }
+
+        private byte[] bytes() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * 内存字典，编号按首次出现的顺序分配
+     */
+    private static final class MemoryDictionary extends RedisDictionary {
+
+        private final long generation;
+
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private final Map<Integer, String> values = new HashMap<>();
+
+        private boolean available = true;
+
+        private MemoryDictionary(long generation) {
+            super(null, "test");
+            this.generation = generation;
+            for (String value : Arrays.asList("admin", "user", "user:read", "user:write", "role:read")) {
+                ids.put(value, ids.size() + 1);
+                values.put(ids.get(value), value);
+            }
+        }
+
+        @Override
+        public Ids encode(Collection<String> strings) {
+            if (!available) {
+                return null;
+            }
+            int[] result = new int[strings.size()];
+            int i = 0;
+            for (String string : strings) {
+                Integer id = ids.get(string);
+                if (id == null) {
+                    id = ids.size() + 1;
+                    ids.put(string, id);
+                    values.put(id, string);
+                }
+                result[i++] = id;
+            }
+            return new Ids(generation, result);
+        }
+
+        @Override
+        public Set<String> decode(Ids encoded) {
+            if (encoded.getGeneration() != generation) {
+                throw new SerializationException("Dictionary generation mismatch");
+            }
+            Set<String> result = new LinkedHashSet<>();
+            for (int id : encoded.getIds()) {
+                String value = values.get(id);
+                if (value == null) {
+                    throw new SerializationException("Unknown dictionary id " + id);
+                }
+                result.add(value);
+            }
+            return result;
+        }
+    }
+
+}